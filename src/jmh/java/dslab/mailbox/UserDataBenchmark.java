@@ -0,0 +1,61 @@
+package dslab.mailbox;
+
+import java.util.concurrent.TimeUnit;
+
+import dslab.util.Config;
+import dslab.util.Mail;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of storing a mail in a mailbox ({@link UserData#saveMail(String, Mail)}) and of listing a mailbox
+ * ({@link UserData#listMail(String)}) holding a few or many mails.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UserDataBenchmark {
+    private static final String USER = "trillian";
+
+    //mails in the listed mailbox
+    @Param({"10", "1000"})
+    int mailCount;
+
+    private Config users;
+    private Mail mail;
+    private UserData listed;
+    private UserData saved;
+
+    @Setup
+    public void setUp() {
+        users = new Config("users-earth-planet");
+        mail = new Mail();
+        mail.setTo(USER + "@earth.planet");
+        mail.setFrom("arthur@earth.planet");
+        mail.setSubject("benchmark");
+        mail.setData("don't panic");
+
+        listed = new UserData(users, "mailbox-earth-planet");
+        for (int i = 0; i < mailCount; i++) {
+            listed.saveMail(USER, mail);
+        }
+    }
+
+    //start every iteration with an empty mailbox, the saved mails would pile up otherwise
+    @Setup(Level.Iteration)
+    public void emptyMailbox() {
+        saved = new UserData(users, "mailbox-earth-planet");
+    }
+
+    @Benchmark
+    public void saveMail() {
+        saved.saveMail(USER, mail);
+    }
+
+    @Benchmark
+    public String[] listMail() {
+        return listed.listMail(USER);
+    }
+}
@@ -0,0 +1,143 @@
+package dslab.monitoring;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Multi-threaded {@code add} throughput of {@link MonitorData} against the former synchronized implementation, with
+ * and without a thread querying the addresses or servers at the same time.
+ *
+ * Run with {@code gradle jmh} (all benchmarks) or {@code gradle jmh --args='MonitorDataBenchmark -t 8'}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class MonitorDataBenchmark {
+    private static final int SERVERS = 4;
+
+    //number of distinct mail addresses reported
+    @Param({"100", "10000"})
+    int addressCount;
+
+    private String[] servers;
+    private String[] addresses;
+
+    private MonitorData monitorData;
+    private SynchronizedMonitorData synchronizedData;
+
+    //per thread position in the addresses, starting at different offsets so the threads do not hit the same keys
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        @Setup
+        public void setUp() {
+            next = ThreadLocalRandom.current().nextInt(1 << 16);
+        }
+
+        int next() {
+            return next++ & Integer.MAX_VALUE;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        servers = new String[SERVERS];
+        for (int i = 0; i < SERVERS; i++) {
+            servers[i] = "127.0.0.1:" + (13650 + i);
+        }
+        addresses = new String[addressCount];
+        for (int i = 0; i < addressCount; i++) {
+            addresses[i] = "user" + i + "@earth.planet";
+        }
+
+        monitorData = new MonitorData();
+        synchronizedData = new SynchronizedMonitorData();
+        for (int i = 0; i < addressCount; i++) {
+            monitorData.add(servers[i % SERVERS], addresses[i]);
+            synchronizedData.add(servers[i % SERVERS], addresses[i]);
+        }
+    }
+
+    @Benchmark
+    @Group("striped")
+    @GroupThreads(4)
+    public void stripedAdd(Cursor cursor) {
+        int i = cursor.next();
+        monitorData.add(servers[i % SERVERS], addresses[i % addressCount]);
+    }
+
+    @Benchmark
+    @Group("synchronized")
+    @GroupThreads(4)
+    public void synchronizedAdd(Cursor cursor) {
+        int i = cursor.next();
+        synchronizedData.add(servers[i % SERVERS], addresses[i % addressCount]);
+    }
+
+    @Benchmark
+    @Group("stripedWithQuery")
+    @GroupThreads(4)
+    public void stripedAddWhileQuerying(Cursor cursor) {
+        int i = cursor.next();
+        monitorData.add(servers[i % SERVERS], addresses[i % addressCount]);
+    }
+
+    @Benchmark
+    @Group("stripedWithQuery")
+    @GroupThreads(1)
+    public void stripedQuery(Blackhole blackhole) {
+        blackhole.consume(monitorData.getAddresses());
+    }
+
+    @Benchmark
+    @Group("stripedWithServerQuery")
+    @GroupThreads(4)
+    public void stripedAddWhileQueryingServers(Cursor cursor) {
+        int i = cursor.next();
+        monitorData.add(servers[i % SERVERS], addresses[i % addressCount]);
+    }
+
+    @Benchmark
+    @Group("stripedWithServerQuery")
+    @GroupThreads(1)
+    public void stripedServerQuery(Blackhole blackhole) {
+        blackhole.consume(monitorData.getServers());
+    }
+
+    @Benchmark
+    @Group("synchronizedWithQuery")
+    @GroupThreads(4)
+    public void synchronizedAddWhileQuerying(Cursor cursor) {
+        int i = cursor.next();
+        synchronizedData.add(servers[i % SERVERS], addresses[i % addressCount]);
+    }
+
+    @Benchmark
+    @Group("synchronizedWithQuery")
+    @GroupThreads(1)
+    public void synchronizedQuery(Blackhole blackhole) {
+        blackhole.consume(synchronizedData.getAddresses());
+    }
+
+    @Benchmark
+    @Group("synchronizedWithServerQuery")
+    @GroupThreads(4)
+    public void synchronizedAddWhileQueryingServers(Cursor cursor) {
+        int i = cursor.next();
+        synchronizedData.add(servers[i % SERVERS], addresses[i % addressCount]);
+    }
+
+    @Benchmark
+    @Group("synchronizedWithServerQuery")
+    @GroupThreads(1)
+    public void synchronizedServerQuery(Blackhole blackhole) {
+        blackhole.consume(synchronizedData.getServers());
+    }
+}
@@ -0,0 +1,97 @@
+package dslab.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import dslab.util.ClientSession;
+import dslab.util.MetricsRegistry;
+import dslab.util.ServerSettings;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of the DMTP command handling of {@link TransferClientConnection}: one session (begin, to, from, subject, data,
+ * hash, quit) over an in-memory socket. The mail is not sent, so no domain is resolved and nothing is delivered.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TransferClientConnectionBenchmark {
+    //number of "to ... / from ... / subject ... / data ..." rounds per session
+    @Param({"1", "20"})
+    int rounds;
+
+    private byte[] session;
+    private static final ServerSettings SETTINGS = new ServerSettings(1);
+
+    private final MetricsRegistry metrics = new MetricsRegistry("benchmark");
+    private TransferClientConnection handler;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringBuilder lines = new StringBuilder("begin\n");
+        for (int i = 0; i < rounds; i++) {
+            lines.append("to trillian@earth.planet,zaphod@univer.ze\n")
+                    .append("from arthur@earth.planet\n")
+                    .append("subject benchmark ").append(i).append('\n')
+                    .append("data don't panic\n");
+        }
+        lines.append("hash b4Mv0m6QOk6Fz8RsQwUq7ZC9z6Wf5GsoJ0Lr6A3zVEg=\n").append("quit\n");
+        session = lines.toString().getBytes(StandardCharsets.US_ASCII);
+        MonitorInfo monitorInfo = new MonitorInfo("127.0.0.1", 13658, "localhost", 13659, "root-nameserver", null);
+        handler = new TransferClientConnection(13650, monitorInfo, "127.0.0.1", null, null, null, metrics,
+                5000, 30000);
+    }
+
+    @Benchmark
+    public void session() throws IOException {
+        handler.handle(new ClientSession(new MemorySocket(session), SETTINGS, metrics, "dmtp"));
+    }
+
+    //connected socket reading the given bytes and discarding what is written
+    private static class MemorySocket extends Socket {
+        private final InputStream in;
+        private boolean closed;
+
+        MemorySocket(byte[] input) {
+            in = new ByteArrayInputStream(input);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) {
+            //no timeouts in memory
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package dslab.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of sending and receiving one protocol line through {@link AesUtil}, AES encrypted (secure) and in plain text,
+ * for a command and for a long data line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AesUtilBenchmark {
+    @Param({"true", "false"})
+    boolean secure;
+
+    //characters in the line
+    @Param({"16", "1024"})
+    int lineLength;
+
+    private String line;
+    private AesUtil writer;
+    private AesUtil reader;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder builder = new StringBuilder(lineLength);
+        for (int i = 0; i < lineLength; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        line = builder.toString();
+
+        byte[] key = new byte[32];
+        byte[] iv = new byte[16];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) i;
+        }
+
+        //encrypt the line once to get what the reader receives
+        StringWriter sent = new StringWriter();
+        PrintWriter capture = new PrintWriter(sent, true);
+        (secure ? new AesUtil(null, capture, key, iv) : new AesUtil(null, capture)).println(line);
+
+        PrintWriter out = new PrintWriter(OutputStream.nullOutputStream(), true);
+        BufferedReader in = new BufferedReader(new RepeatingReader(sent.toString()));
+        writer = secure ? new AesUtil(null, out, key, iv) : new AesUtil(null, out);
+        reader = secure ? new AesUtil(in, null, key, iv) : new AesUtil(in, null);
+    }
+
+    @Benchmark
+    public String println() {
+        return writer.println(line);
+    }
+
+    @Benchmark
+    public String readLine() throws IOException {
+        return reader.readLine();
+    }
+
+    //returns the same text over and over
+    private static class RepeatingReader extends Reader {
+        private final char[] text;
+        private int position;
+
+        RepeatingReader(String text) {
+            this.text = text.toCharArray();
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) {
+            for (int i = 0; i < len; i++) {
+                buffer[off + i] = text[position];
+                position = (position + 1) % text.length;
+            }
+            return len;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
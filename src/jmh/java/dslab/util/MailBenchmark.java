@@ -0,0 +1,47 @@
+package dslab.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of turning a {@link Mail} into the lines sent to a transfer or mailbox server ({@link Mail#messages()}) and
+ * shown to a client ({@link Mail#display()}), for a short and a long body.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MailBenchmark {
+    //characters in the data line
+    @Param({"32", "4096"})
+    int dataLength;
+
+    private Mail mail;
+
+    @Setup
+    public void setUp() {
+        StringBuilder data = new StringBuilder(dataLength);
+        for (int i = 0; i < dataLength; i++) {
+            data.append((char) ('a' + i % 26));
+        }
+        mail = new Mail();
+        mail.setTo("trillian@earth.planet,zaphod@univer.ze");
+        mail.setFrom("arthur@earth.planet");
+        mail.setSubject("benchmark");
+        mail.setData(data.toString());
+        mail.setHash("b4Mv0m6QOk6Fz8RsQwUq7ZC9z6Wf5GsoJ0Lr6A3zVEg=");
+    }
+
+    @Benchmark
+    public String[] messages() {
+        return mail.messages();
+    }
+
+    @Benchmark
+    public String[] display() {
+        return mail.display();
+    }
+}
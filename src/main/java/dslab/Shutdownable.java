@@ -1,5 +0,0 @@
-package dslab;
-
-public interface Shutdownable {
-    void shutdown();
-}
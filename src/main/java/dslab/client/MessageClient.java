@@ -18,7 +18,9 @@ import at.ac.tuwien.dsg.orvell.annotation.Command;
 import dslab.ComponentFactory;
 import dslab.util.AesUtil;
 import dslab.util.Config;
+import dslab.util.HandshakeEvent;
 import dslab.util.Keys;
+import dslab.util.Log;
 
 import javax.crypto.*;
 
@@ -56,17 +58,19 @@ public class MessageClient implements IMessageClient, Runnable {
             PrintWriter serverWriter = new PrintWriter(socket.getOutputStream(), true);
 
             if (!serverReader.readLine().equals("ok DMAP2.0")) {
-                System.out.println("error protocol error");
+                Log.error("error protocol error");
                 shutdownSocket();
                 return;
             }
 
             // C (plain): startsecure
+            HandshakeEvent handshake = new HandshakeEvent();
+            handshake.begin();
             serverWriter.println("startsecure");
             String[] answer = serverReader.readLine().split(" ");
 
             if (!answer[0].equals("ok")) {
-                System.out.println("error couldn't establish secure connection");
+                Log.error("error couldn't establish secure connection");
                 shutdown();
             }
 
@@ -103,7 +107,9 @@ public class MessageClient implements IMessageClient, Runnable {
 
             byte[] solvedClientChallengeByte = Base64.getDecoder().decode(aesUtil.readLine().split(" ")[1]);
 
-            if (Arrays.equals(solvedClientChallengeByte, clientChallengeByte)) {
+            boolean secured = Arrays.equals(solvedClientChallengeByte, clientChallengeByte);
+            handshake.commit("client", serverCompId, secured);
+            if (secured) {
                 aesUtil.println("ok");
             } else {
                 shell.out().println("error challenge failed");
@@ -144,7 +150,12 @@ public class MessageClient implements IMessageClient, Runnable {
             List<Integer> idList = new ArrayList<Integer>();
             String line = null;
 
-            while (!(line = aesUtil.readLine()).equals("ok")) {
+            while (!"ok".equals(line = aesUtil.readLine())) {
+                if (line == null) {
+                    //idle session closed by the mailbox server
+                    shell.out().println("error connection closed by mailbox server");
+                    return;
+                }
                 idList.add(Integer.parseInt(line.split(" ")[0]));
             }
 
@@ -200,6 +211,10 @@ public class MessageClient implements IMessageClient, Runnable {
         String from, to, subject, data, hash;
         try {
             to = aesUtil.readLine();
+            if(to==null) {
+                shell.out().println("error connection closed by mailbox server");
+                return;
+            }
             if(to.startsWith("error")) {
                 shell.out().println(to);
                 return;
@@ -225,7 +240,7 @@ public class MessageClient implements IMessageClient, Runnable {
         } catch (InvalidKeyException e) {
             e.printStackTrace();
         } catch (ArrayIndexOutOfBoundsException e) {
-            System.out.println("Array index out of bounds. "+ e);
+            Log.error("Array index out of bounds. "+ e);
             e.printStackTrace();
         }
     }
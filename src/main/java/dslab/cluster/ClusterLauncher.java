@@ -0,0 +1,175 @@
+package dslab.cluster;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import at.ac.tuwien.dsg.orvell.Shell;
+import at.ac.tuwien.dsg.orvell.StopShellException;
+import at.ac.tuwien.dsg.orvell.annotation.Command;
+import dslab.ComponentFactory;
+import dslab.util.Config;
+
+/**
+ * Starts a whole topology in one JVM, as described by a config (see cluster.properties): the components in order as
+ * type:id, and whether they use the {@link LocalTransport}. Every component gets its own thread and shell, commands
+ * are forwarded to them with {@link #send(String, String)}.
+ */
+public class ClusterLauncher implements Runnable {
+    private static final int DEFAULT_START_DELAY = 500;
+    private static final long SHUTDOWN_WAIT = 5000;
+
+    private final Config config;
+    private final PrintStream out;
+    private final Shell shell;
+    //by component id, in start order
+    private final Map<String, Component> components = new LinkedHashMap<>();
+
+    /**
+     * @param componentId the id of the component that corresponds to the Config resource
+     * @param config the cluster descriptor
+     * @param in the input stream to read console input from
+     * @param out the output stream to write console output to (shared with the components)
+     */
+    public ClusterLauncher(String componentId, Config config, InputStream in, PrintStream out) {
+        this.config = config;
+        this.out = out;
+
+        //init shell
+        shell = new Shell(in, out);
+        shell.register(this);
+        shell.setPrompt(componentId + "> ");
+    }
+
+    @Override
+    public void run() {
+        if (!config.containsKey("components")) {
+            throw new RuntimeException("Config does not contain key 'components'");
+        }
+        if (config.containsKey("transport") && "local".equals(config.getString("transport"))) {
+            LocalTransport.enable();
+        }
+        int delay = config.containsKey("start.delay") ? config.getInt("start.delay") : DEFAULT_START_DELAY;
+
+        try {
+            for (String entry : config.getString("components").split(",")) {
+                String[] typeId = entry.trim().split(":");
+                if (typeId.length != 2) {
+                    throw new RuntimeException("Component '" + entry + "' is not given as type:id");
+                }
+                start(typeId[0], typeId[1]);
+                //nameservers register at their parent while starting
+                Thread.sleep(delay);
+            }
+        } catch (Exception e) {
+            shell.out().println("ClusterLauncher could not start: " + e);
+            stopAll();
+            return;
+        }
+        shell.out().println("started " + components.size() + " components"
+                + (LocalTransport.isEnabled() ? " (local transport)" : ""));
+
+        //wait for commands
+        shell.run();
+        shell.out().println("ClusterLauncher finished");
+    }
+
+    private void start(String type, String id) throws Exception {
+        PipedOutputStream commands = new PipedOutputStream();
+        InputStream in = new PipedInputStream(commands);
+        Runnable component;
+        switch (type) {
+            case "nameserver":
+                component = ComponentFactory.createNameserver(id, in, out);
+                break;
+            case "monitoring":
+                component = ComponentFactory.createMonitoringServer(id, in, out);
+                break;
+            case "mailbox":
+                component = ComponentFactory.createMailboxServer(id, in, out);
+                break;
+            case "transfer":
+                component = ComponentFactory.createTransferServer(id, in, out);
+                break;
+            case "client":
+                component = ComponentFactory.createMessageClient(id, in, out);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown component type '" + type + "' of '" + id + "'");
+        }
+        Thread thread = new Thread(component, id);
+        components.put(id, new Component(type, thread, new PrintWriter(commands, true)));
+        thread.start();
+    }
+
+    /**
+     * CLI command to list the components with their state.
+     */
+    @Command
+    public void components() {
+        for (Map.Entry<String, Component> component : components.entrySet()) {
+            shell.out().println(component.getKey() + " " + component.getValue().type + " "
+                    + (component.getValue().thread.isAlive() ? "running" : "stopped"));
+        }
+    }
+
+    /**
+     * CLI command to run a command in the shell of a component, e.g. <code>send monitoring servers</code>.
+     */
+    @Command
+    public void send(String id, String command) {
+        Component component = components.get(id);
+        if (component == null || !component.thread.isAlive()) {
+            shell.out().println("error no running component '" + id + "'");
+            return;
+        }
+        component.commands.println(command);
+    }
+
+    /**
+     * CLI command to shut down all components, in reverse start order, and the launcher.
+     */
+    @Command
+    public void shutdown() {
+        stopAll();
+        throw new StopShellException();
+    }
+
+    private void stopAll() {
+        Component[] started = components.values().toArray(new Component[0]);
+        for (int i = started.length - 1; i >= 0; i--) {
+            Component component = started[i];
+            if (!component.thread.isAlive()) {
+                continue;
+            }
+            component.commands.println("shutdown");
+            try {
+                component.thread.join(SHUTDOWN_WAIT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (component.thread.isAlive()) {
+                shell.out().println("error " + component.thread.getName() + " did not shut down");
+            }
+        }
+    }
+
+    private static class Component {
+        private final String type;
+        private final Thread thread;
+        //written to the component's shell
+        private final PrintWriter commands;
+
+        Component(String type, Thread thread, PrintWriter commands) {
+            this.type = type;
+            this.thread = thread;
+            this.commands = commands;
+        }
+    }
+
+    public static void main(String[] args) {
+        String component = args.length > 0 ? args[0] : "cluster";
+        new ClusterLauncher(component, new Config(component), System.in, System.out).run();
+    }
+}
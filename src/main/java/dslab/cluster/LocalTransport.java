@@ -0,0 +1,87 @@
+package dslab.cluster;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import dslab.nameserver.INameserverRemote;
+import dslab.util.Mail;
+
+/**
+ * In-process transport between components running in the same JVM (see {@link ClusterLauncher}). When enabled,
+ * nameservers are bound here by their RMI stub and mailbox servers by the address of their DMTP socket, so domains are
+ * resolved by calling co-located nameservers directly and mails are handed to co-located mailbox servers without a
+ * DMTP session. Registrations still go over RMI (the stubs stay in the zones and replicate as before), and
+ * components fall back to the network for everything not bound here.
+ */
+public final class LocalTransport {
+    private static volatile boolean enabled;
+    //by stub, stubs of the same remote object are equal
+    private static final ConcurrentMap<INameserverRemote, INameserverRemote> nameservers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private LocalTransport() {
+        // static utility class
+    }
+
+    /**
+     * A mailbox server accepting mails without a DMTP session.
+     */
+    public interface Mailbox {
+        /**
+         * Checks and stores a mail like a DMTP session ending with 'send' would.
+         *
+         * @param mail the mail, complete
+         * @return null if the mail was stored, else the error the DMTP session would have answered
+         */
+        String deliver(Mail mail);
+    }
+
+    static void enable() {
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param stub the exported remote object of the nameserver
+     * @param nameserver the nameserver itself
+     */
+    public static void bindNameserver(INameserverRemote stub, INameserverRemote nameserver) {
+        if (enabled) {
+            nameservers.put(stub, nameserver);
+        }
+    }
+
+    public static void unbindNameserver(INameserverRemote stub) {
+        nameservers.remove(stub);
+    }
+
+    /**
+     * @param nameserver a nameserver reference, usually an RMI stub
+     * @return the nameserver itself if it runs in this JVM, else the given reference
+     */
+    public static INameserverRemote local(INameserverRemote nameserver) {
+        INameserverRemote local = nameserver != null ? nameservers.get(nameserver) : null;
+        return local != null ? local : nameserver;
+    }
+
+    public static void bindMailbox(String address, Mailbox mailbox) {
+        if (enabled) {
+            mailboxes.put(address, mailbox);
+        }
+    }
+
+    public static void unbindMailbox(String address, Mailbox mailbox) {
+        mailboxes.remove(address, mailbox);
+    }
+
+    /**
+     * @param address ip:port of the DMTP socket, as registered at the nameservers
+     * @return the co-located mailbox server, or null if it has to be reached over DMTP
+     */
+    public static Mailbox mailbox(String address) {
+        return mailboxes.get(address);
+    }
+}
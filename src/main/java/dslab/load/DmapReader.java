@@ -0,0 +1,122 @@
+package dslab.load;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+
+import dslab.util.AesUtil;
+import dslab.util.Config;
+import dslab.util.Keys;
+
+/**
+ * DMAP session of one user secured with startsecure, like the one of the message client, that lists and deletes mails.
+ */
+class DmapReader implements Closeable {
+    private final Socket socket;
+    private final AesUtil aesUtil;
+
+    /**
+     * Connects to the mailbox server of a client config (mailbox.host, mailbox.port, mailbox.user, mailbox.password),
+     * secures the connection and logs in.
+     *
+     * @param client the client config
+     * @param timeout milliseconds to wait for the connection and every answer of the server
+     * @throws IOException if the connection, handshake or login failed
+     */
+    DmapReader(Config client, int timeout) throws IOException {
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(client.getString("mailbox.host"), client.getInt("mailbox.port")),
+                    timeout);
+            socket.setSoTimeout(timeout);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            if (!"ok DMAP2.0".equals(in.readLine())) {
+                throw new IOException("not a DMAP server");
+            }
+
+            out.println("startsecure");
+            String[] answer = String.valueOf(in.readLine()).split(" ");
+            if (!answer[0].equals("ok") || answer.length < 2) {
+                throw new IOException("startsecure refused");
+            }
+
+            //C (RSA): ok <client-challenge> <secret-key> <iv>
+            SecureRandom random = new SecureRandom();
+            byte[] challenge = new byte[32];
+            byte[] iv = new byte[16];
+            random.nextBytes(challenge);
+            random.nextBytes(iv);
+            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+            keyGenerator.init(256);
+            byte[] key = keyGenerator.generateKey().getEncoded();
+            Base64.Encoder base64 = Base64.getEncoder();
+            String message = "ok " + base64.encodeToString(challenge) + " " + base64.encodeToString(key) + " "
+                    + base64.encodeToString(iv);
+
+            PublicKey serverKey = Keys.readPublicKey(new File("keys/client/" + answer[1] + "_pub.der"));
+            Cipher rsa = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+            rsa.init(Cipher.ENCRYPT_MODE, serverKey);
+            out.println(base64.encodeToString(rsa.doFinal(message.getBytes(StandardCharsets.UTF_8))));
+
+            aesUtil = new AesUtil(in, out, key, iv);
+            String[] solved = String.valueOf(aesUtil.readLine()).split(" ");
+            if (solved.length < 2 || !Arrays.equals(Base64.getDecoder().decode(solved[1]), challenge)) {
+                throw new IOException("challenge failed");
+            }
+            aesUtil.println("ok");
+
+            aesUtil.println("login " + client.getString("mailbox.user") + " " + client.getString("mailbox.password"));
+            if (!"ok".equals(aesUtil.readLine())) {
+                throw new IOException("login failed");
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            socket.close();
+            throw new IOException("startsecure failed: " + e, e);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the lines "id sender subject" of all mails in the mailbox
+     * @throws IOException if the server did not answer
+     */
+    List<String> list() throws IOException {
+        aesUtil.println("list");
+        List<String> mails = new ArrayList<>();
+        String line;
+        while (!"ok".equals(line = aesUtil.readLine())) {
+            if (line == null || line.startsWith("error")) {
+                throw new IOException("list failed: " + line);
+            }
+            mails.add(line);
+        }
+        return mails;
+    }
+
+    void delete(String id) throws IOException {
+        aesUtil.println("delete " + id);
+        String answer = aesUtil.readLine();
+        if (!"ok".equals(answer)) {
+            throw new IOException("delete failed: " + answer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
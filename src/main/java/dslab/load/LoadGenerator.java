@@ -0,0 +1,391 @@
+package dslab.load;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+import dslab.util.Config;
+import dslab.util.Keys;
+import dslab.util.LogHistogram;
+
+/**
+ * Sends mails to the transfer servers at a target rate over concurrent DMTP sessions and reports the throughput,
+ * latencies and errors. Mails are due at a fixed rate; latencies are measured from the time a mail was due, so a slow
+ * server is not hidden by the sessions falling behind. Optionally the mailboxes of some clients are read back over DMAP
+ * (with startsecure) to measure the delivery latency, accurate to the read back interval; mails of the run are deleted
+ * once read.
+ *
+ * Every connect and read waits at most <code>timeout</code> ms; a server that does not answer in time counts as a
+ * protocol error. Mails still unsent when the run is over by more than the timeout are given up, so a stalled server
+ * cannot hold up the report.
+ */
+public class LoadGenerator implements Runnable {
+    private static final String SUBJECT = "load";
+    private static final int DEFAULT_SESSIONS = 8;
+    private static final int DEFAULT_SESSION_MAILS = 20;
+    private static final int DEFAULT_RATE = 50;
+    private static final int DEFAULT_DURATION = 30;
+    private static final int DEFAULT_RECIPIENTS_PER_MAIL = 1;
+    private static final int DEFAULT_BODY_SIZE = 256;
+    private static final int DEFAULT_READBACK_INTERVAL = 200;
+    private static final int DEFAULT_READBACK_DRAIN = 10000;
+    private static final int DEFAULT_TIMEOUT = 10000;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final String componentId;
+    private final Config config;
+    private final PrintStream out;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    //due time of the sent mails (by number) and the number of read back recipients that did not get it yet
+    private final ConcurrentMap<Long, long[]> pending = new ConcurrentHashMap<>();
+    private final LogHistogram sendLatency = new LogHistogram();
+    private final LogHistogram deliveryLatency = new LogHistogram();
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong connectErrors = new AtomicLong();
+    private final AtomicLong protocolErrors = new AtomicLong();
+    private final AtomicLong readbackErrors = new AtomicLong();
+    private final AtomicLong expected = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+
+    private String[] servers;
+    private String from;
+    private String[] recipients;
+    private Set<String> readbackAddresses;
+    private int recipientsPerMail;
+    private String body;
+    private SecretKey hmacKey;
+    private int timeout;
+    private volatile boolean reading = true;
+
+    /**
+     * @param componentId the id of the component that corresponds to the Config resource
+     * @param config the load config
+     * @param out the stream to print the report to
+     */
+    public LoadGenerator(String componentId, Config config, PrintStream out) {
+        this.componentId = componentId;
+        this.config = config;
+        this.out = out;
+    }
+
+    @Override
+    public void run() {
+        String[] keys = {"transfer.servers", "from", "recipients"};
+        for (String key : keys) {
+            if (!config.containsKey(key)) {
+                throw new RuntimeException("Config does not contain key '" + key + "'");
+            }
+        }
+        servers = config.getString("transfer.servers").split(",");
+        from = config.getString("from");
+        recipients = config.getString("recipients").split(",");
+        int sessions = getPositiveInt("sessions", DEFAULT_SESSIONS);
+        int sessionMails = getPositiveInt("session.mails", DEFAULT_SESSION_MAILS);
+        int rate = getPositiveInt("rate", DEFAULT_RATE);
+        int duration = getPositiveInt("duration", DEFAULT_DURATION);
+        timeout = getPositiveInt("timeout", DEFAULT_TIMEOUT);
+        recipientsPerMail = Math.min(recipients.length, getInt("recipients.per.mail", DEFAULT_RECIPIENTS_PER_MAIL));
+        char[] data = new char[getInt("body.size", DEFAULT_BODY_SIZE)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (char) ('a' + i % 26);
+        }
+        body = new String(data);
+
+        File hmacFile = new File("keys/hmac.key");
+        if (hmacFile.exists()) {
+            try {
+                hmacKey = Keys.readSecretKey(hmacFile);
+            } catch (IOException e) {
+                out.println("no hash: " + e.getMessage());
+            }
+        }
+
+        //one reader per read back client, by its mail address
+        List<Thread> readers = new ArrayList<>();
+        readbackAddresses = new HashSet<>();
+        if (config.containsKey("readback.clients")) {
+            int interval = getPositiveInt("readback.interval", DEFAULT_READBACK_INTERVAL);
+            for (String clientId : config.getString("readback.clients").split(",")) {
+                Config client = new Config(clientId);
+                readbackAddresses.add(client.getString("transfer.email"));
+                Thread reader = new Thread(() -> readBack(client, interval), "LoadReader-" + clientId);
+                reader.start();
+                readers.add(reader);
+            }
+        }
+
+        out.println(componentId + " run " + runId + ": " + rate + " mails/s for " + duration + " s over " + sessions
+                + " sessions to " + String.join(",", servers));
+        long total = (long) rate * duration;
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        //mails not started by then are given up
+        long end = start + TimeUnit.SECONDS.toNanos(duration) + TimeUnit.MILLISECONDS.toNanos(timeout);
+        ExecutorService pool = Executors.newFixedThreadPool(sessions);
+        for (int i = 0; i < sessions; i++) {
+            String server = servers[i % servers.length];
+            pool.execute(() -> sendMails(server, sessionMails, total, start, interval, end));
+        }
+        pool.shutdown();
+        try {
+            //a mail started before the end takes at most a timeout per line
+            long wait = end - System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(8L * timeout);
+            if (!pool.awaitTermination(wait, TimeUnit.NANOSECONDS)) {
+                out.println("sessions did not finish in time, stopping them");
+                pool.shutdownNow();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            //give the outstanding deliveries some time
+            long drainEnd = System.currentTimeMillis() + getInt("readback.drain", DEFAULT_READBACK_DRAIN);
+            while (!readers.isEmpty() && delivered.get() < expected.get() && System.currentTimeMillis() < drainEnd) {
+                Thread.sleep(50);
+            }
+            reading = false;
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            report(total, elapsed, rate, !readers.isEmpty());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //one session thread: sends the due mails, reconnecting after sessionMails mails or an error
+    private void sendMails(String server, int sessionMails, long total, long start, long interval, long end) {
+        Mac mac = null;
+        try {
+            if (hmacKey != null) {
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(hmacKey);
+            }
+        } catch (GeneralSecurityException e) {
+            out.println("no hash: " + e);
+        }
+
+        String[] hostPort = server.split(":");
+        Socket socket = null;
+        BufferedReader in = null;
+        PrintWriter writer = null;
+        int mailsInSession = 0;
+        long n;
+        while ((n = next.getAndIncrement()) < total && System.nanoTime() < end) {
+            long due = start + n * interval;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            try {
+                if (socket == null) {
+                    try {
+                        socket = new Socket();
+                        socket.connect(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])), timeout);
+                        socket.setSoTimeout(timeout);
+                    } catch (IOException e) {
+                        connectErrors.incrementAndGet();
+                        socket = close(socket);
+                        continue;
+                    }
+                    in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    writer = new PrintWriter(socket.getOutputStream(), true);
+                    mailsInSession = 0;
+                    expectOk(in.readLine());
+                }
+
+                String to = recipients(n);
+                String subject = SUBJECT + " " + runId + " " + n;
+                String[] lines = {"begin", "to " + to, "from " + from, "subject " + subject, "data " + body,
+                        "hash " + hash(mac, to, subject)};
+                for (String line : lines) {
+                    writer.println(line);
+                    expectOk(in.readLine());
+                }
+
+                //register before sending, the mail may be read back before the answer
+                int readBack = 0;
+                for (String recipient : to.split(",")) {
+                    if (readbackAddresses.contains(recipient)) {
+                        readBack++;
+                    }
+                }
+                if (readBack > 0) {
+                    pending.put(n, new long[]{due, readBack});
+                }
+                writer.println("send");
+                try {
+                    expectOk(in.readLine());
+                } catch (IOException e) {
+                    pending.remove(n);
+                    throw e;
+                }
+                expected.addAndGet(readBack);
+                sent.incrementAndGet();
+                record(sendLatency, (System.nanoTime() - due) / 1000);
+
+                if (++mailsInSession >= sessionMails) {
+                    writer.println("quit");
+                    in.readLine();
+                    socket = close(socket);
+                }
+            } catch (IOException e) {
+                protocolErrors.incrementAndGet();
+                socket = close(socket);
+            }
+        }
+        close(socket);
+    }
+
+    //reads the mailbox of a client until the run is over
+    private void readBack(Config client, int interval) {
+        DmapReader reader = null;
+        while (reading) {
+            try {
+                if (reader == null) {
+                    reader = new DmapReader(client, timeout);
+                }
+                long now = System.nanoTime();
+                for (String mail : reader.list()) {
+                    //id sender subject
+                    String[] parts = mail.split(" ", 5);
+                    if (parts.length != 5 || !parts[2].equals(SUBJECT) || !parts[3].equals(runId)) {
+                        continue;
+                    }
+                    long n = Long.parseLong(parts[4]);
+                    long[] due = pending.get(n);
+                    if (due != null) {
+                        record(deliveryLatency, (now - due[0]) / 1000);
+                        delivered.incrementAndGet();
+                        synchronized (due) {
+                            if (--due[1] == 0) {
+                                pending.remove(n);
+                            }
+                        }
+                    }
+                    reader.delete(parts[0]);
+                }
+                Thread.sleep(interval);
+            } catch (IOException | NumberFormatException e) {
+                readbackErrors.incrementAndGet();
+                out.println("read back error " + client.getString("mailbox.user") + ": " + e.getMessage());
+                try {
+                    if (reader != null) {
+                        reader.close();
+                    }
+                } catch (IOException ignored) {
+                    //already broken
+                }
+                reader = null;
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+        } catch (IOException ignored) {
+            //the run is over anyway
+        }
+    }
+
+    private void report(long total, long elapsed, int rate, boolean readBack) {
+        double seconds = elapsed / 1e9;
+        out.println(String.format(Locale.ROOT, "%d of %d mails sent in %.1f s (%.1f mails/s, target %d)",
+                sent.get(), total, seconds, sent.get() / seconds, rate));
+        out.println("errors: connect=" + connectErrors.get() + " protocol=" + protocolErrors.get()
+                + (readBack ? " readback=" + readbackErrors.get()
+                + " undelivered=" + (expected.get() - delivered.get()) : ""));
+        out.println("send latency " + percentiles(sendLatency) + " (" + sent.get() + " mails)");
+        if (readBack) {
+            out.println("delivery latency " + percentiles(deliveryLatency) + " (" + delivered.get() + " of "
+                    + expected.get() + " deliveries)");
+        }
+    }
+
+    private static String percentiles(LogHistogram histogram) {
+        synchronized (histogram) {
+            StringBuilder line = new StringBuilder("(ms):");
+            for (double q : QUANTILES) {
+                line.append(String.format(Locale.ROOT, " p%s=%.1f", format(q * 100), histogram.valueAt(q) / 1000.0));
+            }
+            return line.append(String.format(Locale.ROOT, " max=%.1f", histogram.getMax() / 1000.0)).toString();
+        }
+    }
+
+    private static String format(double percent) {
+        return percent == Math.rint(percent) ? Long.toString((long) percent) : Double.toString(percent);
+    }
+
+    private static void record(LogHistogram histogram, long value) {
+        synchronized (histogram) {
+            histogram.record(value);
+        }
+    }
+
+    //recipientsPerMail distinct recipients, rotating through the list
+    private String recipients(long n) {
+        String[] to = new String[recipientsPerMail];
+        for (int i = 0; i < to.length; i++) {
+            to[i] = recipients[(int) ((n + i) % recipients.length)];
+        }
+        return String.join(",", to);
+    }
+
+    //same hash as the message client
+    private String hash(Mac mac, String to, String subject) {
+        if (mac == null) {
+            return "";
+        }
+        byte[] hash = mac.doFinal(String.join("\n", from, to, subject, body).getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(hash);
+    }
+
+    private static void expectOk(String answer) throws IOException {
+        if (answer == null || !answer.startsWith("ok")) {
+            throw new IOException("unexpected answer: " + answer);
+        }
+    }
+
+    private static Socket close(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //closed anyway
+            }
+        }
+        return null;
+    }
+
+    private int getInt(String key, int defaultValue) {
+        return config.containsKey(key) ? config.getInt(key) : defaultValue;
+    }
+
+    private int getPositiveInt(String key, int defaultValue) {
+        int value = getInt(key, defaultValue);
+        if (value <= 0) {
+            throw new RuntimeException("Config key '" + key + "' must be positive, not " + value);
+        }
+        return value;
+    }
+
+    public static void main(String[] args) {
+        String component = args.length > 0 ? args[0] : "load";
+        new LoadGenerator(component, new Config(component), System.out).run();
+    }
+}
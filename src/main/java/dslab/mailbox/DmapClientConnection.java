@@ -1,86 +1,89 @@
 package dslab.mailbox;
 
-import dslab.Shutdownable;
 import dslab.util.AesUtil;
+import dslab.util.ClientSession;
+import dslab.util.HandshakeEvent;
+import dslab.util.Log;
+import dslab.util.MetricsRegistry;
+import dslab.util.ProtocolCommandEvent;
+import dslab.util.ProtocolHandler;
 
 import javax.crypto.Cipher;
 import java.io.*;
-import java.net.Socket;
-import java.net.SocketException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.security.Key;
 import java.security.KeyFactory;
 import java.security.spec.EncodedKeySpec;
 import java.security.spec.PKCS8EncodedKeySpec;
-import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+
+public class DmapClientConnection implements ProtocolHandler {
+    private static final Set<String> COMMANDS = Set.of("startsecure", "login", "list", "show", "delete", "logout", "quit");
 
-public class DmapClientConnection implements Runnable, Shutdownable {
-    private final Socket client;
     private final UserData userData;
-    private final ConcurrentHashMap<Integer, Shutdownable> connectionMap;
+    private final MetricsRegistry metrics;
 
-    DmapClientConnection(Socket client, UserData userData, ConcurrentHashMap<Integer, Shutdownable> connectionMap){
-        this.client = client;
+    DmapClientConnection(UserData userData, MetricsRegistry metrics){
         this.userData = userData;
-        this.connectionMap = connectionMap;
+        this.metrics = metrics;
     }
 
     @Override
-    public void shutdown() {
-        try {
-            client.close();
-            Thread.currentThread().interrupt();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-    
-    @Override
-    public void run() {
-        //invalid client
-        if (client == null || !client.isConnected() || client.isClosed()) {
-            System.out.println("DmapClientConnection invalid client");
-            return;
+    public void handle(ClientSession session) throws IOException {
+        if (Log.DEBUG) {
+            Log.debug("DmapClientConnection start " + session);
         }
-        System.out.println("DmapClientConnection start " + client);
 
-        try {
-            PrintWriter out = new PrintWriter(client.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+        PrintWriter out = session.writer();
+        BufferedReader in = session.reader();
 
-            //connected message
-            out.println("ok DMAP2.0");
+        //connected message
+        out.println("ok DMAP2.0");
 
-            //set fields
-            String user = null;
-            AesUtil aesUtil = new AesUtil(in, out);
-            while (!Thread.interrupted()) {
-                //to, from, subject, data, send, quit
-                String message = aesUtil.readLine();
-                String command, content;
-                
-                if(message==null){
-                    break;
-                }
+        //set fields
+        String user = null;
+        AesUtil aesUtil = new AesUtil(in, out);
+        //the first command is awaited with the greeting timeout
+        boolean greeted = false;
+        while (!Thread.interrupted() && !session.isClosed()) {
+            if (greeted) {
+                session.expect(ClientSession.Phase.COMMAND);
+            }
+            greeted = true;
 
-                //message with parameters
-                int firstSpaceIndex = message.indexOf(' ');
-                if (firstSpaceIndex != -1) {
-                    command = message.substring(0, firstSpaceIndex);
-                    content = message.substring(firstSpaceIndex + 1);
-                } else {
-                    command = message;
-                    content = "";
-                }
+            //to, from, subject, data, send, quit
+            String message = aesUtil.readLine();
+            String command, content;
+            
+            if(message==null){
+                break;
+            }
 
-                //System.out.println("DmapClientConnection: " + command + ":" + content);
+            //message with parameters
+            int firstSpaceIndex = message.indexOf(' ');
+            if (firstSpaceIndex != -1) {
+                command = message.substring(0, firstSpaceIndex);
+                content = message.substring(firstSpaceIndex + 1);
+            } else {
+                command = message;
+                content = "";
+            }
+            metrics.counter(COMMANDS.contains(command) ? "dmap.commands." + command : "dmap.commands.unknown")
+                    .increment();
+
+            //System.out.println("DmapClientConnection: " + command + ":" + content);
+            ProtocolCommandEvent event = new ProtocolCommandEvent();
+            event.begin();
+            try {
                 switch (command) {
                     case "startsecure": {
                         aesUtil.println("ok "+userData.getComponentId());
+                        long handshake = System.nanoTime();
+                        HandshakeEvent handshakeEvent = new HandshakeEvent();
+                        handshakeEvent.begin();
+                        boolean secured = false;
                         
                         //RSA: https://www.baeldung.com/java-rsa
                         try {
@@ -91,20 +94,26 @@ public class DmapClientConnection implements Runnable, Shutdownable {
                             EncodedKeySpec privateKeySpec = new PKCS8EncodedKeySpec(privateKeyBytes);
                             Key privateKey = keyFactory.generatePrivate(privateKeySpec);
                             
+                            //the client answers right away within the handshake
+                            session.expect(ClientSession.Phase.DATA);
                             String clientAnswer = aesUtil.readLine();
-                            System.out.println("Client Answer: "+clientAnswer);
+                            if (Log.DEBUG) {
+                                Log.debug("Client Answer: "+clientAnswer);
+                            }
                             
                             //decrypt RSA answer from client with private key
                             Cipher decryptCipher = Cipher.getInstance("RSA");
                             decryptCipher.init(Cipher.DECRYPT_MODE, privateKey);
                             byte[] decryptedMessageBytes = decryptCipher.doFinal(Base64.getDecoder().decode(clientAnswer));
                             String rsaAnswer = new String(decryptedMessageBytes, StandardCharsets.UTF_8);
-                            System.out.println("RSA answer: "+rsaAnswer);
+                            if (Log.DEBUG) {
+                                Log.debug("RSA answer: "+rsaAnswer);
+                            }
                             
                             //get new aesUtil from decrypted message
                             String[] rsaAnswerSplit = rsaAnswer.split(" ");
                             if(rsaAnswerSplit.length!=4 || !"ok".equals(rsaAnswerSplit[0])) {
-                                client.close();
+                                session.close();
                                 break;
                             }
                             byte[] aesKey = Base64.getDecoder().decode(rsaAnswerSplit[2]);
@@ -112,25 +121,40 @@ public class DmapClientConnection implements Runnable, Shutdownable {
                             
                             aesUtil = new AesUtil(in, out, aesKey, aesIv);
                             if(aesUtil.keyWorks()!=null) {
-                                System.out.println("AesUtil key doesnt work: "+aesUtil.keyWorks());
-                                client.close();
+                                Log.warn("AesUtil key doesnt work: "+aesUtil.keyWorks());
+                                session.close();
                                 break;
                             }
                             
                             //AES encrypt with challenge (send message to client)
-                            System.out.println("ok "+rsaAnswerSplit[1]);
+                            if (Log.DEBUG) {
+                                Log.debug("ok "+rsaAnswerSplit[1]);
+                            }
                             aesUtil.println("ok "+rsaAnswerSplit[1]);
                             
                             //AES decrypt (read message from client)
                             String ok = aesUtil.readLine();
-                            System.out.println("should be ok: "+ok);
+                            if (Log.DEBUG) {
+                                Log.debug("should be ok: "+ok);
+                            }
                             if( !"ok".equals(ok) ) {
-                                client.close();
+                                session.close();
                                 break;
                             }
+                            secured = true;
+                        } catch (IOException e) {
+                            //timeout or closed socket, ends the session
+                            throw e;
                         } catch (Exception e) {
-                            System.out.println("DmapClientConnection: Exception "+e);
+                            Log.warn("DmapClientConnection: Exception "+e);
                             e.printStackTrace();
+                        } finally {
+                            handshakeEvent.commit("server", userData.getComponentId(), secured);
+                            if (secured) {
+                                metrics.histogram("dmap.startsecure_us").record((System.nanoTime() - handshake) / 1000);
+                            } else {
+                                metrics.counter("dmap.startsecure.failed").increment();
+                            }
                         }
                         break;
                     }
@@ -145,12 +169,14 @@ public class DmapClientConnection implements Runnable, Shutdownable {
                         
                         //user not found
                         if(pw==null){
+                            metrics.counter("dmap.logins.failed").increment();
                             aesUtil.println("error unknown user");
                             continue;
                         }
                         
                         //wrong pw
                         if(!pw.equals(split[1])){
+                            metrics.counter("dmap.logins.failed").increment();
                             aesUtil.println("error wrong password");
                             continue;
                         }
@@ -219,44 +245,18 @@ public class DmapClientConnection implements Runnable, Shutdownable {
                     }
                     case "quit": {
                         aesUtil.println("ok bye");
-                        client.close();
+                        session.close();
                         break;
                     }
                     default: {
                         aesUtil.println("error protocol error");
-                        client.close();
+                        session.close();
                         return;
                     }
                 }
+            } finally {
+                event.commit("DMAP", command, session);
             }
-        } catch (SocketException e) {
-            //socket closed
-        } catch (IOException e) {
-            //e.printStackTrace();
-            System.out.println("DmapClientConnection: thread IO exception: " + e.toString());
-        }
-
-        //close client socket
-        try {
-            client.close();
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        
-        connectionMap.remove(hashCode());
-        System.out.println("DmapClientConnection finished " + client);
-    }
-    
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        DmapClientConnection that = (DmapClientConnection) o;
-        return Objects.equals(client, that.client);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(client);
     }
 }
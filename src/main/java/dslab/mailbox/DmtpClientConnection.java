@@ -1,88 +1,80 @@
 package dslab.mailbox;
 
-import dslab.Shutdownable;
+import dslab.util.ClientSession;
+import dslab.util.Log;
 import dslab.util.Mail;
+import dslab.util.MetricsRegistry;
+import dslab.util.ProtocolCommandEvent;
+import dslab.util.ProtocolHandler;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.net.Socket;
-import java.net.SocketException;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
-public class DmtpClientConnection implements Runnable, Shutdownable {
-    private final Socket client;
+public class DmtpClientConnection implements ProtocolHandler {
+    private static final Set<String> COMMANDS = Set.of("begin", "to", "from", "subject", "data", "hash", "send", "quit");
+
     private final String mailDomain;
     private final UserData userData;
-    private final ConcurrentHashMap<Integer, Shutdownable> connectionMap;
+    private final MetricsRegistry metrics;
 
-    DmtpClientConnection(Socket client, String mailDomain, UserData userData, ConcurrentHashMap<Integer, Shutdownable> connectionMap){
-        this.client = client;
+    DmtpClientConnection(String mailDomain, UserData userData, MetricsRegistry metrics){
         this.mailDomain = mailDomain;
         this.userData = userData;
-        this.connectionMap = connectionMap;
-    }
-    
-    @Override
-    public void shutdown() {
-        try {
-            client.close();
-            Thread.currentThread().interrupt();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        this.metrics = metrics;
     }
-    
+
     @Override
-    public void run() {
-        //invalid client
-        if (client == null || !client.isConnected() || client.isClosed()) {
-            return;
+    public void handle(ClientSession session) throws IOException {
+        if (Log.DEBUG) {
+            Log.debug("DmtpClientConnection start "+session);
         }
-        System.out.println("DmtpClientConnection start "+client);
 
-        try {
-            PrintWriter out = new PrintWriter(client.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+        PrintWriter out = session.writer();
+        BufferedReader in = session.reader();
 
-            //connected message
-            out.println("ok DMTP2.0");
+        //connected message
+        out.println("ok DMTP2.0");
 
-            //must start with "begin"
-            String begin = in.readLine();
-            if (begin == null || !begin.equals("begin")) {
-                out.println("error protocol error");
-                client.close();
-                return;
+        //must start with "begin"
+        String begin = in.readLine();
+        if (begin == null || !begin.equals("begin")) {
+            out.println("error protocol error");
+            session.close();
+            return;
+        }
+        metrics.counter("dmtp.commands.begin").increment();
+        out.println("ok");
+
+        //set fields
+        Mail mail = new Mail();
+        while (!Thread.interrupted() && !session.isClosed()) {
+            //to, from, subject, data, send, quit
+            session.expect(ClientSession.Phase.COMMAND);
+            String message = in.readLine();
+            String command, content;
+
+            if(message==null){
+                break;
             }
-            out.println("ok");
-
-            //set fields
-            Mail mail = new Mail();
-            while (!Thread.interrupted()) {
-                //to, from, subject, data, send, quit
-                String message = in.readLine();
-                String command, content;
 
-                if(message==null){
-                    break;
-                }
-
-                //message with parameters
-                int firstSpaceIndex = message.indexOf(' ');
-                if (firstSpaceIndex != -1) {
-                    command = message.substring(0, firstSpaceIndex);
-                    content = message.substring(firstSpaceIndex + 1);
-                } else {
-                    command = message;
-                    content = "";
-                }
+            //message with parameters
+            int firstSpaceIndex = message.indexOf(' ');
+            if (firstSpaceIndex != -1) {
+                command = message.substring(0, firstSpaceIndex);
+                content = message.substring(firstSpaceIndex + 1);
+            } else {
+                command = message;
+                content = "";
+            }
+            metrics.counter(COMMANDS.contains(command) ? "dmtp.commands." + command : "dmtp.commands.unknown")
+                    .increment();
 
-                //System.out.println("TransferClientConnection: " + command + ":" + content);
+            //System.out.println("TransferClientConnection: " + command + ":" + content);
+            ProtocolCommandEvent event = new ProtocolCommandEvent();
+            event.begin();
+            try {
                 switch (command) {
                     case "begin": {
                         mail = new Mail();
@@ -106,7 +98,9 @@ public class DmtpClientConnection implements Runnable, Shutdownable {
                             String[] split = email.split("@");
                             if (!Mail.validMail(email)) {
                                 valid = false;
-                                System.out.println("error invalid email " + email);
+                                if (Log.DEBUG) {
+                                    Log.debug("error invalid email " + email);
+                                }
                                 out.println("error invalid email " + email);
                                 break;
                             }
@@ -122,7 +116,10 @@ public class DmtpClientConnection implements Runnable, Shutdownable {
                             if(userData.lookup(user)==null){
                                 //error
                                 valid = false;
-                                System.out.println("error unknown recipient " + user);
+                                if (Log.DEBUG) {
+                                    Log.debug("error unknown recipient " + user);
+                                }
+                                metrics.counter("dmtp.recipients.rejected").increment();
                                 out.println("error unknown recipient "+user);
                                 continue;
                             }
@@ -175,9 +172,13 @@ public class DmtpClientConnection implements Runnable, Shutdownable {
                             String[] split = email.split("@");
                             String user = split[0];
                             userData.saveMail(user, mail);
-                            System.out.println("Received Mail: " + mail.toString());
+                            if (Log.DEBUG) {
+                                Log.debug("Received Mail: " + mail.toString());
+                            }
                         }
 
+                        metrics.counter("dmtp.mails.stored").increment();
+
                         //reset mail
                         mail = new Mail();
                         out.println("ok");
@@ -185,44 +186,18 @@ public class DmtpClientConnection implements Runnable, Shutdownable {
                     }
                     case "quit": {
                         out.println("ok bye");
-                        client.close();
+                        session.close();
                         break;
                     }
                     default: {
                         out.println("error protocol error");
-                        client.close();
+                        session.close();
                         return;
                     }
                 }
+            } finally {
+                event.commit("DMTP", command, session);
             }
-        } catch (SocketException e) {
-            //socket closed
-        } catch (IOException e) {
-            //e.printStackTrace();
-            System.out.println("DmtpClientConnection: thread IO exception: " + e.toString());
         }
-
-        //close client socket
-        try {
-            client.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        connectionMap.remove(hashCode());
-        System.out.println("DmtpClientConnection finished "+client);
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        DmtpClientConnection that = (DmtpClientConnection) o;
-        return Objects.equals(client, that.client);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(client);
     }
 }
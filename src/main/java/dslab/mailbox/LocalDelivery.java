@@ -0,0 +1,62 @@
+package dslab.mailbox;
+
+import dslab.cluster.LocalTransport;
+import dslab.util.Mail;
+import dslab.util.MetricsRegistry;
+
+/**
+ * Stores mails handed over by a co-located transfer server, with the checks of a DMTP session
+ * ({@link DmtpClientConnection}).
+ */
+class LocalDelivery implements LocalTransport.Mailbox {
+    private final String mailDomain;
+    private final UserData userData;
+    private final MetricsRegistry metrics;
+
+    LocalDelivery(String mailDomain, UserData userData, MetricsRegistry metrics) {
+        this.mailDomain = mailDomain;
+        this.userData = userData;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String deliver(Mail mail) {
+        if (!mail.complete()) {
+            return "error " + mail.incompleteMessage();
+        }
+        if (!Mail.validMail(mail.getFrom())) {
+            return "error invalid sender email";
+        }
+
+        //users of this domain, all of them must exist
+        int count = 0;
+        String[] emails = mail.getTo().split(",");
+        for (String email : emails) {
+            if (!Mail.validMail(email)) {
+                return "error invalid email " + email;
+            }
+            String[] split = email.split("@");
+            if (!split[1].equals(mailDomain)) {
+                continue;
+            }
+            if (userData.lookup(split[0]) == null) {
+                return "error unknown recipient " + split[0];
+            }
+            ++count;
+        }
+        if (count == 0) {
+            return "error no relevant recipient";
+        }
+
+        //the sender keeps its mail, store a copy
+        Mail copy = mail.copy();
+        for (String email : emails) {
+            String[] split = email.split("@");
+            if (split[1].equals(mailDomain)) {
+                userData.saveMail(split[0], copy);
+            }
+        }
+        metrics.counter("local.mails.stored").increment();
+        return null;
+    }
+}
@@ -10,26 +10,38 @@ import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import at.ac.tuwien.dsg.orvell.Shell;
 import at.ac.tuwien.dsg.orvell.StopShellException;
 import at.ac.tuwien.dsg.orvell.annotation.Command;
 import dslab.ComponentFactory;
+import dslab.cluster.LocalTransport;
 import dslab.nameserver.AlreadyRegisteredException;
 import dslab.nameserver.INameserverRemote;
 import dslab.nameserver.InvalidDomainException;
 import dslab.util.Config;
+import dslab.util.ListenerThread;
+import dslab.util.MetricsRegistry;
+import dslab.util.ServerSettings;
+import dslab.util.WorkerPool;
 
 public class MailboxServer implements IMailboxServer, Runnable {
-    private static final int DMTP_POOLSIZE = 8;
-    private static final int DMAP_POOLSIZE = 8;
+    private static final int DEFAULT_DMTP_POOLSIZE = 8;
+    private static final int DEFAULT_DMAP_POOLSIZE = 8;
 
     private final String componentId;
     private final Config config;
+    private final MetricsRegistry metrics;
     private Shell shell;
 
-    private MailboxDmtpListenerThread dmtpListener;
-    private MailboxDmapListenerThread dmapListener;
+    private ListenerThread dmtpListener;
+    private ListenerThread dmapListener;
+    //resizable by name
+    private final Map<String, WorkerPool> pools = new LinkedHashMap<>();
+    private String address;
+    private LocalDelivery localDelivery;
     
     /**
      * Creates a new server instance.
@@ -42,6 +54,7 @@ public class MailboxServer implements IMailboxServer, Runnable {
     public MailboxServer(String componentId, Config config, InputStream in, PrintStream out) {
         this.componentId = componentId;
         this.config = config;
+        this.metrics = new MetricsRegistry(componentId);
 
         //init shell
         shell = new Shell(in, out);
@@ -69,11 +82,15 @@ public class MailboxServer implements IMailboxServer, Runnable {
             String nsRootId = config.getString("root_id");
             String ip = InetAddress.getLocalHost().getHostAddress();
             String dmtpPort = config.getString("dmtp.tcp.port");
-            String address = ip+":"+dmtpPort;
+            address = ip+":"+dmtpPort;
 
             Registry reg = LocateRegistry.getRegistry(regHost, regPort);
             INameserverRemote remNs = (INameserverRemote) reg.lookup(nsRootId);
             remNs.registerMailboxServer(mailDomain,address);
+
+            //co-located transfer servers hand over their mails directly
+            localDelivery = new LocalDelivery(mailDomain, userData, metrics);
+            LocalTransport.bindMailbox(address, localDelivery);
         } catch (RemoteException e) {
             e.printStackTrace();
         } catch (NotBoundException e) {
@@ -92,11 +109,22 @@ public class MailboxServer implements IMailboxServer, Runnable {
             ServerSocket serverSocketDmtp = new ServerSocket(config.getInt("dmtp.tcp.port"));
             ServerSocket serverSocketDmap = new ServerSocket(config.getInt("dmap.tcp.port"));
             
-            dmtpListener = new MailboxDmtpListenerThread(serverSocketDmtp, DMTP_POOLSIZE, mailDomain, userData);
-            dmapListener = new MailboxDmapListenerThread(serverSocketDmap, DMAP_POOLSIZE, userData);
+            dmtpListener = new ListenerThread("MailboxDmtpListenerThread", "dmtp", serverSocketDmtp,
+                    ServerSettings.from(config, "dmtp", DEFAULT_DMTP_POOLSIZE),
+                    new DmtpClientConnection(mailDomain, userData, metrics), metrics);
+            dmapListener = new ListenerThread("MailboxDmapListenerThread", "dmap", serverSocketDmap,
+                    ServerSettings.from(config, "dmap", DEFAULT_DMAP_POOLSIZE),
+                    new DmapClientConnection(userData, metrics), metrics);
             
+            if (dmtpListener.getPool() != null) {
+                pools.put("dmtp", dmtpListener.getPool());
+            }
+            if (dmapListener.getPool() != null) {
+                pools.put("dmap", dmapListener.getPool());
+            }
             dmtpListener.start();
             dmapListener.start();
+            metrics.registerMBean();
 
             //wait for commands
             shell.run();
@@ -107,9 +135,54 @@ public class MailboxServer implements IMailboxServer, Runnable {
         shell.out().println("MailboxServer finished");
     }
 
+    /**
+     * CLI command to report the metrics of this server (DMTP and DMAP sessions, commands, bytes, handshakes).
+     */
+    @Command
+    public void stats() {
+        for(String s : metrics.report()){
+            shell.out().println(s);
+        }
+    }
+
+    /**
+     * CLI command to list the worker pools with their number of threads and queued tasks.
+     */
+    @Command
+    public void pools() {
+        for(WorkerPool pool : pools.values()){
+            shell.out().println(pool);
+        }
+    }
+
+    /**
+     * CLI command to change the number of threads of a worker pool while the server runs.
+     *
+     * @param pool the pool, as listed by {@link #pools()}
+     * @param threads the number of threads
+     */
+    @Command
+    public void resize(String pool, int threads) {
+        WorkerPool workerPool = pools.get(pool);
+        if(workerPool==null){
+            shell.out().println("error unknown pool '"+pool+"', pools: "+String.join(", ", pools.keySet()));
+            return;
+        }
+        try {
+            workerPool.resize(threads);
+            shell.out().println("ok "+workerPool);
+        } catch (IllegalArgumentException e) {
+            shell.out().println("error "+e.getMessage());
+        }
+    }
+
     @Override
     @Command
     public void shutdown() {
+        metrics.unregisterMBean();
+        if(localDelivery!=null) {
+            LocalTransport.unbindMailbox(address, localDelivery);
+        }
         dmtpListener.shutdown();
         dmapListener.shutdown();
         
@@ -2,6 +2,7 @@ package dslab.mailbox;
 
 import dslab.util.Config;
 import dslab.util.Mail;
+import dslab.util.MailboxStoreEvent;
 
 import java.util.HashMap;
 import java.util.List;
@@ -38,14 +39,21 @@ class UserData {
     }
     
     void saveMail(String user, Mail mail){
+        MailboxStoreEvent event = new MailboxStoreEvent();
+        event.begin();
         if(!mails.containsKey(user)){
+            event.commit("save", user, false);
             return;
         }
         mails.get(user).put(++idCounter, mail);
+        event.commit("save", user, true);
     }
 
     String[] listMail(String user){
+        MailboxStoreEvent event = new MailboxStoreEvent();
+        event.begin();
         if(!mails.containsKey(user)){
+            event.commit("list", user, false);
             return null;
         }
         Map<Long, Mail> map = mails.get(user);
@@ -59,30 +67,26 @@ class UserData {
             ++index;
         }
 
+        event.commit("list", user, true);
         return res;
     }
 
     String[] loadMail(String user, Long id){
-        if(!mails.containsKey(user)){
-            return null;
-        }
+        MailboxStoreEvent event = new MailboxStoreEvent();
+        event.begin();
         Map<Long, Mail> map = mails.get(user);
-        if(!map.containsKey(id)) {
-            return null;
-        }
-        return map.get(id).display();
+        Mail mail = map == null ? null : map.get(id);
+        event.commit("load", user, mail != null);
+        return mail == null ? null : mail.display();
     }
 
     boolean deleteMail(String user, Long id){
-        if(!mails.containsKey(user)){
-            return false;
-        }
+        MailboxStoreEvent event = new MailboxStoreEvent();
+        event.begin();
         Map<Long, Mail> map = mails.get(user);
-        if(!map.containsKey(id)) {
-            return false;
-        }
-        map.remove(id);
-        return true;
+        boolean deleted = map != null && map.remove(id) != null;
+        event.commit("delete", user, deleted);
+        return deleted;
     }
 
     public String getComponentId() {
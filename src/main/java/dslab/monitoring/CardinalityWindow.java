@@ -0,0 +1,91 @@
+package dslab.monitoring;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import dslab.util.HyperLogLog;
+
+/**
+ * Distinct senders of one server per hour, for the last 24 hours, in a ring of {@link HyperLogLog} sketches. A
+ * sketch is reset as soon as its slot is needed for a newer hour.
+ *
+ * Snapshots hold the lock of {@link #add(String, long)} only to copy the registers into a reused buffer; the sketches
+ * are created from it afterwards, so queries do not stall the receivers.
+ */
+class CardinalityWindow {
+    static final int HOURS = 24;
+
+    private final HyperLogLog[] sketches = new HyperLogLog[HOURS];
+    //the hour (since the epoch) each sketch counts
+    private final long[] hourStamps = new long[HOURS];
+    //registers of the sketches copied by hours(), guarded by itself
+    private final byte[] scratch = new byte[HOURS * HyperLogLog.size()];
+
+    CardinalityWindow() {
+        Arrays.fill(hourStamps, -1);
+    }
+
+    synchronized void add(String address, long now) {
+        long hour = now / 3600000;
+        int h = (int) (hour % HOURS);
+        if (hourStamps[h] != hour) {
+            if (sketches[h] == null) {
+                sketches[h] = new HyperLogLog();
+            } else {
+                sketches[h].reset();
+            }
+            hourStamps[h] = hour;
+        }
+        sketches[h].add(address);
+    }
+
+    /**
+     * Returns copies of the sketches of the last 24 hours.
+     *
+     * @param now the current time in milliseconds
+     * @return sketch per hour (since the epoch)
+     */
+    SortedMap<Long, HyperLogLog> hours(long now) {
+        long hour = now / 3600000;
+        long[] stamps = new long[HOURS];
+        SortedMap<Long, HyperLogLog> hours = new TreeMap<>();
+        synchronized (scratch) {
+            synchronized (this) {
+                for (int i = 0; i < HOURS; i++) {
+                    stamps[i] = hourStamps[i];
+                    if (stamps[i] > hour - HOURS && stamps[i] <= hour) {
+                        sketches[i].copyTo(scratch, i * HyperLogLog.size());
+                    }
+                }
+            }
+            for (int i = 0; i < HOURS; i++) {
+                if (stamps[i] > hour - HOURS && stamps[i] <= hour) {
+                    hours.put(stamps[i], HyperLogLog.copyOf(scratch, i * HyperLogLog.size()));
+                }
+            }
+        }
+        return hours;
+    }
+
+    /**
+     * Estimates the distinct senders in the current hour and in all given hours.
+     *
+     * @param hours sketch per hour, as returned by {@link #hours(long)}
+     * @param now the current time in milliseconds
+     * @return the estimates for the current hour and for the whole day
+     */
+    static long[] estimates(SortedMap<Long, HyperLogLog> hours, long now) {
+        long currentHour = now / 3600000;
+        HyperLogLog day = new HyperLogLog();
+        long hour = 0;
+        for (Map.Entry<Long, HyperLogLog> sketch : hours.entrySet()) {
+            day.merge(sketch.getValue());
+            if (sketch.getKey() == currentHour) {
+                hour = sketch.getValue().estimate();
+            }
+        }
+        return new long[]{hour, day.estimate()};
+    }
+}
@@ -0,0 +1,65 @@
+package dslab.monitoring;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import dslab.util.LogHistogram;
+
+/**
+ * Delivery histograms per transfer server and metric, merged from the histogram records the transfer servers send
+ * periodically.
+ */
+class HistogramData {
+    private final ConcurrentMap<String, ConcurrentMap<String, LogHistogram>> servers = new ConcurrentHashMap<>();
+
+    void merge(String server, String metric, LogHistogram histogram) {
+        LogHistogram merged = servers.computeIfAbsent(server, s -> new ConcurrentHashMap<>())
+                .computeIfAbsent(metric, m -> new LogHistogram());
+        synchronized (merged) {
+            merged.merge(histogram);
+        }
+    }
+
+    /**
+     * Returns a copy of all histograms, by server and metric (both sorted).
+     *
+     * @return the histograms
+     */
+    SortedMap<String, SortedMap<String, LogHistogram>> snapshot() {
+        SortedMap<String, SortedMap<String, LogHistogram>> snapshot = new TreeMap<>();
+        for (Map.Entry<String, ConcurrentMap<String, LogHistogram>> server : servers.entrySet()) {
+            SortedMap<String, LogHistogram> metrics = new TreeMap<>();
+            for (Map.Entry<String, LogHistogram> metric : server.getValue().entrySet()) {
+                LogHistogram copy = new LogHistogram();
+                synchronized (metric.getValue()) {
+                    copy.merge(metric.getValue());
+                }
+                metrics.put(metric.getKey(), copy);
+            }
+            snapshot.put(server.getKey(), metrics);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns a line "server metric count=n p50=v p99=v p999=v max=v" per server and metric.
+     *
+     * @return the percentiles
+     */
+    String[] getPercentiles() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, SortedMap<String, LogHistogram>> server : snapshot().entrySet()) {
+            for (Map.Entry<String, LogHistogram> metric : server.getValue().entrySet()) {
+                LogHistogram histogram = metric.getValue();
+                lines.add(server.getKey() + " " + metric.getKey()
+                        + " count=" + histogram.getCount()
+                        + " p50=" + histogram.valueAt(0.5)
+                        + " p99=" + histogram.valueAt(0.99)
+                        + " p999=" + histogram.valueAt(0.999)
+                        + " max=" + histogram.getMax());
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+}
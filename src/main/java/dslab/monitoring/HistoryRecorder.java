@@ -0,0 +1,82 @@
+package dslab.monitoring;
+
+import dslab.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs periodically on its own thread: takes the counts of the monitor data, and adds the increase since the previous
+ * run to the current minute and hour. Completed minutes and hours are written to the {@link TimeSeriesStore}.
+ */
+class HistoryRecorder implements Runnable {
+    private final ShardedMonitorData monitorData;
+    private final TimeSeriesStore store;
+
+    private Map<String, Long> last = new HashMap<>();
+    private long minute = -1;
+    private long hour = -1;
+    private Map<String, Long> minuteCounts = new HashMap<>();
+    private Map<String, Long> hourCounts = new HashMap<>();
+
+    HistoryRecorder(ShardedMonitorData monitorData, TimeSeriesStore store) {
+        this.monitorData = monitorData;
+        this.store = store;
+    }
+
+    @Override
+    public synchronized void run() {
+        long now = System.currentTimeMillis();
+        try {
+            record(now / 60000);
+        } catch (IOException e) {
+            Log.warn("HistoryRecorder: could not write history: " + e);
+        } catch (RuntimeException e) {
+            //an exception would stop the schedule
+            Log.warn("HistoryRecorder error: " + e);
+        }
+    }
+
+    /**
+     * Writes the counts of the current minute and hour, even though they are not complete yet. A later run
+     * (after a restart) writes the rest of them as another block, which queries add up.
+     */
+    synchronized void close() {
+        try {
+            record(Long.MAX_VALUE);
+            store.close();
+        } catch (IOException e) {
+            Log.warn("HistoryRecorder: could not write history: " + e);
+        }
+    }
+
+    private void record(long currentMinute) throws IOException {
+        Map<String, Long> counts = monitorData.serverCounts();
+        counts.putAll(monitorData.addressCounts());
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            //top-k counts may shrink when an address is evicted
+            long delta = count.getValue() - last.getOrDefault(count.getKey(), 0L);
+            if (delta > 0) {
+                minuteCounts.merge(count.getKey(), delta, Long::sum);
+                hourCounts.merge(count.getKey(), delta, Long::sum);
+            }
+        }
+        last = counts;
+
+        if (minute >= 0 && currentMinute != minute) {
+            if (!minuteCounts.isEmpty()) {
+                store.appendMinute(minute, minuteCounts);
+                minuteCounts = new HashMap<>();
+            }
+            if (currentMinute / 60 != hour && !hourCounts.isEmpty()) {
+                store.appendHour(hour, hourCounts);
+                hourCounts = new HashMap<>();
+            }
+        }
+        if (minute < 0 || currentMinute != minute) {
+            minute = currentMinute;
+            hour = currentMinute / 60;
+        }
+    }
+}
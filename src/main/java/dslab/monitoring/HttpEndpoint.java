@@ -0,0 +1,83 @@
+package dslab.monitoring;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the monitoring data over HTTP: {@code /stats} as JSON, {@code /metrics} in the Prometheus text format and
+ * {@code /cardinality} the sender sketches for merging. Both list only the most frequent senders (see
+ * {@link MonitoringSnapshot}), the {@code addresses} command shows all of them.
+ * Responses are rendered from a {@link MonitoringSnapshot} that is taken at most once per maxAge milliseconds, so
+ * frequent scrapes do not add work for the receivers.
+ */
+class HttpEndpoint {
+    private static final int THREADS = 2;
+
+    private final HttpServer server;
+    private final ExecutorService pool;
+    private final Supplier<MonitoringSnapshot> snapshots;
+    private final long maxAge;
+    private volatile MonitoringSnapshot snapshot;
+
+    HttpEndpoint(String host, int port, long maxAge, Supplier<MonitoringSnapshot> snapshots) throws IOException {
+        this.snapshots = snapshots;
+        this.maxAge = maxAge;
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        pool = Executors.newFixedThreadPool(THREADS);
+        server.setExecutor(pool);
+        server.createContext("/stats", exchange ->
+                respond(exchange, "application/json", snapshot().toJson()));
+        server.createContext("/metrics", exchange ->
+                respond(exchange, "text/plain; version=0.0.4", snapshot().toPrometheus()));
+        server.createContext("/cardinality", exchange ->
+                respond(exchange, "application/json", snapshot().toCardinalityJson()));
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        pool.shutdown();
+    }
+
+    private MonitoringSnapshot snapshot() {
+        MonitoringSnapshot current = snapshot;
+        if (current == null || System.currentTimeMillis() - current.getTimestamp() >= maxAge) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null || System.currentTimeMillis() - current.getTimestamp() >= maxAge) {
+                    current = snapshots.get();
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package dslab.monitoring;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the UDP ingest, shared by all receiver threads.
+ */
+class IngestStats {
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final long start = System.currentTimeMillis();
+
+    //state of the previous report, for the current rate
+    private long lastReport = start;
+    private long lastReceived;
+
+    void received() {
+        received.increment();
+    }
+
+    void dropped() {
+        dropped.increment();
+    }
+
+    long getReceived() {
+        return received.sum();
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the counters and the packets per second since the start and since the previous report.
+     *
+     * @return the report lines
+     */
+    synchronized String[] report() {
+        long now = System.currentTimeMillis();
+        long total = received.sum();
+        double current = (total - lastReceived) * 1000.0 / Math.max(1, now - lastReport);
+        double average = total * 1000.0 / Math.max(1, now - start);
+        lastReport = now;
+        lastReceived = total;
+
+        return new String[]{
+                "received " + total,
+                "dropped " + dropped.sum(),
+                String.format(Locale.ROOT, "packets/s %.1f (average %.1f)", current, average)
+        };
+    }
+}
@@ -0,0 +1,177 @@
+package dslab.monitoring;
+
+import java.net.SocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Detects lost, duplicated and reordered monitoring records from their sequence numbers. Every transfer server
+ * numbers its records from 1 on one socket, so a source is the socket address the records come from (a restarted
+ * transfer server is a new source). The numbers of the most recent {@link #WINDOW} records per source are remembered
+ * to tell duplicates from late records.
+ *
+ * Every restart of a transfer server leaves a source behind, so sources that sent nothing for longer than
+ * {@link #EVICT_IDLE} ms are dropped by {@link #evictIdle()}, like the rate windows of {@link MonitorData}. Their
+ * counts are kept per server, so the totals do not change.
+ */
+class LossTracker {
+    static final int WINDOW = 1024;
+    static final long EVICT_IDLE = RateWindow.MINUTES * 60 * 1000L;
+
+    private final ConcurrentMap<SocketAddress, Source> sources = new ConcurrentHashMap<>();
+    //counts of evicted sources per server: received, lost, duplicates, reordered
+    private final Map<String, long[]> evicted = new HashMap<>();
+    private final LongSupplier clock;
+
+    LossTracker() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock the current time in milliseconds
+     */
+    LossTracker(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    void record(SocketAddress address, String server, long sequence) {
+        Source source = sources.get(address);
+        if (source == null) {
+            source = sources.computeIfAbsent(address, a -> new Source(server));
+        }
+        source.record(sequence, clock.getAsLong());
+    }
+
+    /**
+     * Drops the sources that sent nothing for longer than {@link #EVICT_IDLE} ms, keeping their counts.
+     */
+    void evictIdle() {
+        long now = clock.getAsLong();
+        //a record racing with the removal of its source may be lost, it would have been the first in 15 minutes
+        for (Iterator<Source> it = sources.values().iterator(); it.hasNext(); ) {
+            Source source = it.next();
+            if (now - source.lastRecord() > EVICT_IDLE) {
+                it.remove();
+                long[] counts = source.counts();
+                synchronized (evicted) {
+                    add(evicted.computeIfAbsent(source.server, s -> new long[4]), counts);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a line "server received=n lost=n (p%) duplicates=n reordered=n sources=n" per transfer server, the
+     * records of all its sources added up. Records not received yet count as lost until they arrive.
+     *
+     * @return the loss per server
+     */
+    String[] getLoss() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, long[]> server : totals().entrySet()) {
+            long[] total = server.getValue();
+            long expected = total[0] + total[1];
+            lines.add(String.format(Locale.ROOT, "%s received=%d lost=%d (%.2f%%) duplicates=%d reordered=%d sources=%d",
+                    server.getKey(), total[0], total[1], expected == 0 ? 0.0 : 100.0 * total[1] / expected,
+                    total[2], total[3], total[4]));
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    /**
+     * @return per server: unique records received, lost, duplicates, reordered (evicted sources included) and number
+     * of current sources
+     */
+    SortedMap<String, long[]> totals() {
+        SortedMap<String, long[]> totals = new TreeMap<>();
+        synchronized (evicted) {
+            for (Map.Entry<String, long[]> server : evicted.entrySet()) {
+                add(totals.computeIfAbsent(server.getKey(), s -> new long[5]), server.getValue());
+            }
+        }
+        for (Source source : sources.values()) {
+            long[] total = totals.computeIfAbsent(source.server, s -> new long[5]);
+            add(total, source.counts());
+            total[4]++;
+        }
+        return totals;
+    }
+
+    private static void add(long[] total, long[] counts) {
+        for (int i = 0; i < counts.length; i++) {
+            total[i] += counts[i];
+        }
+    }
+
+    private static class Source {
+        private final String server;
+        //bit per sequence number in (highest - WINDOW, highest]
+        private final long[] seen = new long[WINDOW / 64];
+        private long lowest = -1;
+        private long highest = -1;
+        private long unique;
+        private long duplicates;
+        private long reordered;
+        private volatile long lastRecord;
+
+        Source(String server) {
+            this.server = server;
+        }
+
+        long lastRecord() {
+            return lastRecord;
+        }
+
+        synchronized void record(long sequence, long now) {
+            lastRecord = now;
+            if (highest < 0) {
+                lowest = highest = sequence;
+                mark(sequence);
+                unique++;
+                return;
+            }
+            if (sequence > highest) {
+                //forget the numbers that leave the window
+                for (long s = Math.max(highest + 1, sequence - WINDOW + 1); s <= sequence; s++) {
+                    clear(s);
+                }
+                highest = sequence;
+                mark(sequence);
+                unique++;
+            } else if (sequence <= highest - WINDOW) {
+                //too old to tell, most likely a late record
+                reordered++;
+                unique++;
+            } else if (isMarked(sequence)) {
+                duplicates++;
+            } else {
+                mark(sequence);
+                reordered++;
+                unique++;
+            }
+            lowest = Math.min(lowest, sequence);
+        }
+
+        synchronized long[] counts() {
+            long expected = highest < 0 ? 0 : highest - lowest + 1;
+            return new long[]{unique, Math.max(0, expected - unique), duplicates, reordered};
+        }
+
+        private void mark(long sequence) {
+            int bit = (int) (sequence % WINDOW);
+            seen[bit >>> 6] |= 1L << bit;
+        }
+
+        private void clear(long sequence) {
+            int bit = (int) (sequence % WINDOW);
+            seen[bit >>> 6] &= ~(1L << bit);
+        }
+
+        private boolean isMarked(long sequence) {
+            int bit = (int) (sequence % WINDOW);
+            return (seen[bit >>> 6] & (1L << bit)) != 0;
+        }
+    }
+}
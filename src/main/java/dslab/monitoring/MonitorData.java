@@ -1,51 +1,244 @@
 package dslab.monitoring;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
+import dslab.util.HyperLogLog;
+
+/**
+ * Usage counts per mail address and per transfer server. Counting is lock-free (striped counters in concurrent maps),
+ * so the UDP listener never waits for a running query; queries sort a copy of the current counts.
+ *
+ * In approximate mode only the top addresses are counted (see {@link SpaceSaving}), so memory does not grow with the
+ * number of distinct senders.
+ *
+ * Besides the totals, recent rates are kept per server and per address in {@link RateWindow}s; in approximate mode
+ * only for the addresses currently counted. Windows of keys that were idle for longer than the longest window are
+ * dropped by {@link #evictIdle()}, which the server calls every {@link #EVICT_INTERVAL} ms. The distinct senders per
+ * server and hour are estimated in {@link CardinalityWindow}s.
+ */
 class MonitorData {
-    private final Map<String, Integer> addresses = new HashMap<>();
-    private final Map<String, Integer> servers = new HashMap<>();
+    //the rate windows cover 1, 5 and 15 minutes
+    static final int[] RATE_MINUTES = {1, 5, RateWindow.MINUTES};
+    private static final long EVICT_IDLE = RateWindow.MINUTES * 60 * 1000L;
+    static final long EVICT_INTERVAL = 60 * 1000L;
+
+    private final ConcurrentMap<String, LongAdder> addresses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> servers = new ConcurrentHashMap<>();
+    //null if addresses are counted exactly
+    private final SpaceSaving topAddresses;
+
+    private final ConcurrentMap<String, RateWindow> addressRates = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RateWindow> serverRates = new ConcurrentHashMap<>();
+    //distinct senders per server and hour
+    private final ConcurrentMap<String, CardinalityWindow> serverSenders = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    MonitorData() {
+        this(0, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates monitor data that counts only (approximately) the topK most frequent addresses.
+     *
+     * @param topK the number of addresses to count
+     */
+    MonitorData(int topK) {
+        this(topK, System::currentTimeMillis);
+    }
+
+    /**
+     * @param topK the number of addresses to count, 0 to count all addresses exactly
+     * @param clock the current time in milliseconds
+     */
+    MonitorData(int topK, LongSupplier clock) {
+        this.topAddresses = topK > 0 ? new SpaceSaving(topK) : null;
+        this.clock = clock;
+    }
 
     /**
      * 
      * @param server ip:port
      * @param address email address
      */
-    synchronized void add(String server, String address) {
-        int a = 0;
-        if(addresses.containsKey(address)){
-            a = addresses.get(address);
+    void add(String server, String address) {
+        if (topAddresses != null) {
+            String replaced = topAddresses.add(address);
+            if (replaced != null) {
+                //the window of an address follows its counter, so there are at most topK of them
+                addressRates.remove(replaced);
+            }
+        } else {
+            increment(addresses, address);
         }
-        addresses.put(address, a+1);
-        
-        int s = 0;
-        if(servers.containsKey(server)){
-            s = servers.get(server);
+        increment(servers, server);
+
+        long now = clock.getAsLong();
+        window(addressRates, address).add(now);
+        window(serverRates, server).add(now);
+        CardinalityWindow senders = serverSenders.get(server);
+        if (senders == null) {
+            senders = serverSenders.computeIfAbsent(server, s -> new CardinalityWindow());
         }
-        servers.put(server, s+1);
+        senders.add(address, now);
+    }
+
+    /**
+     * Drops the rate windows of keys that were idle for longer than the longest window, and in approximate mode those
+     * of addresses no longer counted (their counter was replaced while the window was being created).
+     */
+    void evictIdle() {
+        long now = clock.getAsLong();
+        //an add racing with the removal of its window may be lost, it would have been the first in 15 minutes
+        addressRates.entrySet().removeIf(entry -> now - entry.getValue().lastAdd() > EVICT_IDLE
+                || (topAddresses != null && !topAddresses.contains(entry.getKey())));
+        serverRates.values().removeIf(window -> now - window.lastAdd() > EVICT_IDLE);
     }
     
-    synchronized String[] getAddresses(){
-        return get(addresses);
+    String[] getAddresses(){
+        if (topAddresses != null) {
+            return topAddresses.top();
+        }
+        return format(counts(addresses));
     }
 
-    synchronized String[] getServers(){
-        return get(servers);
+    String[] getServers(){
+        return format(counts(servers));
     }
-    
-    private String[] get(Map<String, Integer> container){
-        //Set<String> keys = container.keySet();
-        //String[] keys = (String[])container.keySet().stream().sorted(Comparator.comparingInt(container::get)).toArray();
-        List<String> keys = container.keySet().stream().sorted((a, b) -> container.get(b)-container.get(a)).collect(Collectors.toList());
-        //Set<String> keys = container.keySet();
-        String[] ret = new String[keys.size()];
+
+    /**
+     * Returns the rates of all servers as "server 1m r/s 5m r/s 15m r/s", highest rate in the last minute first.
+     *
+     * @return the server rates
+     */
+    String[] getServerRates() {
+        return formatRates(serverRates(clock.getAsLong()));
+    }
+
+    /**
+     * Returns the rates of all addresses that were active in the last 15 minutes, like {@link #getServerRates()}.
+     *
+     * @return the address rates
+     */
+    String[] getAddressRates() {
+        return formatRates(addressRates(clock.getAsLong()));
+    }
+
+    //snapshots, for merging the data of several shards (see ShardedMonitorData)
+
+    /**
+     * @return the sketch of the top addresses, null if addresses are counted exactly
+     */
+    SpaceSaving topAddresses() {
+        return topAddresses;
+    }
+
+    Map<String, Long> addressCounts() {
+        return counts(addresses);
+    }
+
+    Map<String, Long> serverCounts() {
+        return counts(servers);
+    }
+
+    Map<String, double[]> addressRates(long now) {
+        return rates(addressRates, now);
+    }
+
+    Map<String, double[]> serverRates(long now) {
+        return rates(serverRates, now);
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return per server the sender sketches of the last 24 hours, by hour
+     */
+    Map<String, SortedMap<Long, HyperLogLog>> serverSenders(long now) {
+        Map<String, SortedMap<Long, HyperLogLog>> senders = new HashMap<>();
+        for (Map.Entry<String, CardinalityWindow> entry : serverSenders.entrySet()) {
+            senders.put(entry.getKey(), entry.getValue().hours(now));
+        }
+        return senders;
+    }
+
+    /**
+     * Formats counts as "key count", highest count first.
+     *
+     * @param counts the counts
+     * @return the formatted counts
+     */
+    static String[] format(Map<String, Long> counts) {
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(counts.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+        String[] ret = new String[sorted.size()];
         int index = 0;
-        
-        for(String key : keys) {
-            ret[index++] = key + " " + container.get(key);
+        for (Map.Entry<String, Long> count : sorted) {
+            ret[index++] = count.getKey() + " " + count.getValue();
         }
-        
         return ret;
     }
+
+    /**
+     * Formats rates (per {@link #RATE_MINUTES}) as "key 1m r/s 5m r/s 15m r/s", highest rate in the last minute first.
+     *
+     * @param rates the rates
+     * @return the formatted rates
+     */
+    static String[] formatRates(Map<String, double[]> rates) {
+        List<Map.Entry<String, double[]>> sorted = new ArrayList<>(rates.entrySet());
+        sorted.sort((a, b) -> Double.compare(b.getValue()[0], a.getValue()[0]));
+
+        String[] ret = new String[sorted.size()];
+        int index = 0;
+        for (Map.Entry<String, double[]> rate : sorted) {
+            StringBuilder line = new StringBuilder(rate.getKey());
+            for (int i = 0; i < RATE_MINUTES.length; i++) {
+                line.append(String.format(Locale.ROOT, " %dm %.2f/s", RATE_MINUTES[i], rate.getValue()[i]));
+            }
+            ret[index++] = line.toString();
+        }
+        return ret;
+    }
+
+    private static Map<String, double[]> rates(ConcurrentMap<String, RateWindow> container, long now) {
+        Map<String, double[]> rates = new HashMap<>(container.size() * 2);
+        for (Map.Entry<String, RateWindow> entry : container.entrySet()) {
+            double[] rate = new double[RATE_MINUTES.length];
+            for (int i = 0; i < RATE_MINUTES.length; i++) {
+                rate[i] = entry.getValue().rate(RATE_MINUTES[i], now);
+            }
+            rates.put(entry.getKey(), rate);
+        }
+        return rates;
+    }
+
+    private static RateWindow window(ConcurrentMap<String, RateWindow> container, String key) {
+        RateWindow window = container.get(key);
+        if (window == null) {
+            window = container.computeIfAbsent(key, k -> new RateWindow());
+        }
+        return window;
+    }
+
+    private static void increment(ConcurrentMap<String, LongAdder> container, String key) {
+        //get first: after warm-up nearly every key exists, and get does not lock the bin like computeIfAbsent
+        LongAdder counter = container.get(key);
+        if (counter == null) {
+            counter = container.computeIfAbsent(key, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+    
+    private static Map<String, Long> counts(ConcurrentMap<String, LongAdder> container){
+        //copy the counts, so concurrent adds neither block nor change the order while sorting
+        Map<String, Long> counts = new HashMap<>(container.size() * 2);
+        for (Map.Entry<String, LongAdder> entry : container.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
 }
@@ -1,24 +1,59 @@
 package dslab.monitoring;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
-import java.net.DatagramSocket;
-import java.net.ServerSocket;
-import java.util.Arrays;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import at.ac.tuwien.dsg.orvell.Shell;
 import at.ac.tuwien.dsg.orvell.StopShellException;
 import at.ac.tuwien.dsg.orvell.annotation.Command;
 import dslab.ComponentFactory;
-import dslab.transfer.TransferListenerThread;
 import dslab.util.Config;
+import dslab.util.Log;
+import dslab.util.MetricsRegistry;
 
 public class MonitoringServer implements IMonitoringServer {
-    private UdpListenerThread listenerThread;
+    private static final int DEFAULT_RECEIVERS = 1;
+    private static final int DEFAULT_SOCKETS = 1;
+    private static final int DEFAULT_HISTORY_INTERVAL = 10000;
+    private static final int DEFAULT_HISTORY_RETENTION_DAYS = 14;
+    private static final int DEFAULT_HISTORY_HOURS_RETENTION_DAYS = 365;
+    //ranges up to this many minutes are reported per minute, longer ones per hour
+    private static final long HISTORY_MINUTES_RANGE = 6 * 60;
+    private static final int DEFAULT_HTTP_SNAPSHOT_AGE = 1000;
+    //the endpoint has no authentication, it is only reachable from other hosts if http.host says so
+    private static final String DEFAULT_HTTP_HOST = "127.0.0.1";
+    //seconds to wait for a running eviction or history run on shutdown
+    private static final long TIMER_SHUTDOWN_WAIT = 5;
+    private static final DateTimeFormatter HISTORY_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
+
+    private UdpListenerThread[] listenerThreads;
     private final Config config;
     private final Shell shell;
-    private final MonitorData monitorData;
+    private ShardedMonitorData monitorData;
+    private final HistogramData histogramData = new HistogramData();
+    private final IngestStats ingestStats = new IngestStats();
+    private final LossTracker lossTracker = new LossTracker();
+    private final MetricsRegistry metrics;
+    private TimeSeriesStore historyStore;
+    private HistoryRecorder historyRecorder;
+    //evicts idle rate windows and loss sources and writes the history, off the receiver threads
+    private ScheduledExecutorService timer;
+    private HttpEndpoint httpEndpoint;
     
     /**
      * Creates a new server instance.
@@ -30,7 +65,9 @@ public class MonitoringServer implements IMonitoringServer {
      */
     public MonitoringServer(String componentId, Config config, InputStream in, PrintStream out) {
         this.config = config;
-        monitorData = new MonitorData();
+        this.metrics = new MetricsRegistry(componentId);
+        metrics.gauge("udp.packets.received", ingestStats::getReceived);
+        metrics.gauge("udp.packets.dropped", ingestStats::getDropped);
 
         //init shell
         shell = new Shell(in, out);
@@ -45,11 +82,63 @@ public class MonitoringServer implements IMonitoringServer {
             throw new RuntimeException("Config does not contain udp.port");
         }
 
+        int sockets = config.containsKey("udp.sockets") ? config.getInt("udp.sockets") : DEFAULT_SOCKETS;
+        int receivers = config.containsKey("udp.receivers") ? config.getInt("udp.receivers") : DEFAULT_RECEIVERS;
+        if (sockets > 1 && !reusePortSupported()) {
+            //checked before any thread starts, binding a second socket would fail
+            Log.warn("SO_REUSEPORT is not supported on this platform, using 1 UDP socket instead of " + sockets);
+            sockets = 1;
+        }
+
+        //optionally count only the top addresses, so memory stays bounded with many distinct senders
+        int topK = config.containsKey("addresses.topk") ? config.getInt("addresses.topk") : 0;
+        //one shard per socket, merged on queries
+        monitorData = new ShardedMonitorData(sockets, topK);
+
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "MonitoringTimer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(monitorData::evictIdle, MonitorData.EVICT_INTERVAL, MonitorData.EVICT_INTERVAL,
+                TimeUnit.MILLISECONDS);
+        timer.scheduleAtFixedRate(lossTracker::evictIdle, MonitorData.EVICT_INTERVAL, MonitorData.EVICT_INTERVAL,
+                TimeUnit.MILLISECONDS);
+
         try {
-            //make server socket, start Socket Listener in new thread
-            DatagramSocket datagramSocket = new DatagramSocket(config.getInt("udp.port"));
-            listenerThread = new UdpListenerThread(datagramSocket, monitorData);
-            listenerThread.start();
+            //make channels, start receiver threads draining them
+            listenerThreads = new UdpListenerThread[sockets * receivers];
+            for (int socket = 0; socket < sockets; socket++) {
+                DatagramChannel channel = DatagramChannel.open();
+                if (sockets > 1) {
+                    //the kernel spreads the packets over all sockets bound to the port
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channel.bind(new InetSocketAddress(config.getInt("udp.port")));
+                for (int i = 0; i < receivers; i++) {
+                    UdpListenerThread listenerThread = new UdpListenerThread(channel, monitorData.shard(socket), histogramData,
+                            ingestStats, lossTracker, metrics);
+                    listenerThreads[socket * receivers + i] = listenerThread;
+                    listenerThread.start();
+                }
+            }
+
+            //write the counts to disk periodically
+            if (config.containsKey("history.dir")) {
+                startHistory();
+            }
+
+            //serve the data to scrapers
+            if (config.containsKey("http.port")) {
+                int maxAge = config.containsKey("http.snapshot.age")
+                        ? config.getInt("http.snapshot.age") : DEFAULT_HTTP_SNAPSHOT_AGE;
+                String host = config.containsKey("http.host") ? config.getString("http.host") : DEFAULT_HTTP_HOST;
+                httpEndpoint = new HttpEndpoint(host, config.getInt("http.port"), maxAge,
+                        () -> MonitoringSnapshot.take(monitorData, histogramData, ingestStats));
+                httpEndpoint.start();
+            }
+
+            metrics.registerMBean();
 
             //wait for commands
             shell.run();
@@ -60,6 +149,27 @@ public class MonitoringServer implements IMonitoringServer {
         shell.out().println("MonitoringServer finished");
     }
 
+    private static boolean reusePortSupported() {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void startHistory() throws IOException {
+        int interval = config.containsKey("history.interval")
+                ? config.getInt("history.interval") : DEFAULT_HISTORY_INTERVAL;
+        int retentionDays = config.containsKey("history.retention.days")
+                ? config.getInt("history.retention.days") : DEFAULT_HISTORY_RETENTION_DAYS;
+        int hoursRetentionDays = config.containsKey("history.retention.hours.days")
+                ? config.getInt("history.retention.hours.days") : DEFAULT_HISTORY_HOURS_RETENTION_DAYS;
+        historyStore = new TimeSeriesStore(new File(config.getString("history.dir")), retentionDays,
+                hoursRetentionDays);
+        historyRecorder = new HistoryRecorder(monitorData, historyStore);
+        timer.scheduleAtFixedRate(historyRecorder, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     @Command
     public void addresses() {
@@ -78,10 +188,154 @@ public class MonitoringServer implements IMonitoringServer {
         }
     }
 
+    /**
+     * CLI command to report the mails per second of each transfer server over the last 1, 5 and 15 minutes.
+     */
+    @Command
+    public void serverrates() {
+        for(String s : monitorData.getServerRates()){
+            shell.out().println(s);
+        }
+    }
+
+    /**
+     * CLI command to report the mails per second of each sender active in the last 15 minutes.
+     */
+    @Command
+    public void addressrates() {
+        for(String s : monitorData.getAddressRates()){
+            shell.out().println(s);
+        }
+    }
+
+    /**
+     * CLI command to report the estimated number of distinct senders of each transfer server in the current hour and
+     * in the last 24 hours.
+     */
+    @Command
+    public void cardinality() {
+        for(String s : monitorData.getCardinalities()){
+            shell.out().println(s);
+        }
+    }
+
+    /**
+     * CLI command to report the delivery times (microseconds) and mail sizes (bytes) of each transfer server as
+     * percentiles.
+     */
+    @Command
+    public void latencies() {
+        for(String s : histogramData.getPercentiles()){
+            shell.out().println(s);
+        }
+    }
+
+    /**
+     * CLI command to report the monitoring records lost, duplicated and reordered on their way from each transfer
+     * server, from their sequence numbers.
+     */
+    @Command
+    public void loss() {
+        for(String s : lossTracker.getLoss()){
+            shell.out().println(s);
+        }
+    }
+
+    /**
+     * CLI command to report the received and dropped (malformed) monitoring packets and the packets per second.
+     */
+    @Command
+    public void ingest() {
+        for(String s : ingestStats.report()){
+            shell.out().println(s);
+        }
+    }
+
+    /**
+     * CLI command to report the stored mail counts of a server (ip:port) or address between two local times
+     * (yyyy-MM-ddTHH:mm), per minute for up to 6 hours and per hour for longer ranges. The current minute and hour are
+     * only included once they are written.
+     *
+     * @param key the server or address
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     */
+    @Command
+    public void history(String key, String from, String to) {
+        if (historyStore == null) {
+            shell.out().println("error history is not enabled (history.dir)");
+            return;
+        }
+        long fromMinute, toMinute;
+        try {
+            fromMinute = toMinute(from);
+            toMinute = toMinute(to);
+        } catch (DateTimeParseException e) {
+            shell.out().println("error time format is yyyy-MM-ddTHH:mm");
+            return;
+        }
+
+        try {
+            boolean perMinute = toMinute - fromMinute <= HISTORY_MINUTES_RANGE;
+            SortedMap<Long, Long> counts = perMinute
+                    ? historyStore.queryMinutes(key, fromMinute, toMinute)
+                    : historyStore.queryHours(key, Math.floorDiv(fromMinute, 60), Math.floorDiv(toMinute + 59, 60));
+            long total = 0;
+            for (Map.Entry<Long, Long> count : counts.entrySet()) {
+                long minute = perMinute ? count.getKey() : count.getKey() * 60;
+                shell.out().println(fromMinute(minute) + " " + count.getValue());
+                total += count.getValue();
+            }
+            shell.out().println("total " + total);
+        } catch (IOException e) {
+            shell.out().println("error could not read history: " + e.getMessage());
+        }
+    }
+
+    private static long toMinute(String time) {
+        return LocalDateTime.parse(time, HISTORY_TIME).atZone(ZoneId.systemDefault()).toEpochSecond() / 60;
+    }
+
+    private static String fromMinute(long minute) {
+        return HISTORY_TIME.format(LocalDateTime.ofInstant(Instant.ofEpochSecond(minute * 60), ZoneId.systemDefault()));
+    }
+
+    /**
+     * CLI command to report the metrics of this server (packets, bytes, records per kind).
+     */
+    @Command
+    public void stats() {
+        for (String s : metrics.report()) {
+            shell.out().println(s);
+        }
+    }
+
     @Override
     @Command
     public void shutdown() {
-        listenerThread.shutdown();
+        metrics.unregisterMBean();
+        for (UdpListenerThread listenerThread : listenerThreads) {
+            if (listenerThread != null) {
+                listenerThread.shutdown();
+            }
+        }
+        if (httpEndpoint != null) {
+            httpEndpoint.stop();
+        }
+        if (timer != null) {
+            //let a running history run finish before the store is closed
+            timer.shutdown();
+            try {
+                if (!timer.awaitTermination(TIMER_SHUTDOWN_WAIT, TimeUnit.SECONDS)) {
+                    timer.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                timer.shutdownNow();
+            }
+        }
+        if (historyRecorder != null) {
+            historyRecorder.close();
+        }
         
         throw new StopShellException();
     }
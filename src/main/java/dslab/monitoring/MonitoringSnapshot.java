@@ -0,0 +1,274 @@
+package dslab.monitoring;
+
+import java.util.*;
+
+import dslab.util.HyperLogLog;
+import dslab.util.LogHistogram;
+
+/**
+ * Immutable copy of the monitoring data at one point in time, rendered as JSON or in the Prometheus text exposition
+ * format by the HTTP endpoint. Of the sender addresses only the {@link #SNAPSHOT_SENDERS} most frequent are kept (the
+ * JSON lists them, Prometheus the top {@link #PROMETHEUS_SENDERS} of them), so with exact counting neither the snapshot
+ * nor the responses grow with the number of distinct senders.
+ */
+final class MonitoringSnapshot {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    //senders exported to Prometheus, each address is a time series there
+    static final int PROMETHEUS_SENDERS = 20;
+    //senders kept in a snapshot and listed in the JSON
+    static final int SNAPSHOT_SENDERS = 100;
+
+    private final long timestamp;
+    private final SortedMap<String, Long> servers;
+    private final SortedMap<String, Long> addresses;
+    private final SortedMap<String, double[]> serverRates;
+    private final SortedMap<String, SortedMap<String, LogHistogram>> histograms;
+    private final SortedMap<String, SortedMap<Long, HyperLogLog>> senders;
+    private final long received;
+    private final long dropped;
+
+    private MonitoringSnapshot(long timestamp, SortedMap<String, Long> servers, SortedMap<String, Long> addresses,
+                               SortedMap<String, double[]> serverRates,
+                               SortedMap<String, SortedMap<String, LogHistogram>> histograms,
+                               SortedMap<String, SortedMap<Long, HyperLogLog>> senders,
+                               long received, long dropped) {
+        this.timestamp = timestamp;
+        this.servers = Collections.unmodifiableSortedMap(servers);
+        this.addresses = Collections.unmodifiableSortedMap(addresses);
+        this.serverRates = Collections.unmodifiableSortedMap(serverRates);
+        this.histograms = Collections.unmodifiableSortedMap(histograms);
+        this.senders = Collections.unmodifiableSortedMap(senders);
+        this.received = received;
+        this.dropped = dropped;
+    }
+
+    static MonitoringSnapshot take(ShardedMonitorData monitorData, HistogramData histogramData, IngestStats stats) {
+        return new MonitoringSnapshot(System.currentTimeMillis(),
+                new TreeMap<>(monitorData.serverCounts()),
+                top(monitorData.addressCounts(), SNAPSHOT_SENDERS),
+                new TreeMap<>(monitorData.serverRates()),
+                histogramData.snapshot(),
+                monitorData.serverSenders(),
+                stats.getReceived(),
+                stats.getDropped());
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"timestamp\":").append(timestamp);
+
+        json.append(",\"servers\":{");
+        appendCounts(json, servers);
+        json.append("},\"addresses\":{");
+        appendCounts(json, addresses);
+
+        json.append("},\"rates\":{");
+        String separator = "";
+        for (Map.Entry<String, double[]> rate : serverRates.entrySet()) {
+            json.append(separator).append(quote(rate.getKey())).append(":{");
+            for (int i = 0; i < MonitorData.RATE_MINUTES.length; i++) {
+                json.append(i > 0 ? "," : "").append("\"").append(MonitorData.RATE_MINUTES[i]).append("m\":")
+                        .append(number(rate.getValue()[i]));
+            }
+            json.append("}");
+            separator = ",";
+        }
+
+        json.append("},\"histograms\":{");
+        separator = "";
+        for (Map.Entry<String, SortedMap<String, LogHistogram>> server : histograms.entrySet()) {
+            json.append(separator).append(quote(server.getKey())).append(":{");
+            String metricSeparator = "";
+            for (Map.Entry<String, LogHistogram> metric : server.getValue().entrySet()) {
+                LogHistogram histogram = metric.getValue();
+                json.append(metricSeparator).append(quote(metric.getKey()))
+                        .append(":{\"count\":").append(histogram.getCount())
+                        .append(",\"p50\":").append(histogram.valueAt(0.5))
+                        .append(",\"p99\":").append(histogram.valueAt(0.99))
+                        .append(",\"p999\":").append(histogram.valueAt(0.999))
+                        .append(",\"max\":").append(histogram.getMax()).append("}");
+                metricSeparator = ",";
+            }
+            json.append("}");
+            separator = ",";
+        }
+
+        json.append("},\"senders\":{");
+        separator = "";
+        for (String server : senders.keySet()) {
+            long[] estimates = CardinalityWindow.estimates(senders.get(server), timestamp);
+            json.append(separator).append(quote(server))
+                    .append(":{\"hour\":").append(estimates[0]).append(",\"day\":").append(estimates[1]).append("}");
+            separator = ",";
+        }
+
+        json.append("},\"ingest\":{\"received\":").append(received)
+                .append(",\"dropped\":").append(dropped).append("}}");
+        return json.toString();
+    }
+
+    String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+
+        family(out, "dslab_monitoring_mails_total", "counter", "Mails reported per transfer server.");
+        for (Map.Entry<String, Long> server : servers.entrySet()) {
+            sample(out, "dslab_monitoring_mails_total", "server", server.getKey(), null, null, server.getValue());
+        }
+        family(out, "dslab_monitoring_sender_mails_total", "counter",
+                "Mails reported per sender address, of the " + PROMETHEUS_SENDERS + " most frequent senders.");
+        for (Map.Entry<String, Long> address : topSenders()) {
+            sample(out, "dslab_monitoring_sender_mails_total", "address", address.getKey(), null, null, address.getValue());
+        }
+        family(out, "dslab_monitoring_mail_rate", "gauge", "Mails per second per transfer server over a window.");
+        for (Map.Entry<String, double[]> rate : serverRates.entrySet()) {
+            for (int i = 0; i < MonitorData.RATE_MINUTES.length; i++) {
+                sample(out, "dslab_monitoring_mail_rate", "server", rate.getKey(),
+                        "window", MonitorData.RATE_MINUTES[i] + "m", rate.getValue()[i]);
+            }
+        }
+
+        //one summary per metric (resolve_us, size_bytes, ...)
+        SortedMap<String, SortedMap<String, LogHistogram>> byMetric = new TreeMap<>();
+        for (Map.Entry<String, SortedMap<String, LogHistogram>> server : histograms.entrySet()) {
+            for (Map.Entry<String, LogHistogram> metric : server.getValue().entrySet()) {
+                byMetric.computeIfAbsent(metric.getKey(), m -> new TreeMap<>()).put(server.getKey(), metric.getValue());
+            }
+        }
+        for (Map.Entry<String, SortedMap<String, LogHistogram>> metric : byMetric.entrySet()) {
+            String name = "dslab_delivery_" + metric.getKey().replaceAll("[^a-zA-Z0-9_]", "_");
+            family(out, name, "summary", "Delivery " + metric.getKey() + " per transfer server.");
+            for (Map.Entry<String, LogHistogram> server : metric.getValue().entrySet()) {
+                for (double quantile : QUANTILES) {
+                    sample(out, name, "server", server.getKey(), "quantile", String.valueOf(quantile),
+                            server.getValue().valueAt(quantile));
+                }
+                //estimated from the buckets, see LogHistogram.getSum()
+                sample(out, name + "_sum", "server", server.getKey(), null, null, server.getValue().getSum());
+                sample(out, name + "_count", "server", server.getKey(), null, null, server.getValue().getCount());
+            }
+        }
+
+        family(out, "dslab_monitoring_distinct_senders", "gauge", "Estimated distinct senders per transfer server.");
+        for (String server : senders.keySet()) {
+            long[] estimates = CardinalityWindow.estimates(senders.get(server), timestamp);
+            sample(out, "dslab_monitoring_distinct_senders", "server", server, "window", "1h", estimates[0]);
+            sample(out, "dslab_monitoring_distinct_senders", "server", server, "window", "24h", estimates[1]);
+        }
+
+        family(out, "dslab_monitoring_packets_received_total", "counter", "Monitoring packets received.");
+        out.append("dslab_monitoring_packets_received_total ").append(received).append('\n');
+        family(out, "dslab_monitoring_packets_dropped_total", "counter", "Malformed monitoring packets dropped.");
+        out.append("dslab_monitoring_packets_dropped_total ").append(dropped).append('\n');
+        return out.toString();
+    }
+
+    /**
+     * Renders the sender sketches per server and hour (since the epoch) as JSON, for merging with the sketches of other
+     * monitoring servers (see {@link HyperLogLog#decode(String)}).
+     *
+     * @return the encoded registers by server and hour
+     */
+    String toCardinalityJson() {
+        StringBuilder json = new StringBuilder("{");
+        String separator = "";
+        for (Map.Entry<String, SortedMap<Long, HyperLogLog>> server : senders.entrySet()) {
+            json.append(separator).append(quote(server.getKey())).append(":{");
+            String hourSeparator = "";
+            for (Map.Entry<Long, HyperLogLog> hour : server.getValue().entrySet()) {
+                json.append(hourSeparator).append("\"").append(hour.getKey()).append("\":")
+                        .append(quote(hour.getValue().encode()));
+                hourSeparator = ",";
+            }
+            json.append("}");
+            separator = ",";
+        }
+        return json.append("}").toString();
+    }
+
+    //the most frequent senders, sorted by address so the series keep their order between scrapes
+    private Collection<Map.Entry<String, Long>> topSenders() {
+        return top(addresses, PROMETHEUS_SENDERS).entrySet();
+    }
+
+    /**
+     * Selects the n highest counts with a bounded heap, without sorting all of them.
+     *
+     * @param counts the counts
+     * @param n the number of counts to keep
+     * @return the n highest counts (ties broken by key), sorted by key
+     */
+    static SortedMap<String, Long> top(Map<String, Long> counts, int n) {
+        Comparator<Map.Entry<String, Long>> order = Map.Entry.<String, Long>comparingByValue()
+                .thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder()));
+        //the smallest of the kept counts first
+        PriorityQueue<Map.Entry<String, Long>> top = new PriorityQueue<>(n + 1, order);
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            if (top.size() < n) {
+                top.add(count);
+            } else if (order.compare(count, top.peek()) > 0) {
+                top.poll();
+                top.add(count);
+            }
+        }
+        SortedMap<String, Long> sorted = new TreeMap<>();
+        for (Map.Entry<String, Long> count : top) {
+            sorted.put(count.getKey(), count.getValue());
+        }
+        return sorted;
+    }
+
+    private static void appendCounts(StringBuilder json, Map<String, Long> counts) {
+        String separator = "";
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            json.append(separator).append(quote(count.getKey())).append(':').append(count.getValue());
+            separator = ",";
+        }
+    }
+
+    private static void family(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String value,
+                               String label2, String value2, double sample) {
+        out.append(name).append('{').append(label).append("=\"").append(escapeLabel(value)).append('"');
+        if (label2 != null) {
+            out.append(',').append(label2).append("=\"").append(escapeLabel(value2)).append('"');
+        }
+        out.append("} ").append(number(sample)).append('\n');
+    }
+
+    private static String number(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+                ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
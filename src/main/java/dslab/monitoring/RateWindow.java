@@ -0,0 +1,83 @@
+package dslab.monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Event counts of the last minute (per second) and the last 15 minutes (per minute) in ring buffers. A bucket is
+ * recycled as soon as its slot is needed for a newer second or minute, so the memory of a window is fixed.
+ *
+ * Lock-free like the counters of {@link MonitorData}: a bucket is one long holding the second or minute it counts
+ * (upper 32 bits) and its count (lower 32 bits), updated with compare-and-set, so recycling a bucket and counting in
+ * it cannot lose an event. Readers never block the receivers.
+ */
+class RateWindow {
+    static final int SECONDS = 60;
+    static final int MINUTES = 15;
+
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+
+    //stamp and count per bucket, stamps are the second or minute since the epoch (modulo 2^32)
+    private final AtomicLongArray seconds = new AtomicLongArray(SECONDS);
+    private final AtomicLongArray minutes = new AtomicLongArray(MINUTES);
+    private volatile long lastAdd;
+
+    void add(long now) {
+        long second = now / 1000;
+        increment(seconds, (int) (second % SECONDS), second);
+        long minute = second / 60;
+        increment(minutes, (int) (minute % MINUTES), minute);
+
+        //concurrent adds may store a slightly older time, which only matters for eviction after 15 idle minutes
+        lastAdd = now;
+    }
+
+    private static void increment(AtomicLongArray buckets, int index, long stamp) {
+        long stamped = (stamp & COUNT_MASK) << 32;
+        while (true) {
+            long bucket = buckets.get(index);
+            //a bucket of another second or minute is stale and starts over
+            long next = (bucket & ~COUNT_MASK) == stamped ? bucket + 1 : stamped | 1;
+            if (buckets.compareAndSet(index, bucket, next)) {
+                return;
+            }
+        }
+    }
+
+    long lastAdd() {
+        return lastAdd;
+    }
+
+    /**
+     * Returns the average number of events per second over the last n minutes (like a load average, the time before
+     * the first event counts as idle).
+     *
+     * @param n the number of minutes, 1 to {@link #MINUTES}
+     * @param now the current time in milliseconds
+     * @return events per second
+     */
+    double rate(int n, long now) {
+        long second = now / 1000;
+
+        //the last minute is summed per second, so it slides smoothly
+        if (n == 1) {
+            return sum(seconds, second, SECONDS) / (double) SECONDS;
+        }
+
+        //n-1 full minutes plus the current one so far
+        long count = sum(minutes, second / 60, n);
+        return count / (double) ((n - 1) * 60 + second % 60 + 1);
+    }
+
+    //the counts of the buckets stamped within (current - n, current]
+    private static long sum(AtomicLongArray buckets, long current, int n) {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            long bucket = buckets.get(i);
+            long age = (current - (bucket >>> 32)) & COUNT_MASK;
+            if (age < n) {
+                count += bucket & COUNT_MASK;
+            }
+        }
+        return count;
+    }
+}
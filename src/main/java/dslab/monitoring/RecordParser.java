@@ -0,0 +1,233 @@
+package dslab.monitoring;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+import dslab.util.LogHistogram;
+
+/**
+ * Parses monitoring records "ip:port address" directly from the received bytes. Accepts exactly the records matching
+ * {@code (\d+\.){3}\d+:\d+ .*@.*} (as decoded with the default charset, like the former String based parsing) and
+ * yields the same parts as {@code split(" ")}: the server before the first space and the address up to the next
+ * space. A third part of only digits is the sequence number of the sender (see {@link LossTracker}), older transfer
+ * servers do not send one. Records with non-ASCII bytes, whose meaning depends on the charset, are checked with the pattern itself.
+ * Histogram records "H ip:port metric histogram [seq]" are parsed by {@link #parseHistogram(ByteBuffer, int)}.
+ * The bytes are read with absolute gets, so the receive buffer may be direct; only the parts handed out as strings are
+ * copied. One parser is used per receiver thread.
+ */
+class RecordParser {
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final Pattern RECORD = Pattern.compile("(\\d+\\.){3}\\d+:\\d+ .*@.*");
+
+    private ByteBuffer data;
+    private int serverEnd;
+    private int addressEnd;
+    private long sequence;
+    //set if the record was parsed as string
+    private String decodedServer;
+    private String decodedAddress;
+    //of a histogram record
+    private String metric;
+    private LogHistogram histogram;
+
+    //the server of the previous record, servers repeat so their strings are reused
+    private byte[] lastServer = new byte[0];
+    private String lastServerString;
+
+    boolean parse(byte[] data, int length) {
+        return parse(ByteBuffer.wrap(data), length);
+    }
+
+    /**
+     * Validates the record in data[0..length).
+     *
+     * @param data the received bytes, from index 0 regardless of the position
+     * @param length the number of bytes received
+     * @return true if the record is valid, the parts can then be read with {@link #server()} and {@link #address()}
+     */
+    boolean parse(ByteBuffer data, int length) {
+        this.data = data;
+        decodedServer = null;
+        sequence = -1;
+
+        //(\d+\.){3}\d+:\d+
+        int i = 0;
+        for (int group = 0; group < 5; group++) {
+            int start = i;
+            while (i < length && isDigit(data.get(i))) {
+                i++;
+            }
+            if (i == start || i == length) {
+                return false;
+            }
+            byte separator = group < 3 ? (byte) '.' : group == 3 ? (byte) ':' : (byte) ' ';
+            if (data.get(i) != separator) {
+                return false;
+            }
+            i++;
+        }
+        serverEnd = i - 1;
+
+        //.*@.* - no line terminators, at least one @
+        boolean at = false;
+        addressEnd = -1;
+        for (; i < length; i++) {
+            byte b = data.get(i);
+            if (b < 0) {
+                return parseDecoded(data, length);
+            }
+            if (b == '\n' || b == '\r') {
+                return false;
+            }
+            if (b == '@') {
+                at = true;
+            } else if (b == ' ' && addressEnd < 0) {
+                addressEnd = i;
+            }
+        }
+        if (addressEnd < 0) {
+            addressEnd = length;
+        }
+        if (at) {
+            sequence = parseSequence(data, addressEnd, length);
+        }
+        return at;
+    }
+
+    //a third part of only digits is the sender's sequence number
+    private static long parseSequence(ByteBuffer data, int addressEnd, int length) {
+        if (addressEnd + 1 >= length || length - addressEnd - 1 > 18) {
+            return -1;
+        }
+        long sequence = 0;
+        for (int i = addressEnd + 1; i < length; i++) {
+            if (!isDigit(data.get(i))) {
+                return -1;
+            }
+            sequence = sequence * 10 + (data.get(i) - '0');
+        }
+        return sequence;
+    }
+
+    private boolean parseDecoded(ByteBuffer data, int length) {
+        String record = string(data, 0, length);
+        if (!RECORD.matcher(record).matches()) {
+            return false;
+        }
+        String[] parts = record.split(" ");
+        decodedServer = parts[0];
+        decodedAddress = parts[1];
+        if (parts.length == 3 && parts[2].matches("\\d{1,18}") && !record.endsWith(" ")) {
+            sequence = Long.parseLong(parts[2]);
+        }
+        return true;
+    }
+
+    boolean parseHistogram(byte[] data, int length) {
+        return parseHistogram(ByteBuffer.wrap(data), length);
+    }
+
+    /**
+     * Validates the histogram record "H ip:port metric histogram [seq]" in data[0..length), where histogram is
+     * encoded by {@link LogHistogram#encode()}.
+     *
+     * @param data the received bytes, from index 0 regardless of the position
+     * @param length the number of bytes received
+     * @return true if the record has the parts of a histogram record, they can then be read with {@link #server()},
+     * {@link #metric()}, {@link #histogram()} and {@link #sequence()}
+     * @throws IllegalArgumentException if the histogram cannot be decoded
+     */
+    boolean parseHistogram(ByteBuffer data, int length) {
+        this.data = data;
+        sequence = -1;
+        if (length < 2 || data.get(0) != 'H' || data.get(1) != ' ') {
+            return false;
+        }
+
+        //start of the parts and the end of the record: server metric histogram [seq]
+        int[] starts = new int[4];
+        int parts = 0;
+        int start = 2;
+        for (int i = 2; i <= length; i++) {
+            if (i == length || data.get(i) == ' ') {
+                if (i == start || parts == starts.length) {
+                    return false;
+                }
+                starts[parts++] = start;
+                start = i + 1;
+            }
+        }
+        if (parts < 3) {
+            return false;
+        }
+
+        decodedServer = string(data, starts[0], starts[1] - 1);
+        metric = string(data, starts[1], starts[2] - 1);
+        int histogramEnd = parts == 4 ? starts[3] - 1 : length;
+        histogram = LogHistogram.decode(data, starts[2], histogramEnd - starts[2]);
+        if (parts == 4) {
+            sequence = parseSequence(data, histogramEnd, length);
+        }
+        return true;
+    }
+
+    String metric() {
+        return metric;
+    }
+
+    LogHistogram histogram() {
+        return histogram;
+    }
+
+    String server() {
+        if (decodedServer != null) {
+            return decodedServer;
+        }
+        int length = serverEnd;
+        if (length != lastServer.length || !regionEquals(lastServer, data, length)) {
+            lastServer = new byte[length];
+            for (int i = 0; i < length; i++) {
+                lastServer[i] = data.get(i);
+            }
+            lastServerString = new String(lastServer, CHARSET);
+        }
+        return lastServerString;
+    }
+
+    String address() {
+        if (decodedServer != null) {
+            return decodedAddress;
+        }
+        return string(data, serverEnd + 1, addressEnd);
+    }
+
+    /**
+     * @return the sequence number of the record ("ip:port address seq" or a histogram record), -1 if it has none
+     */
+    long sequence() {
+        return sequence;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    //the bytes data[from..to) decoded, the only copy of them
+    private static String string(ByteBuffer data, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(from + i);
+        }
+        return new String(bytes, CHARSET);
+    }
+
+    private static boolean regionEquals(byte[] a, ByteBuffer b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+package dslab.monitoring;
+
+import java.util.*;
+
+import dslab.util.HyperLogLog;
+
+/**
+ * Monitor data split into shards, one per receiving socket, so receivers on different sockets never touch the same
+ * counters. Queries merge the shards.
+ */
+class ShardedMonitorData {
+    private final MonitorData[] shards;
+
+    /**
+     * @param shards the number of shards
+     * @param topK the number of addresses to count per shard, 0 to count all addresses exactly
+     */
+    ShardedMonitorData(int shards, int topK) {
+        this.shards = new MonitorData[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = topK > 0 ? new MonitorData(topK) : new MonitorData();
+        }
+    }
+
+    MonitorData shard(int index) {
+        return shards[index];
+    }
+
+    void evictIdle() {
+        for (MonitorData shard : shards) {
+            shard.evictIdle();
+        }
+    }
+
+    String[] getAddresses() {
+        if (shards.length == 1) {
+            return shards[0].getAddresses();
+        }
+        if (shards[0].topAddresses() != null) {
+            List<SpaceSaving> sketches = new ArrayList<>(shards.length);
+            for (MonitorData shard : shards) {
+                sketches.add(shard.topAddresses());
+            }
+            return SpaceSaving.top(sketches);
+        }
+        return MonitorData.format(addressCounts());
+    }
+
+    String[] getServers() {
+        if (shards.length == 1) {
+            return shards[0].getServers();
+        }
+        return MonitorData.format(serverCounts());
+    }
+
+    /**
+     * @return the merged count per address, in top-k mode the counts of the top addresses
+     */
+    Map<String, Long> addressCounts() {
+        if (shards[0].topAddresses() != null) {
+            List<SpaceSaving> sketches = new ArrayList<>(shards.length);
+            for (MonitorData shard : shards) {
+                sketches.add(shard.topAddresses());
+            }
+            return SpaceSaving.counts(sketches);
+        }
+        Map<String, Long> counts = new HashMap<>();
+        for (MonitorData shard : shards) {
+            shard.addressCounts().forEach((key, count) -> counts.merge(key, count, Long::sum));
+        }
+        return counts;
+    }
+
+    /**
+     * @return the merged count per server
+     */
+    Map<String, Long> serverCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (MonitorData shard : shards) {
+            shard.serverCounts().forEach((key, count) -> counts.merge(key, count, Long::sum));
+        }
+        return counts;
+    }
+
+    String[] getServerRates() {
+        return MonitorData.formatRates(serverRates());
+    }
+
+    /**
+     * @return the merged rates per server, see {@link MonitorData#RATE_MINUTES}
+     */
+    Map<String, double[]> serverRates() {
+        long now = System.currentTimeMillis();
+        Map<String, double[]> rates = new HashMap<>();
+        for (MonitorData shard : shards) {
+            shard.serverRates(now).forEach((key, rate) -> rates.merge(key, rate, ShardedMonitorData::sum));
+        }
+        return rates;
+    }
+
+    String[] getAddressRates() {
+        long now = System.currentTimeMillis();
+        Map<String, double[]> rates = new HashMap<>();
+        for (MonitorData shard : shards) {
+            shard.addressRates(now).forEach((key, rate) -> rates.merge(key, rate, ShardedMonitorData::sum));
+        }
+        return MonitorData.formatRates(rates);
+    }
+
+    /**
+     * @return per server the merged sender sketches of the last 24 hours, by hour
+     */
+    SortedMap<String, SortedMap<Long, HyperLogLog>> serverSenders() {
+        long now = System.currentTimeMillis();
+        SortedMap<String, SortedMap<Long, HyperLogLog>> senders = new TreeMap<>();
+        for (MonitorData shard : shards) {
+            for (Map.Entry<String, SortedMap<Long, HyperLogLog>> server : shard.serverSenders(now).entrySet()) {
+                SortedMap<Long, HyperLogLog> hours = senders.computeIfAbsent(server.getKey(), s -> new TreeMap<>());
+                server.getValue().forEach((hour, sketch) -> hours.merge(hour, sketch, (a, b) -> {
+                    a.merge(b);
+                    return a;
+                }));
+            }
+        }
+        return senders;
+    }
+
+    /**
+     * Returns a line "server hour=n day=n" per server with the estimated distinct senders in the current hour and in
+     * the last 24 hours.
+     *
+     * @return the distinct senders per server
+     */
+    String[] getCardinalities() {
+        List<String> lines = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, SortedMap<Long, HyperLogLog>> server : serverSenders().entrySet()) {
+            long[] estimates = CardinalityWindow.estimates(server.getValue(), now);
+            lines.add(server.getKey() + " hour=" + estimates[0] + " day=" + estimates[1]);
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    private static double[] sum(double[] a, double[] b) {
+        double[] sum = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,151 @@
+package dslab.monitoring;
+
+import java.util.*;
+
+/**
+ * Approximate top-k counting in constant memory (Space-Saving, Metwally et al.). At most capacity keys are counted;
+ * a key that is not counted yet replaces the key with the smallest count and takes over that count as its error.
+ * Every key that occurred more than total/capacity times is guaranteed to be counted, and a reported count
+ * overestimates the real one by at most its error.
+ */
+class SpaceSaving {
+    private final int capacity;
+    private final Map<String, Counter> counters;
+    //counters ordered by count, the first one is replaced next
+    private final TreeSet<Counter> byCount = new TreeSet<>();
+    private long nextSequence;
+
+    SpaceSaving(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Counts an occurrence of the key.
+     *
+     * @param key the key
+     * @return the key that is no longer counted because the key took its place, or null
+     */
+    synchronized String add(String key) {
+        String replaced = null;
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            if (counters.size() < capacity) {
+                counter = new Counter(key, 0, nextSequence++);
+            } else {
+                //replace the smallest counter, its count is an upper bound for what the new key missed
+                Counter smallest = byCount.pollFirst();
+                counters.remove(smallest.key);
+                replaced = smallest.key;
+                counter = new Counter(key, smallest.count, nextSequence++);
+            }
+            counters.put(key, counter);
+        } else {
+            byCount.remove(counter);
+        }
+        counter.count++;
+        byCount.add(counter);
+        return replaced;
+    }
+
+    synchronized boolean contains(String key) {
+        return counters.containsKey(key);
+    }
+
+    /**
+     * Returns the counted keys, highest count first, as "key count (error e)" where the real count of key lies
+     * between count-e and count.
+     *
+     * @return the counted keys with count and error
+     */
+    String[] top() {
+        return top(Collections.singletonList(this));
+    }
+
+    /**
+     * Merges sketches of disjoint streams and returns their top keys like {@link #top()}. A key missing in a full
+     * sketch may have occurred there up to that sketch's smallest count, which is added to its count and error.
+     *
+     * @param sketches sketches with the same capacity
+     * @return the top keys of all streams with count and error
+     */
+    static String[] top(List<SpaceSaving> sketches) {
+        List<Map.Entry<String, long[]>> sorted = new ArrayList<>(merge(sketches).entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        int size = Math.min(sorted.size(), sketches.get(0).capacity);
+        String[] ret = new String[size];
+        for (int i = 0; i < size; i++) {
+            Map.Entry<String, long[]> entry = sorted.get(i);
+            ret[i] = entry.getKey() + " " + entry.getValue()[0] + " (error " + entry.getValue()[1] + ")";
+        }
+        return ret;
+    }
+
+    /**
+     * Merges sketches of disjoint streams like {@link #top(List)} and returns the (overestimated) counts.
+     *
+     * @param sketches sketches with the same capacity
+     * @return count per counted key
+     */
+    static Map<String, Long> counts(List<SpaceSaving> sketches) {
+        Map<String, Long> counts = new HashMap<>();
+        merge(sketches).forEach((key, counted) -> counts.put(key, counted[0]));
+        return counts;
+    }
+
+    //count and error per key in any of the sketches
+    private static Map<String, long[]> merge(List<SpaceSaving> sketches) {
+        Map<String, long[]> merged = new HashMap<>();
+        long[] minimums = new long[sketches.size()];
+        List<Map<String, long[]>> snapshots = new ArrayList<>(sketches.size());
+        for (int i = 0; i < sketches.size(); i++) {
+            SpaceSaving sketch = sketches.get(i);
+            Map<String, long[]> snapshot = new HashMap<>();
+            synchronized (sketch) {
+                for (Counter counter : sketch.byCount) {
+                    snapshot.put(counter.key, new long[]{counter.count, counter.error});
+                }
+                minimums[i] = sketch.counters.size() < sketch.capacity || sketch.byCount.isEmpty()
+                        ? 0 : sketch.byCount.first().count;
+            }
+            snapshots.add(snapshot);
+            for (String key : snapshot.keySet()) {
+                merged.put(key, new long[2]);
+            }
+        }
+
+        for (Map.Entry<String, long[]> entry : merged.entrySet()) {
+            long[] total = entry.getValue();
+            for (int i = 0; i < snapshots.size(); i++) {
+                long[] counted = snapshots.get(i).get(entry.getKey());
+                total[0] += counted != null ? counted[0] : minimums[i];
+                total[1] += counted != null ? counted[1] : minimums[i];
+            }
+        }
+        return merged;
+    }
+
+    private static final class Counter implements Comparable<Counter> {
+        private final String key;
+        private final long error;
+        //tie breaker, so counters with the same count are distinct in the set
+        private final long sequence;
+        private long count;
+
+        private Counter(String key, long error, long sequence) {
+            this.key = key;
+            this.error = error;
+            this.sequence = sequence;
+            this.count = error;
+        }
+
+        @Override
+        public int compareTo(Counter o) {
+            int c = Long.compare(count, o.count);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+}
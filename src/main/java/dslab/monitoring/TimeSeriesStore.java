@@ -0,0 +1,380 @@
+package dslab.monitoring;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Stores the mail counts per key (server or address) over time in a directory. Counts are stored per minute in one
+ * file per day (deleted after the retention) and per hour in a single file (blocks older than the hour retention are
+ * dropped daily). Keys are numbered in a dictionary file, so every record is a block of varints: the time as delta to
+ * the previous block, the number of entries, and key number and count per entry. A block that was only partially
+ * written (crash while appending) is cut off when the file is opened again.
+ *
+ * The dictionary lists "number key" per line. Once a day, after the expired counts are dropped, it is rewritten with
+ * only the keys still used by a file, so it does not grow with every key ever seen. Numbers are never reused.
+ */
+class TimeSeriesStore {
+    private static final String KEYS_FILE = "keys.txt";
+    private static final String HOURS_FILE = "hours.ts";
+    private static final String MINUTES_PREFIX = "minutes-";
+    private static final String SUFFIX = ".ts";
+    private static final long MINUTES_PER_DAY = 24 * 60;
+
+    private final Path dir;
+    private final int retentionDays;
+    private final int hoursRetentionDays;
+
+    private final Map<String, Integer> keyIds = new HashMap<>();
+    private int nextId;
+    private Writer keyWriter;
+
+    private Series hours;
+    private Series minutes;
+    private long minutesDay = -1;
+
+    /**
+     * @param dir the directory to store the files in
+     * @param retentionDays the number of days to keep the per-minute counts
+     * @param hoursRetentionDays the number of days to keep the per-hour counts
+     * @throws IOException if the directory or the key dictionary could not be opened
+     */
+    TimeSeriesStore(File dir, int retentionDays, int hoursRetentionDays) throws IOException {
+        this.dir = dir.toPath();
+        this.retentionDays = retentionDays;
+        this.hoursRetentionDays = hoursRetentionDays;
+        Files.createDirectories(this.dir);
+
+        Path keysFile = this.dir.resolve(KEYS_FILE);
+        if (Files.exists(keysFile)) {
+            for (String line : Files.readAllLines(keysFile, StandardCharsets.UTF_8)) {
+                int space = line.indexOf(' ');
+                //a line cut off by a crash was not used by any block yet
+                if (space > 0) {
+                    int id = Integer.parseInt(line.substring(0, space));
+                    keyIds.put(line.substring(space + 1), id);
+                    nextId = Math.max(nextId, id + 1);
+                }
+            }
+        }
+        keyWriter = openKeys(keysFile);
+        hours = new Series(this.dir.resolve(HOURS_FILE));
+    }
+
+    private static Writer openKeys(Path keysFile) throws IOException {
+        return Files.newBufferedWriter(keysFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Appends the counts of one minute.
+     *
+     * @param minute the minute (since the epoch)
+     * @param counts count per key
+     * @throws IOException if writing failed
+     */
+    synchronized void appendMinute(long minute, Map<String, Long> counts) throws IOException {
+        long day = minute / MINUTES_PER_DAY;
+        if (day != minutesDay) {
+            if (minutes != null) {
+                minutes.close();
+            }
+            deleteExpired(day);
+            dropExpiredHours(day);
+            pruneKeys();
+            minutes = new Series(minutesFile(day));
+            minutesDay = day;
+        }
+        minutes.append(minute, ids(counts));
+    }
+
+    /**
+     * Appends the counts of one hour.
+     *
+     * @param hour the hour (since the epoch)
+     * @param counts count per key
+     * @throws IOException if writing failed
+     */
+    synchronized void appendHour(long hour, Map<String, Long> counts) throws IOException {
+        hours.append(hour, ids(counts));
+    }
+
+    /**
+     * Returns the counts of key per minute in [from, to).
+     *
+     * @param key the server or address
+     * @param from the first minute (since the epoch)
+     * @param to the minute after the last one
+     * @return count per minute, minutes without mails are missing
+     * @throws IOException if reading failed
+     */
+    synchronized SortedMap<Long, Long> queryMinutes(String key, long from, long to) throws IOException {
+        SortedMap<Long, Long> result = new TreeMap<>();
+        Integer id = keyIds.get(key);
+        if (id == null) {
+            return result;
+        }
+        for (long day = from / MINUTES_PER_DAY; day <= (to - 1) / MINUTES_PER_DAY; day++) {
+            Series.read(minutesFile(day), id, from, to, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the counts of key per hour in [from, to), like {@link #queryMinutes(String, long, long)}.
+     */
+    synchronized SortedMap<Long, Long> queryHours(String key, long from, long to) throws IOException {
+        SortedMap<Long, Long> result = new TreeMap<>();
+        Integer id = keyIds.get(key);
+        if (id != null) {
+            Series.read(dir.resolve(HOURS_FILE), id, from, to, result);
+        }
+        return result;
+    }
+
+    synchronized void close() throws IOException {
+        keyWriter.close();
+        hours.close();
+        if (minutes != null) {
+            minutes.close();
+        }
+    }
+
+    private Path minutesFile(long day) {
+        return dir.resolve(MINUTES_PREFIX + day + SUFFIX);
+    }
+
+    private void deleteExpired(long today) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, MINUTES_PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long day = Long.parseLong(name.substring(MINUTES_PREFIX.length(), name.length() - SUFFIX.length()));
+                    if (day <= today - retentionDays) {
+                        Files.delete(file);
+                    }
+                } catch (NumberFormatException e) {
+                    //not ours
+                }
+            }
+        }
+    }
+
+    //rewrites the hours file without the hours before the retention, if there are any
+    private void dropExpiredHours(long today) throws IOException {
+        long firstHour = (today - hoursRetentionDays + 1) * 24;
+        Path file = dir.resolve(HOURS_FILE);
+        boolean[] expired = new boolean[1];
+        Series.read(file, (time, counts) -> expired[0] |= time < firstHour);
+        if (!expired[0]) {
+            return;
+        }
+
+        hours.close();
+        Path tmp = file.resolveSibling(HOURS_FILE + ".tmp");
+        Files.deleteIfExists(tmp);
+        Series kept = new Series(tmp);
+        try {
+            Series.read(file, (time, counts) -> {
+                if (time >= firstHour) {
+                    kept.append(time, counts);
+                }
+            });
+        } finally {
+            kept.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        hours = new Series(file);
+    }
+
+    //rewrites the dictionary with only the keys used by the remaining files
+    private void pruneKeys() throws IOException {
+        Set<Integer> used = new HashSet<>();
+        Series.BlockVisitor collect = (time, counts) -> used.addAll(counts.keySet());
+        Series.read(dir.resolve(HOURS_FILE), collect);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, MINUTES_PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                Series.read(file, collect);
+            }
+        }
+        if (used.containsAll(keyIds.values())) {
+            return;
+        }
+
+        keyWriter.close();
+        keyIds.values().retainAll(used);
+        Path keysFile = dir.resolve(KEYS_FILE);
+        Path tmp = keysFile.resolveSibling(KEYS_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Integer> key : keyIds.entrySet()) {
+                writeKey(writer, key.getValue(), key.getKey());
+            }
+        }
+        Files.move(tmp, keysFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        keyWriter = openKeys(keysFile);
+    }
+
+    private static void writeKey(Writer writer, int id, String key) throws IOException {
+        writer.write(Integer.toString(id));
+        writer.write(' ');
+        writer.write(key);
+        writer.write('\n');
+    }
+
+    private Map<Integer, Long> ids(Map<String, Long> counts) throws IOException {
+        Map<Integer, Long> ids = new HashMap<>(counts.size() * 2);
+        boolean added = false;
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            Integer id = keyIds.get(count.getKey());
+            if (id == null) {
+                id = nextId++;
+                keyIds.put(count.getKey(), id);
+                writeKey(keyWriter, id, count.getKey());
+                added = true;
+            }
+            ids.put(id, count.getValue());
+        }
+        //the dictionary must be on disk before the blocks using it
+        if (added) {
+            keyWriter.flush();
+        }
+        return ids;
+    }
+
+    /**
+     * One file of blocks. The first block written after opening stores its time absolute, the following ones as delta.
+     */
+    private static class Series {
+        private final OutputStream out;
+        private long last = -1;
+
+        Series(Path file) throws IOException {
+            //cut off a partially written block, blocks appended after it could not be read
+            if (Files.exists(file)) {
+                long complete = read(file, (time, counts) -> { });
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(complete);
+                }
+            }
+            out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+        }
+
+        void append(long time, Map<Integer, Long> counts) throws IOException {
+            //lowest bit: 1 absolute, 0 delta
+            writeVarint(out, last < 0 || time < last ? time << 1 | 1 : (time - last) << 1);
+            last = time;
+            writeVarint(out, counts.size());
+            for (Map.Entry<Integer, Long> count : counts.entrySet()) {
+                writeVarint(out, count.getKey());
+                writeVarint(out, count.getValue());
+            }
+            out.flush();
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+
+        /**
+         * Adds the counts of key id in [from, to) to result.
+         */
+        static void read(Path file, int id, long from, long to, SortedMap<Long, Long> result) throws IOException {
+            read(file, (time, counts) -> {
+                Long count = counts.get(id);
+                if (count != null && time >= from && time < to) {
+                    result.merge(time, count, Long::sum);
+                }
+            });
+        }
+
+        interface BlockVisitor {
+            void visit(long time, Map<Integer, Long> counts) throws IOException;
+        }
+
+        /**
+         * Passes every complete block to the visitor.
+         *
+         * @return the length of the complete blocks
+         */
+        static long read(Path file, BlockVisitor visitor) throws IOException {
+            if (!Files.exists(file)) {
+                return 0;
+            }
+            try (CountingInputStream in = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                long time = 0;
+                long complete = 0;
+                while (true) {
+                    long stamp = readVarint(in);
+                    if (stamp < 0) {
+                        break;
+                    }
+                    time = (stamp & 1) == 1 ? stamp >>> 1 : time + (stamp >>> 1);
+                    long entries = readVarint(in);
+                    boolean blockComplete = entries >= 0;
+                    Map<Integer, Long> counts = new HashMap<>();
+                    for (long i = 0; blockComplete && i < entries; i++) {
+                        long key = readVarint(in);
+                        long count = key < 0 ? -1 : readVarint(in);
+                        blockComplete = count >= 0;
+                        if (blockComplete) {
+                            counts.put((int) key, count);
+                        }
+                    }
+                    if (!blockComplete) {
+                        break;
+                    }
+                    complete = in.count;
+                    visitor.visit(time, counts);
+                }
+                return complete;
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    //returns -1 at the end of the stream
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                return -1;
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+}
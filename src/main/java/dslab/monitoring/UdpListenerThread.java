@@ -2,68 +2,124 @@ package dslab.monitoring;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-import java.util.Arrays;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+
+import dslab.util.Log;
+import dslab.util.MetricsRegistry;
 
 public class UdpListenerThread extends Thread {
-    private final DatagramSocket datagramSocket;
+    //larger than any UDP payload, so no record is truncated
+    private static final int BUFFER_SIZE = 65536;
+
+    private final DatagramChannel channel;
     private final MonitorData monitorData;
+    private final HistogramData histogramData;
+    private final IngestStats stats;
+    private final LossTracker lossTracker;
+    private final MetricsRegistry.Counter bytesIn;
+    private final MetricsRegistry.Counter mailRecords;
+    private final MetricsRegistry.Counter histogramRecords;
     
-    UdpListenerThread(DatagramSocket datagramSocket, MonitorData monitorData){
-        this.datagramSocket = datagramSocket;
+    UdpListenerThread(DatagramChannel channel, MonitorData monitorData, HistogramData histogramData, IngestStats stats,
+                      LossTracker lossTracker, MetricsRegistry metrics){
+        this.channel = channel;
         this.monitorData = monitorData;
+        this.histogramData = histogramData;
+        this.stats = stats;
+        this.lossTracker = lossTracker;
+        this.bytesIn = metrics.counter("udp.bytes.in");
+        this.mailRecords = metrics.counter("udp.records.mail");
+        this.histogramRecords = metrics.counter("udp.records.histogram");
     }
     
     @Override
     public void run() {
-        byte[] buffer;
-        DatagramPacket packet;
+        //the direct buffer is reused for every packet: the channel receives straight into it (a heap buffer would be
+        //filled through a temporary direct buffer and copied again), the parser reads it with absolute gets
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        RecordParser parser = new RecordParser();
         try {
             while (!Thread.interrupted()) {
-                buffer = new byte[1024];
-                
-                // create a datagram packet of specified length (buffer.length)
                 /*
                  * Keep in mind that, in UDP, packet delivery is not guaranteed,
                  * and the order of the delivery/processing is also not guaranteed.
                  */
-                packet = new DatagramPacket(buffer, buffer.length);
+                buffer.clear();
+                SocketAddress source = channel.receive(buffer);
+                int length = buffer.position();
+                stats.received();
+                bytesIn.add(length);
 
-                // wait for incoming packets from client
-                datagramSocket.receive(packet);
-                // get the data from the packet
-                String request = new String(packet.getData(),0, packet.getLength());
+                //histogram record: H ip:port metric histogram [seq]
+                if (length > 2 && buffer.get(0) == 'H' && buffer.get(1) == ' ') {
+                    if (!histogram(parser, source, buffer, length)) {
+                        stats.dropped();
+                    } else {
+                        histogramRecords.increment();
+                    }
+                    continue;
+                }
 
-                //System.out.println("Received request-packet from client size "+request.length()+": " + request+". test");
-                
                 // check if request has the correct format
-                if(!request.matches("(\\d+\\.){3}\\d+:\\d+ .*@.*")){
-                    System.out.println("request does not match pattern: "+request);
+                if (!parser.parse(buffer, length)) {
+                    stats.dropped();
+                    if (Log.DEBUG) {
+                        Log.debug("request does not match pattern: " + text(buffer, length));
+                    }
                     continue;
                 }
 
-                //get parts
-                String[] parts = request.split(" ");
-                //System.out.println("adding '"+parts[0]+"' with '"+parts[1]+"' adsaddsadsadsasdasdasd");
-                monitorData.add(parts[0], parts[1]);
+                monitorData.add(parser.server(), parser.address());
+                mailRecords.increment();
+                if (parser.sequence() >= 0) {
+                    lossTracker.record(source, parser.server(), parser.sequence());
+                }
             }
-        } catch (SocketException e) {
-            // when the socket is closed, the send or receive methods of the DatagramSocket will throw a SocketException
-            System.out.println("SocketException while waiting for/handling packets: " + e.getMessage());
+        } catch (ClosedChannelException e) {
+            // when the channel is closed (or this thread interrupted), receive throws a ClosedChannelException
+            Log.info("UdpListenerThread: channel closed");
         } catch (IOException e) {
-            // other exceptions should be handled correctly in your implementation
             throw new UncheckedIOException(e);
         } finally {
-            if (datagramSocket != null && !datagramSocket.isClosed()) {
-                datagramSocket.close();
+            shutdown();
+        }
+    }
+    
+    private boolean histogram(RecordParser parser, SocketAddress source, ByteBuffer data, int length) {
+        try {
+            if (!parser.parseHistogram(data, length)) {
+                Log.warn("histogram record does not match pattern: " + text(data, length));
+                return false;
             }
+        } catch (IllegalArgumentException e) {
+            Log.warn("invalid histogram from " + parser.server() + ": " + e.getMessage());
+            return false;
         }
+        histogramData.merge(parser.server(), parser.metric(), parser.histogram());
+        if (parser.sequence() >= 0) {
+            lossTracker.record(source, parser.server(), parser.sequence());
+        }
+        return true;
+    }
 
+    //the received bytes for log messages
+    private static String text(ByteBuffer data, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = data.get(i);
+        }
+        return new String(bytes, Charset.defaultCharset());
     }
-    
+
     void shutdown(){
-        datagramSocket.close();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warn("UdpListenerThread: could not close channel: " + e);
+        }
     }
 }
@@ -0,0 +1,47 @@
+package dslab.nameserver;
+
+import java.rmi.RemoteException;
+
+import dslab.cluster.LocalTransport;
+
+/**
+ * Resolves a mail domain to the address of its mailbox server by walking down the nameserver hierarchy.
+ */
+public final class DomainResolver {
+
+    private DomainResolver() {
+        // static utility class
+    }
+
+    //guards against delegation cycles
+    private static final int MAX_HOPS = 32;
+
+    /**
+     * Resolves the given domain, starting at the given nameserver. For 'earth.planet' starting at the root, the root
+     * delegates 'earth' to the nameserver of 'planet', which then answers with the address. Nameservers authoritative
+     * for a whole subtree answer without further delegation.
+     *
+     * @param start the nameserver to start at (usually the root)
+     * @param domain the mail domain, e.g. <code>earth.planet</code>
+     * @return the socket address of the mailbox server, e.g. <code>127.0.0.1:16503</code>
+     * @throws RemoteException if a nameserver on the way could not be reached
+     * @throws InvalidDomainException if the domain does not exist
+     */
+    public static String resolve(INameserverRemote start, String domain) throws RemoteException, InvalidDomainException {
+        //co-located nameservers are called directly
+        INameserverRemote server = LocalTransport.local(start);
+        String remaining = domain;
+        for (int hop = 0; hop < MAX_HOPS; ++hop) {
+            Resolution resolution = server.resolve(remaining);
+            if (resolution.getAddress() != null) {
+                return resolution.getAddress();
+            }
+            if (resolution.getNameserver() == null) {
+                break;
+            }
+            server = LocalTransport.local(resolution.getNameserver());
+            remaining = resolution.getRemaining();
+        }
+        throw new InvalidDomainException("Domain '" + domain + "' not found. ");
+    }
+}
@@ -56,4 +56,15 @@ public interface INameserverRemote extends Remote {
      */
     String lookup(String username) throws RemoteException;
 
+    /**
+     * Resolves as much of the given domain as this nameserver is responsible for, in a single call. A nameserver
+     * that is authoritative for a whole subtree answers deep domains directly; otherwise the answer names the
+     * nameserver to continue with and the part of the domain it has to resolve.
+     *
+     * @param domain the mail domain relative to this nameserver, e.g. <code>vienna.earth</code>
+     * @return the address, a delegation, or a not-found answer (never <code>null</code>)
+     * @throws RemoteException RMI exception (declaration required by RMI)
+     */
+    Resolution resolve(String domain) throws RemoteException;
+
 }
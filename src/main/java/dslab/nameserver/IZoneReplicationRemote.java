@@ -0,0 +1,37 @@
+package dslab.nameserver;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * The remote interface a primary nameserver offers to its secondaries. A secondary first fetches a full snapshot and
+ * then keeps polling for the changes made after the version of that snapshot.
+ */
+public interface IZoneReplicationRemote extends Remote {
+
+    /**
+     * Cheap call to check that a nameserver is alive.
+     *
+     * @return the current zone version of this nameserver
+     * @throws RemoteException RMI exception (declaration required by RMI)
+     */
+    long getZoneVersion() throws RemoteException;
+
+    /**
+     * @return a consistent copy of the zone data of this nameserver
+     * @throws RemoteException RMI exception (declaration required by RMI)
+     */
+    ZoneSnapshot getZoneSnapshot() throws RemoteException;
+
+    /**
+     * Returns the changes made after the given version, in order.
+     *
+     * @param version the zone version the caller already has
+     * @return the changes after the given version (possibly empty), or <code>null</code> if they are no longer
+     * available and the caller has to fetch a new snapshot
+     * @throws RemoteException RMI exception (declaration required by RMI)
+     */
+    List<ZoneChange> getZoneChanges(long version) throws RemoteException;
+
+}
@@ -0,0 +1,127 @@
+package dslab.nameserver;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encoding of the binary UDP lookup protocol. All numbers are unsigned, big endian.
+ *
+ * <pre>
+ * query:    id (2 bytes) | flags (1 byte, 0) | count (1 byte) | count x [ length (1 byte) | domain ]
+ * response: id (2 bytes) | flags (1 byte, FLAG_RESPONSE) | count (1 byte) | count x [ status (1 byte) | length (1 byte) | address ]
+ * </pre>
+ *
+ * The answers of a response are in the order of the questions of the query. Domains and addresses are UTF-8.
+ */
+public final class LookupProtocol {
+
+    public static final int MAX_QUESTIONS = 16;
+    //header and MAX_QUESTIONS answers of maximal length
+    public static final int MAX_PACKET_SIZE = 4 + MAX_QUESTIONS * (2 + 255);
+
+    public static final int FLAG_RESPONSE = 0x80;
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_NOT_FOUND = 1;
+    public static final int STATUS_SERVER_FAILURE = 2;
+
+    private LookupProtocol() {
+        // static utility class
+    }
+
+    public static void writeQuery(ByteBuffer buffer, int id, List<String> domains) {
+        if (domains.size() > MAX_QUESTIONS) {
+            throw new IllegalArgumentException("At most " + MAX_QUESTIONS + " questions per query");
+        }
+        buffer.putShort((short) id);
+        buffer.put((byte) 0);
+        buffer.put((byte) domains.size());
+        for (String domain : domains) {
+            putString(buffer, domain);
+        }
+    }
+
+    /**
+     * @return the questions of the query, or null if the packet is not a valid query
+     */
+    static List<String> readQuestions(ByteBuffer buffer) {
+        try {
+            buffer.getShort();
+            if ((buffer.get() & FLAG_RESPONSE) != 0) {
+                return null;
+            }
+            int count = buffer.get() & 0xff;
+            if (count > MAX_QUESTIONS) {
+                return null;
+            }
+            List<String> questions = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                questions.add(getString(buffer));
+            }
+            return questions;
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    static int readId(ByteBuffer buffer) {
+        return buffer.getShort(0) & 0xffff;
+    }
+
+    static void writeResponseHeader(ByteBuffer buffer, int id, int count) {
+        buffer.putShort((short) id);
+        buffer.put((byte) FLAG_RESPONSE);
+        buffer.put((byte) count);
+    }
+
+    static void writeAnswer(ByteBuffer buffer, int status, String address) {
+        buffer.put((byte) status);
+        putString(buffer, address == null ? "" : address);
+    }
+
+    /**
+     * Reads the answers of a response with the given id.
+     *
+     * @param statuses receives the status of each answer
+     * @param addresses receives the address of each answer (null if not found)
+     * @return false if the packet is not a valid response to the query with the given id
+     */
+    public static boolean readResponse(ByteBuffer buffer, int id, int[] statuses, String[] addresses) {
+        try {
+            if ((buffer.getShort() & 0xffff) != id || (buffer.get() & FLAG_RESPONSE) == 0) {
+                return false;
+            }
+            int count = buffer.get() & 0xff;
+            if (count != statuses.length) {
+                return false;
+            }
+            for (int i = 0; i < count; ++i) {
+                statuses[i] = buffer.get() & 0xff;
+                String address = getString(buffer);
+                addresses[i] = statuses[i] == STATUS_OK ? address : null;
+            }
+            return true;
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 255) {
+            throw new IllegalArgumentException("String too long for lookup protocol: " + s);
+        }
+        buffer.put((byte) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.get() & 0xff;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,7 +1,12 @@
 package dslab.nameserver;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.rmi.AlreadyBoundException;
 import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
@@ -9,23 +14,47 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 import at.ac.tuwien.dsg.orvell.Shell;
 import at.ac.tuwien.dsg.orvell.StopShellException;
 import at.ac.tuwien.dsg.orvell.annotation.Command;
 import dslab.ComponentFactory;
+import dslab.cluster.LocalTransport;
 import dslab.util.Config;
+import dslab.util.Log;
+import dslab.util.MetricsRegistry;
 
-public class Nameserver implements INameserver, INameserverRemote {
+public class Nameserver implements INameserver, INameserverRemote, IZoneReplicationRemote {
+    private static final int ZONE_LOG_CAPACITY = 1024;
+    private static final long DEFAULT_REPLICATION_INTERVAL = 1000;
+    private static final int DEFAULT_COMPACT_THRESHOLD = 1000;
+    private static final long DEFAULT_LOOKUP_CACHE_TTL = 5000;
+    //ms to wait for a registered mailbox server that a new registration of its domain would replace
+    private static final int MAILBOX_PROBE_TIMEOUT = 1000;
+
+    private final String componentId;
     private final Config config;
     private final Shell shell;
+    private final MetricsRegistry metrics;
     private Registry registry;
+    private INameserverRemote stub;
     private final boolean root;
+    //secondary nameservers replicate the zone of a primary instead of owning one
+    private final boolean replica;
+    private ZoneReplicator replicator;
+    private UdpLookupThread udpLookup;
     
-    private final ConcurrentHashMap<String, INameserverRemote> nameservers = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, String> mailboxes = new ConcurrentHashMap<>();
+    //whether this nameserver keeps deeper domains itself instead of requiring a nameserver per level
+    private final boolean subtree;
+    private final ZoneTrie zones = new ZoneTrie();
+    private final ZoneLog zoneLog = new ZoneLog(ZONE_LOG_CAPACITY);
+    private ZoneStore zoneStore;
+    //restored child nameservers, checked on first use since they may have gone away while we were down
+    private final Set<String> unverified = ConcurrentHashMap.newKeySet();
 
     /**
      * Creates a new server instance.
@@ -37,7 +66,13 @@ public class Nameserver implements INameserver, INameserverRemote {
      */
     public Nameserver(String componentId, Config config, InputStream in, PrintStream out) {
         this.root = "ns-root".equals(componentId);
+        this.replica = config.containsKey("primary_id");
+        this.subtree = config.containsKey("zone.subtree") && Boolean.parseBoolean(config.getString("zone.subtree"));
+        this.componentId = componentId;
         this.config = config;
+        this.metrics = new MetricsRegistry(componentId);
+        metrics.gauge("ns.zone.nameservers", () -> zones.nameservers().size());
+        metrics.gauge("ns.zone.mailboxes", () -> zones.mailboxes().size());
         
         //init shell
         shell = new Shell(in, out);
@@ -47,15 +82,37 @@ public class Nameserver implements INameserver, INameserverRemote {
 
     @Override
     public void run() {
-        if(root) {
-            System.out.println("root setting up registry");
+        if(!replica) {
+            restoreZone();
+        }
+
+        if(replica) {
+            Log.info("replica of '"+config.getString("primary_id")+"' setting up");
+            try {
+                registry = LocateRegistry.getRegistry(config.getString("registry.host"), config.getInt("registry.port"));
+
+                INameserverRemote remote = export();
+                registry.bind(config.getString("replica_id"), remote);
+            } catch (RemoteException e) {
+                throw new RuntimeException("Error while starting replica.", e);
+            } catch (AlreadyBoundException e) {
+                throw new RuntimeException("Error while binding replica to registry.", e);
+            }
+
+            long interval = config.containsKey("replication.interval")
+                    ? config.getInt("replication.interval") : DEFAULT_REPLICATION_INTERVAL;
+            replicator = new ZoneReplicator(this, config.getString("registry.host"), config.getInt("registry.port"),
+                    config.getString("primary_id"), interval);
+            replicator.start();
+        } else if(root) {
+            Log.info("root setting up registry");
             //only root nameserver registers
             try {
                 // create and export the registry instance on localhost at the specified port
                 registry = LocateRegistry.createRegistry(config.getInt("registry.port"));
 
                 // create a remote object of this server object
-                INameserverRemote remote = (INameserverRemote) UnicastRemoteObject.exportObject(this, 0);
+                INameserverRemote remote = export();
                 // bind the obtained remote object on specified binding name in the registry
                 registry.bind(config.getString("root_id"), remote);
             } catch (RemoteException e) {
@@ -66,7 +123,7 @@ public class Nameserver implements INameserver, INameserverRemote {
         } else {
             //register at root nameserver
             try {
-                INameserverRemote remote = (INameserverRemote) UnicastRemoteObject.exportObject(this, 0);
+                INameserverRemote remote = export();
 
                 try {
                     // obtain registry that was created by the server
@@ -84,14 +141,26 @@ public class Nameserver implements INameserver, INameserverRemote {
                 } catch (InvalidDomainException e) {
                     e.printStackTrace();
                 } catch (AlreadyRegisteredException e) {
-                    System.out.println();
                     e.printStackTrace();
                 }
             } catch (RemoteException e) {
                 e.printStackTrace();
             }
         }
+
+        //optional binary lookup protocol over UDP
+        if(config.containsKey("udp.lookup.port")) {
+            try {
+                long ttl = config.containsKey("udp.lookup.cache.ttl")
+                        ? config.getInt("udp.lookup.cache.ttl") : DEFAULT_LOOKUP_CACHE_TTL;
+                udpLookup = new UdpLookupThread(new DatagramSocket(config.getInt("udp.lookup.port")), this, ttl);
+                udpLookup.start();
+            } catch (IOException e) {
+                Log.warn("Could not start UDP lookup: "+e);
+            }
+        }
         
+        metrics.registerMBean();
         shell.run();
     }
 
@@ -99,7 +168,7 @@ public class Nameserver implements INameserver, INameserverRemote {
     @Command
     public void nameservers() {
         int i=0;
-        for(String domain : nameservers.keySet().stream().sorted().collect(Collectors.toList())) {
+        for(String domain : zones.nameservers().keySet()) {
             ++i;
             shell.out().println(i+". "+domain);
         }
@@ -109,29 +178,69 @@ public class Nameserver implements INameserver, INameserverRemote {
     @Override
     public void addresses() {
         int i=0;
-        for(String domain : mailboxes.keySet().stream().sorted().collect(Collectors.toList())) {
+        for(Map.Entry<String, String> mailbox : zones.mailboxes().entrySet()) {
             ++i;
-            shell.out().println(i+". "+domain+" "+mailboxes.get(domain));
+            shell.out().println(i+". "+mailbox.getKey()+" "+mailbox.getValue());
         }
     }
 
+    /**
+     * CLI command to report the metrics of this nameserver (requests per kind, zone size).
+     */
+    @Command
+    public void stats() {
+        for(String s : metrics.report()){
+            shell.out().println(s);
+        }
+    }
+
+    //exports this nameserver, and makes it callable directly from components in this JVM
+    private INameserverRemote export() throws RemoteException {
+        stub = (INameserverRemote) UnicastRemoteObject.exportObject(this, 0);
+        LocalTransport.bindNameserver(stub, this);
+        return stub;
+    }
+
     @Command
     @Override
     public void shutdown() {
+        metrics.unregisterMBean();
+        if(stub!=null) {
+            LocalTransport.unbindNameserver(stub);
+        }
         try {
             // unexport the previously exported remote object
             UnicastRemoteObject.unexportObject(this, true);
         } catch (NoSuchObjectException e) {
-            System.err.println("Error while unexporting object: " + e.getMessage());
+            Log.warn("Error while unexporting object: " + e.getMessage());
         }
         
-        if(root) {
+        if(udpLookup!=null) {
+            udpLookup.shutdown();
+        }
+
+        if(zoneStore!=null) {
+            try {
+                zoneStore.close();
+            } catch (IOException e) {
+                Log.warn("Error while closing zone store: " + e.getMessage());
+            }
+        }
+
+        if(replica) {
+            replicator.shutdown();
+            try {
+                registry.unbind(config.getString("replica_id"));
+            } catch (Exception e) {
+                Log.warn("Error while unbinding object: " + e.getMessage());
+            }
+        } else if(root) {
             try {
                 // unbind the remote object so that a client can't find it anymore
                 registry.unbind(config.getString("root_id"));
                 UnicastRemoteObject.unexportObject(registry,true);
             } catch (Exception e) {
-                System.err.println("Error while unbinding object: " + e.getMessage());
+                Log.warn("Error while unbinding object: " + e.getMessage());
             }
         }
         
@@ -145,65 +254,243 @@ public class Nameserver implements INameserver, INameserverRemote {
         component.run();
     }
 
-    //split toSplit at last dot '.', [LAST_DOMAIN, rest of domains] - care end of string is first position
-    private String[] splistLastDomainRest(String toSplit) {
-        int index = toSplit.lastIndexOf('.');
-        if(index==-1) {
-            return new String[]{toSplit};
+    //last label of the domain, e.g. 'planet' for 'earth.planet'
+    private static String lastLabel(String domain) {
+        return domain.substring(domain.lastIndexOf('.')+1);
+    }
+
+    //nameserver responsible for the domain if it is not this one, null if this nameserver has to handle it
+    private Resolution delegationFor(String domain) throws InvalidDomainException {
+        Resolution delegation = zones.findDelegation(domain);
+        if(delegation!=null && unverified.contains(delegation.getZone())
+                && verify(delegation.getZone(), delegation.getNameserver())==null) {
+            //drops a restored nameserver that is gone, so a restarted one can take its place
+            delegation = null;
+        }
+        if(delegation==null && domain.indexOf('.')!=-1 && !subtree) {
+            throw new InvalidDomainException("Nameserver for domain '"+lastLabel(domain)+"' does not exist.");
         }
-        return new String[]{toSplit.substring(index+1), toSplit.substring(0,index)};
+        return delegation;
     }
     
     @Override
     public void registerNameserver(String domain, INameserverRemote nameserver) throws RemoteException, AlreadyRegisteredException, InvalidDomainException {
-        System.out.println("Registering Nameserver: "+domain);
-        String[] split = splistLastDomainRest(domain);
+        Log.info("Registering Nameserver: "+domain);
+        metrics.counter("ns.register.nameserver").increment();
+        if(replica) {
+            primary().registerNameserver(domain, nameserver);
+            return;
+        }
 
-        INameserverRemote next = nameservers.get(split[0]);
-        if(split.length>1) {
+        Resolution delegation = delegationFor(domain);
+        if(delegation!=null) {
             //go further
-            if(next==null) {
-                throw new InvalidDomainException("Nameserver for domain '"+split[0]+"' does not exist.");
-            }
-            next.registerNameserver(split[1], nameserver);
-        } else {
-            //save in this nameservers
-            if(next!=null) {
-                throw new AlreadyRegisteredException("Nameserver for domain '"+split[0]+"' already exists.");
+            delegation.getNameserver().registerNameserver(delegation.getRemaining(), nameserver);
+            return;
+        }
+
+        //a restarted nameserver may take the place of its dead predecessor
+        INameserverRemote existing = zones.getNameserver(domain);
+        if(existing!=null) {
+            verify(domain, existing);
+        }
+        //save in this nameservers
+        synchronized (zoneLog) {
+            if(zones.getNameserver(domain)!=null) {
+                throw new AlreadyRegisteredException("Nameserver for domain '"+domain+"' already exists.");
             }
-            nameservers.put(split[0], nameserver);
+            zones.putNameserver(domain, nameserver);
+            persist(zoneLog.appendNameserver(domain, nameserver));
         }
     }
 
     @Override
     public void registerMailboxServer(String domain, String address) throws RemoteException, AlreadyRegisteredException, InvalidDomainException {
-        System.out.println("Registering Mailbox: "+domain);
-        String[] split = splistLastDomainRest(domain);
+        Log.info("Registering Mailbox: "+domain);
+        metrics.counter("ns.register.mailbox").increment();
+        if(replica) {
+            primary().registerMailboxServer(domain, address);
+            return;
+        }
 
-        if(split.length>1) {
+        Resolution delegation = delegationFor(domain);
+        if(delegation!=null) {
             //go further
-            INameserverRemote next = nameservers.get(split[0]);
-            if(next==null) {
-                throw new InvalidDomainException("Registering Mailbox: Nameserver for domain '"+split[0]+"' does not exist.");
+            Log.info("Registering Mailbox next: "+delegation.getRemaining());
+            delegation.getNameserver().registerMailboxServer(delegation.getRemaining(), address);
+            return;
+        }
+
+        //a mailbox server restarted on another address may take the place of its unreachable predecessor
+        String existing = zones.getMailbox(domain);
+        boolean replace = existing!=null && !address.equals(existing) && !reachable(existing);
+        //save in this nameservers
+        synchronized (zoneLog) {
+            String current = zones.getMailbox(domain);
+            if(address.equals(current)) {
+                //restarted mailbox server registering again
+                return;
             }
-            System.out.println("Registering Mailbox next: "+split[1]);
-            next.registerMailboxServer(split[1], address);
-        } else {
-            //save in this nameservers
-            if(mailboxes.get(split[0])!=null) {
-                throw new AlreadyRegisteredException("Mailbox for domain '"+split[0]+"' already exists.");
+            if(current!=null) {
+                if(!replace || !current.equals(existing)) {
+                    throw new AlreadyRegisteredException("Mailbox for domain '"+domain+"' already exists.");
+                }
+                Log.warn("Mailbox for domain '"+domain+"' at "+existing+" is gone, replaced by "+address);
             }
-            mailboxes.put(split[0], address);
+            zones.putMailbox(domain, address);
+            persist(zoneLog.appendMailbox(domain, address));
         }
     }
 
     @Override
     public INameserverRemote getNameserver(String zone) {
-        return nameservers.get(zone);
+        INameserverRemote nameserver = zones.getNameserver(zone);
+        if(nameserver!=null && unverified.contains(zone)) {
+            return verify(zone, nameserver);
+        }
+        return nameserver;
+    }
+
+    @Override
+    public Resolution resolve(String domain) {
+        metrics.counter("ns.resolve").increment();
+        Resolution resolution = zones.resolve(domain);
+        if(resolution.getNameserver()!=null && unverified.contains(resolution.getZone())
+                && verify(resolution.getZone(), resolution.getNameserver())==null) {
+            return Resolution.notFound();
+        }
+        return resolution;
+    }
+
+    //returns the nameserver if it is still alive, otherwise removes it from the zone
+    private INameserverRemote verify(String zone, INameserverRemote nameserver) {
+        try {
+            ((IZoneReplicationRemote) nameserver).getZoneVersion();
+            unverified.remove(zone);
+            return nameserver;
+        } catch (RemoteException | ClassCastException e) {
+            Log.warn("Restored nameserver for zone '"+zone+"' is gone: "+e.getMessage());
+            synchronized (zoneLog) {
+                if(zones.getNameserver(zone)==nameserver) {
+                    zones.removeNameserver(zone);
+                    persist(zoneLog.appendNameserverRemoved(zone));
+                }
+                unverified.remove(zone);
+            }
+            return null;
+        }
+    }
+
+    //whether a mailbox server accepts connections at its registered address (host:port)
+    private static boolean reachable(String address) {
+        int colon = address.lastIndexOf(':');
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(address.substring(0, colon),
+                    Integer.parseInt(address.substring(colon+1))), MAILBOX_PROBE_TIMEOUT);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
     }
 
     @Override
     public String lookup(String username) {
-        return mailboxes.get(username);
+        metrics.counter("ns.lookup").increment();
+        return zones.getMailbox(username);
+    }
+
+    @Override
+    public long getZoneVersion() {
+        return zoneLog.version();
+    }
+
+    @Override
+    public ZoneSnapshot getZoneSnapshot() {
+        synchronized (zoneLog) {
+            return new ZoneSnapshot(zoneLog.version(), zones.nameservers(), zones.mailboxes());
+        }
+    }
+
+    @Override
+    public List<ZoneChange> getZoneChanges(long version) {
+        return zoneLog.since(version);
+    }
+
+    //replica: replace the whole zone with the snapshot of the primary
+    void applySnapshot(ZoneSnapshot snapshot) {
+        zones.replace(snapshot.getNameservers(), snapshot.getMailboxes());
+    }
+
+    //replica: apply a single change of the primary
+    void applyChange(ZoneChange change) {
+        switch (change.getType()) {
+            case NAMESERVER:
+                zones.putNameserver(change.getZone(), change.getNameserver());
+                break;
+            case NAMESERVER_REMOVED:
+                zones.removeNameserver(change.getZone());
+                break;
+            case MAILBOX:
+                zones.putMailbox(change.getZone(), change.getAddress());
+                break;
+        }
+    }
+
+    //load the zone from the snapshot and journal in zone.dir, if configured
+    private void restoreZone() {
+        if(!config.containsKey("zone.dir")) {
+            return;
+        }
+        int threshold = config.containsKey("zone.compact.threshold")
+                ? config.getInt("zone.compact.threshold") : DEFAULT_COMPACT_THRESHOLD;
+        //force every change to disk unless turned off for latency
+        boolean sync = !config.containsKey("zone.sync") || Boolean.parseBoolean(config.getString("zone.sync"));
+        try {
+            zoneStore = new ZoneStore(new File(config.getString("zone.dir")), componentId, threshold, sync);
+
+            long start = System.nanoTime();
+            long version = 0;
+            ZoneSnapshot snapshot = zoneStore.loadSnapshot();
+            if(snapshot!=null) {
+                applySnapshot(snapshot);
+                version = snapshot.getVersion();
+            }
+            for(ZoneChange change : zoneStore.loadJournal(version)) {
+                applyChange(change);
+                version = change.getVersion();
+            }
+            zoneLog.restore(version);
+            Set<String> restored = zones.nameservers().keySet();
+            unverified.addAll(restored);
+
+            Log.info("Restored zone at version "+version+" ("+restored.size()+" nameservers, "
+                    +zones.mailboxes().size()+" mailboxes) in "+(System.nanoTime()-start)/1000000+"ms");
+        } catch (IOException e) {
+            //starting empty would silently drop the zone and stop journaling it
+            throw new RuntimeException("Error while restoring zone from '"+config.getString("zone.dir")+"'.", e);
+        }
+    }
+
+    //journal a change, called while holding the zoneLog lock so the journal has the same order as the versions
+    private void persist(ZoneChange change) {
+        if(zoneStore==null) {
+            return;
+        }
+        try {
+            if(zoneStore.append(change)) {
+                zoneStore.compact(new ZoneSnapshot(zoneLog.version(), zones.nameservers(), zones.mailboxes()));
+            }
+        } catch (IOException e) {
+            Log.error("Could not persist zone change: "+e);
+        }
+    }
+
+    //replica: registrations are forwarded to the primary, the change comes back through replication
+    private INameserverRemote primary() throws RemoteException {
+        IZoneReplicationRemote primary = replicator.getPrimary();
+        if(primary==null) {
+            throw new RemoteException("Primary nameserver '"+config.getString("primary_id")+"' not reachable.");
+        }
+        return (INameserverRemote) primary;
     }
 }
@@ -0,0 +1,65 @@
+package dslab.nameserver;
+
+import java.io.Serializable;
+
+/**
+ * The answer of a nameserver to {@link INameserverRemote#resolve(String)}: either the address of the mailbox server,
+ * a delegation to the nameserver responsible for (part of) the domain, or nothing if the domain does not exist.
+ */
+public class Resolution implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final Resolution NOT_FOUND = new Resolution(null, null, null, null);
+
+    private final String address;
+    private final String zone;
+    private final INameserverRemote nameserver;
+    private final String remaining;
+
+    private Resolution(String address, String zone, INameserverRemote nameserver, String remaining) {
+        this.address = address;
+        this.zone = zone;
+        this.nameserver = nameserver;
+        this.remaining = remaining;
+    }
+
+    static Resolution address(String address) {
+        return new Resolution(address, null, null, null);
+    }
+
+    static Resolution delegation(String zone, INameserverRemote nameserver, String remaining) {
+        return new Resolution(null, zone, nameserver, remaining);
+    }
+
+    static Resolution notFound() {
+        return NOT_FOUND;
+    }
+
+    /**
+     * @return the address of the mailbox server, or null if this is not a final answer
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the zone (relative to the answering nameserver) the delegated nameserver is responsible for
+     */
+    public String getZone() {
+        return zone;
+    }
+
+    /**
+     * @return the nameserver to continue with, or null if this is not a delegation
+     */
+    public INameserverRemote getNameserver() {
+        return nameserver;
+    }
+
+    /**
+     * @return the part of the domain the delegated nameserver has to resolve
+     */
+    public String getRemaining() {
+        return remaining;
+    }
+}
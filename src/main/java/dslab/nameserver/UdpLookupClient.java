@@ -0,0 +1,101 @@
+package dslab.nameserver;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Client of the binary UDP lookup protocol (see {@link LookupProtocol}). Queries that are not answered within the
+ * timeout are retransmitted with the same id, doubling the timeout each time.
+ */
+public class UdpLookupClient {
+    private final InetAddress host;
+    private final int port;
+    private final int timeout;
+    private final int retries;
+
+    /**
+     * @param host the host of the nameserver serving the lookup protocol
+     * @param port the UDP port of the lookup protocol
+     * @param timeout the time (in milliseconds) to wait for the first answer
+     * @param retries how often a query is retransmitted before giving up
+     */
+    public UdpLookupClient(InetAddress host, int port, int timeout, int retries) {
+        this.host = host;
+        this.port = port;
+        this.timeout = timeout;
+        this.retries = retries;
+    }
+
+    /**
+     * Looks up a single domain.
+     *
+     * @param domain the mail domain, e.g. <code>earth.planet</code>
+     * @return the address of the mailbox server, or null if the domain does not exist
+     * @throws IOException if no answer was received or the nameserver could not resolve the domain
+     */
+    public String lookup(String domain) throws IOException {
+        return lookup(Collections.singletonList(domain))[0];
+    }
+
+    /**
+     * Looks up several domains with a single query.
+     *
+     * @param domains at most {@link LookupProtocol#MAX_QUESTIONS} mail domains
+     * @return the address for each domain, null for domains that do not exist
+     * @throws IOException if no answer was received or the nameserver could not resolve one of the domains
+     */
+    public String[] lookup(List<String> domains) throws IOException {
+        int id = ThreadLocalRandom.current().nextInt(1 << 16);
+        ByteBuffer query = ByteBuffer.allocate(LookupProtocol.MAX_PACKET_SIZE);
+        LookupProtocol.writeQuery(query, id, domains);
+
+        byte[] in = new byte[LookupProtocol.MAX_PACKET_SIZE];
+        int[] statuses = new int[domains.size()];
+        String[] addresses = new String[domains.size()];
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(host, port);
+            DatagramPacket request = new DatagramPacket(query.array(), query.position());
+            DatagramPacket response = new DatagramPacket(in, in.length);
+
+            int wait = timeout;
+            for (int attempt = 0; attempt <= retries; ++attempt) {
+                socket.send(request);
+                long deadline = System.currentTimeMillis() + wait;
+                try {
+                    //skip late answers of an earlier query that used the same port
+                    while (true) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new SocketTimeoutException();
+                        }
+                        socket.setSoTimeout((int) remaining);
+                        response.setLength(in.length);
+                        socket.receive(response);
+                        if (LookupProtocol.readResponse(ByteBuffer.wrap(in, 0, response.getLength()), id, statuses, addresses)) {
+                            break;
+                        }
+                    }
+                } catch (SocketTimeoutException e) {
+                    wait *= 2;
+                    continue;
+                }
+
+                for (int i = 0; i < statuses.length; ++i) {
+                    if (statuses[i] == LookupProtocol.STATUS_SERVER_FAILURE) {
+                        throw new IOException("Nameserver could not resolve '" + domains.get(i) + "'");
+                    }
+                }
+                return addresses;
+            }
+        }
+        throw new IOException("No answer from nameserver " + host + ":" + port + " after " + (retries + 1) + " attempts");
+    }
+}
@@ -0,0 +1,183 @@
+package dslab.nameserver;
+
+import dslab.util.Log;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers queries of the binary UDP lookup protocol (see {@link LookupProtocol}) by resolving the domains starting at
+ * the given nameserver. Answers are cached for a short time so repeated lookups don't walk the hierarchy again.
+ *
+ * Queries answered from the cache are answered by this thread. Queries with a domain that is not cached are handed to a
+ * few resolver threads, since walking the hierarchy takes RMI calls that a slow nameserver further down may block; if
+ * all of them are busy and their queue is full, the query is answered with a server failure right away.
+ */
+class UdpLookupThread extends Thread {
+    private static final int MAX_CACHE_SIZE = 10000;
+    private static final int RESOLVER_THREADS = 4;
+    private static final int RESOLVER_QUEUE = 256;
+    //answer to queries that find all resolver threads busy, the client falls back to RMI
+    private static final CachedAnswer SERVER_FAILURE = new CachedAnswer(LookupProtocol.STATUS_SERVER_FAILURE, null, 0);
+
+    private final DatagramSocket socket;
+    private final INameserverRemote nameserver;
+    private final long cacheTtl;
+    private final ConcurrentHashMap<String, CachedAnswer> cache = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor resolvers;
+
+    UdpLookupThread(DatagramSocket socket, INameserverRemote nameserver, long cacheTtl) {
+        this.socket = socket;
+        this.nameserver = nameserver;
+        this.cacheTtl = cacheTtl;
+        setDaemon(true);
+
+        AtomicInteger count = new AtomicInteger();
+        resolvers = new ThreadPoolExecutor(RESOLVER_THREADS, RESOLVER_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(RESOLVER_QUEUE), r -> {
+                    Thread thread = new Thread(r, "UdpLookupResolver-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public void run() {
+        byte[] in = new byte[LookupProtocol.MAX_PACKET_SIZE];
+        byte[] out = new byte[LookupProtocol.MAX_PACKET_SIZE];
+        DatagramPacket request = new DatagramPacket(in, in.length);
+        ByteBuffer response = ByteBuffer.wrap(out);
+
+        try {
+            while (!isInterrupted()) {
+                request.setLength(in.length);
+                socket.receive(request);
+
+                ByteBuffer query = ByteBuffer.wrap(in, 0, request.getLength());
+                List<String> questions = LookupProtocol.readQuestions(query);
+                if (questions == null) {
+                    if (Log.DEBUG) {
+                        Log.debug("UdpLookupThread: invalid query from " + request.getSocketAddress());
+                    }
+                    continue;
+                }
+
+                int id = LookupProtocol.readId(query);
+                SocketAddress client = request.getSocketAddress();
+                List<CachedAnswer> cached = cached(questions);
+                if (cached != null) {
+                    socket.send(respond(response, id, cached, client));
+                    continue;
+                }
+                try {
+                    resolvers.execute(() -> resolve(id, questions, client));
+                } catch (RejectedExecutionException e) {
+                    List<CachedAnswer> failures = new ArrayList<>();
+                    for (int i = 0; i < questions.size(); i++) {
+                        failures.add(SERVER_FAILURE);
+                    }
+                    socket.send(respond(response, id, failures, client));
+                }
+            }
+        } catch (SocketException e) {
+            // socket closed on shutdown
+        } catch (IOException e) {
+            Log.warn("UdpLookupThread IO exception: " + e);
+        } finally {
+            resolvers.shutdownNow();
+            socket.close();
+        }
+    }
+
+    //runs on a resolver thread
+    private void resolve(int id, List<String> questions, SocketAddress client) {
+        List<CachedAnswer> answers = new ArrayList<>();
+        for (String domain : questions) {
+            answers.add(answer(domain));
+        }
+        try {
+            socket.send(respond(ByteBuffer.allocate(LookupProtocol.MAX_PACKET_SIZE), id, answers, client));
+        } catch (IOException e) {
+            //socket closed on shutdown, or the client is gone
+        }
+    }
+
+    //the cached answers to all questions, null if one of them has to be resolved
+    private List<CachedAnswer> cached(List<String> questions) {
+        long now = System.currentTimeMillis();
+        List<CachedAnswer> answers = new ArrayList<>(questions.size());
+        for (String domain : questions) {
+            CachedAnswer cached = cache.get(domain);
+            if (cached == null || cached.expires <= now) {
+                return null;
+            }
+            answers.add(cached);
+        }
+        return answers;
+    }
+
+    private static DatagramPacket respond(ByteBuffer response, int id, List<CachedAnswer> answers,
+                                          SocketAddress client) {
+        response.clear();
+        LookupProtocol.writeResponseHeader(response, id, answers.size());
+        for (CachedAnswer answer : answers) {
+            LookupProtocol.writeAnswer(response, answer.status, answer.address);
+        }
+        return new DatagramPacket(response.array(), response.position(), client);
+    }
+
+    private CachedAnswer answer(String domain) {
+        long now = System.currentTimeMillis();
+        CachedAnswer cached = cache.get(domain);
+        if (cached != null && cached.expires > now) {
+            return cached;
+        }
+
+        CachedAnswer answer;
+        try {
+            answer = new CachedAnswer(LookupProtocol.STATUS_OK, DomainResolver.resolve(nameserver, domain), now + cacheTtl);
+        } catch (InvalidDomainException e) {
+            answer = new CachedAnswer(LookupProtocol.STATUS_NOT_FOUND, null, now + cacheTtl);
+        } catch (RemoteException e) {
+            //don't cache failures of nameservers further down
+            return new CachedAnswer(LookupProtocol.STATUS_SERVER_FAILURE, null, now);
+        }
+
+        if (cache.size() >= MAX_CACHE_SIZE) {
+            cache.clear();
+        }
+        cache.put(domain, answer);
+        return answer;
+    }
+
+    void shutdown() {
+        interrupt();
+        resolvers.shutdownNow();
+        socket.close();
+    }
+
+    private static class CachedAnswer {
+        private final int status;
+        private final String address;
+        private final long expires;
+
+        private CachedAnswer(int status, String address, long expires) {
+            this.status = status;
+            this.address = address;
+            this.expires = expires;
+        }
+    }
+}
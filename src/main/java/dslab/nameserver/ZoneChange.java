@@ -0,0 +1,64 @@
+package dslab.nameserver;
+
+import java.io.Serializable;
+
+/**
+ * A single modification of the zone data of a nameserver, i.e. the registration of a child nameserver or of a mailbox
+ * server. Changes are numbered with the zone version they produced, so a replica can ask for everything after the
+ * version it already has.
+ */
+public class ZoneChange implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        NAMESERVER,
+        NAMESERVER_REMOVED,
+        MAILBOX
+    }
+
+    private final long version;
+    private final Type type;
+    private final String zone;
+    private final INameserverRemote nameserver;
+    private final String address;
+
+    private ZoneChange(long version, Type type, String zone, INameserverRemote nameserver, String address) {
+        this.version = version;
+        this.type = type;
+        this.zone = zone;
+        this.nameserver = nameserver;
+        this.address = address;
+    }
+
+    static ZoneChange nameserver(long version, String zone, INameserverRemote nameserver) {
+        return new ZoneChange(version, Type.NAMESERVER, zone, nameserver, null);
+    }
+
+    static ZoneChange nameserverRemoved(long version, String zone) {
+        return new ZoneChange(version, Type.NAMESERVER_REMOVED, zone, null, null);
+    }
+
+    static ZoneChange mailbox(long version, String zone, String address) {
+        return new ZoneChange(version, Type.MAILBOX, zone, null, address);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getZone() {
+        return zone;
+    }
+
+    public INameserverRemote getNameserver() {
+        return nameserver;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+}
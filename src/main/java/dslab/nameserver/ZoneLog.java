@@ -0,0 +1,67 @@
+package dslab.nameserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the current zone version and a bounded history of the most recent changes, so secondaries that fell behind by
+ * less than the capacity can catch up without a new snapshot.
+ */
+class ZoneLog {
+    private final int capacity;
+    private final ArrayDeque<ZoneChange> changes = new ArrayDeque<>();
+    private long version = 0;
+
+    ZoneLog(int capacity) {
+        this.capacity = capacity;
+    }
+
+    synchronized long version() {
+        return version;
+    }
+
+    //continue numbering after a restored zone, the history before it is not available
+    synchronized void restore(long version) {
+        this.version = version;
+        changes.clear();
+    }
+
+    synchronized ZoneChange appendNameserver(String zone, INameserverRemote nameserver) {
+        return append(ZoneChange.nameserver(++version, zone, nameserver));
+    }
+
+    synchronized ZoneChange appendNameserverRemoved(String zone) {
+        return append(ZoneChange.nameserverRemoved(++version, zone));
+    }
+
+    synchronized ZoneChange appendMailbox(String zone, String address) {
+        return append(ZoneChange.mailbox(++version, zone, address));
+    }
+
+    private ZoneChange append(ZoneChange change) {
+        changes.addLast(change);
+        if (changes.size() > capacity) {
+            changes.removeFirst();
+        }
+        return change;
+    }
+
+    //null if the caller has to start over with a snapshot
+    synchronized List<ZoneChange> since(long from) {
+        if (from > version) {
+            //caller knows a newer version than we do (e.g. this nameserver was restarted)
+            return null;
+        }
+        if (from < version && (changes.isEmpty() || changes.peekFirst().getVersion() > from + 1)) {
+            return null;
+        }
+        List<ZoneChange> res = new ArrayList<>();
+        for (ZoneChange change : changes) {
+            if (change.getVersion() > from) {
+                res.add(change);
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,82 @@
+package dslab.nameserver;
+
+import dslab.util.Log;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.List;
+
+/**
+ * Keeps the zone data of a secondary nameserver in sync with its primary: takes a snapshot first, then polls the
+ * primary for incremental changes. Whenever the change stream cannot be continued (primary restarted, secondary fell
+ * too far behind) a new snapshot is taken.
+ */
+class ZoneReplicator extends Thread {
+    private final Nameserver replica;
+    private final String registryHost;
+    private final int registryPort;
+    private final String primaryId;
+    private final long interval;
+
+    //written by this thread only, read by the RMI threads of the nameserver
+    private volatile IZoneReplicationRemote primary;
+    private volatile long version = -1;
+
+    ZoneReplicator(Nameserver replica, String registryHost, int registryPort, String primaryId, long interval) {
+        this.replica = replica;
+        this.registryHost = registryHost;
+        this.registryPort = registryPort;
+        this.primaryId = primaryId;
+        this.interval = interval;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        while (!isInterrupted()) {
+            try {
+                if (primary == null) {
+                    Registry registry = LocateRegistry.getRegistry(registryHost, registryPort);
+                    primary = (IZoneReplicationRemote) registry.lookup(primaryId);
+                    version = -1;
+                }
+
+                List<ZoneChange> changes = version < 0 ? null : primary.getZoneChanges(version);
+                if (changes == null) {
+                    ZoneSnapshot snapshot = primary.getZoneSnapshot();
+                    replica.applySnapshot(snapshot);
+                    version = snapshot.getVersion();
+                    Log.info("ZoneReplicator: snapshot of '" + primaryId + "' at version " + version);
+                } else {
+                    for (ZoneChange change : changes) {
+                        replica.applyChange(change);
+                        version = change.getVersion();
+                    }
+                }
+            } catch (RemoteException | NotBoundException | ClassCastException e) {
+                Log.warn("ZoneReplicator: primary '" + primaryId + "' not reachable: " + e.getMessage());
+                primary = null;
+            }
+
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    IZoneReplicationRemote getPrimary() {
+        return primary;
+    }
+
+    void shutdown() {
+        interrupt();
+    }
+}
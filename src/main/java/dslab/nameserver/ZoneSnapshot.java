@@ -0,0 +1,34 @@
+package dslab.nameserver;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A consistent copy of the zone data of a nameserver at a given version.
+ */
+public class ZoneSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+    private final HashMap<String, INameserverRemote> nameservers;
+    private final HashMap<String, String> mailboxes;
+
+    ZoneSnapshot(long version, Map<String, INameserverRemote> nameservers, Map<String, String> mailboxes) {
+        this.version = version;
+        this.nameservers = new HashMap<>(nameservers);
+        this.mailboxes = new HashMap<>(mailboxes);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, INameserverRemote> getNameservers() {
+        return nameservers;
+    }
+
+    public Map<String, String> getMailboxes() {
+        return mailboxes;
+    }
+}
@@ -0,0 +1,164 @@
+package dslab.nameserver;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import dslab.util.Log;
+
+/**
+ * Persists the zone data of a nameserver in a directory: every change is appended to a journal, and once the journal
+ * gets too long it is compacted into a snapshot. On startup the snapshot is loaded and the journal is replayed on top of
+ * it. With sync, every appended change is forced to disk before it is acknowledged, so it survives a power failure.
+ */
+class ZoneStore {
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final int compactThreshold;
+    private final boolean sync;
+
+    private DataOutputStream journal;
+    //the file below journal, forced to disk after each change if sync is set
+    private FileOutputStream journalFileOut;
+    private int journalSize = 0;
+
+    ZoneStore(File dir, String componentId, int compactThreshold, boolean sync) throws IOException {
+        Files.createDirectories(dir.toPath());
+        this.snapshotFile = dir.toPath().resolve(componentId + ".snapshot");
+        this.journalFile = dir.toPath().resolve(componentId + ".journal");
+        this.compactThreshold = compactThreshold;
+        this.sync = sync;
+    }
+
+    /**
+     * Loads the stored snapshot, or <code>null</code> if there is none.
+     */
+    ZoneSnapshot loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            return (ZoneSnapshot) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Invalid zone snapshot " + snapshotFile, e);
+        }
+    }
+
+    /**
+     * Loads the journaled changes after the given version. A record that was only partially written (crash while
+     * appending) ends the journal and is cut off, so the next changes are appended right after the last good record.
+     * A record that cannot be read is corrupt: the journal is copied aside (<code>.corrupt</code>) for inspection and
+     * cut off before the record.
+     */
+    List<ZoneChange> loadJournal(long after) throws IOException {
+        List<ZoneChange> changes = new ArrayList<>();
+        if (!Files.exists(journalFile)) {
+            return changes;
+        }
+        long size = Files.size(journalFile);
+        //end of the last complete record
+        long good = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            while (good < size) {
+                if (size - good < 4) {
+                    Log.warn("Zone journal " + journalFile + " ends in a partial record at " + good + ", cut off");
+                    break;
+                }
+                int length = in.readInt();
+                if (length < 0) {
+                    corrupt(good, "invalid record length " + length);
+                    break;
+                }
+                if (length > size - good - 4) {
+                    Log.warn("Zone journal " + journalFile + " ends in a partial record at " + good + ", cut off");
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                ZoneChange change;
+                try (ObjectInputStream recordIn = new ObjectInputStream(new ByteArrayInputStream(record))) {
+                    change = (ZoneChange) recordIn.readObject();
+                } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                    corrupt(good, e.toString());
+                    break;
+                }
+                ++journalSize;
+                good += 4 + length;
+                if (change.getVersion() > after) {
+                    changes.add(change);
+                }
+            }
+        }
+        if (good < size) {
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+            }
+        }
+        return changes;
+    }
+
+    //keeps a copy of the corrupt journal, the records after the corrupt one are lost for the zone
+    private void corrupt(long offset, String reason) throws IOException {
+        Path copy = journalFile.resolveSibling(journalFile.getFileName() + ".corrupt");
+        Files.copy(journalFile, copy, StandardCopyOption.REPLACE_EXISTING);
+        Log.error("Zone journal " + journalFile + " is corrupt at " + offset + " (" + reason + "), copied to " + copy
+                + " and cut off");
+    }
+
+    /**
+     * Appends a change to the journal and, with sync, forces it to disk.
+     *
+     * @return true if the journal should be compacted now
+     */
+    boolean append(ZoneChange change) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream recordOut = new ObjectOutputStream(bytes)) {
+            recordOut.writeObject(change);
+        }
+        if (journal == null) {
+            journalFileOut = new FileOutputStream(journalFile.toFile(), true);
+            journal = new DataOutputStream(new BufferedOutputStream(journalFileOut));
+        }
+        journal.writeInt(bytes.size());
+        bytes.writeTo(journal);
+        journal.flush();
+        if (sync) {
+            journalFileOut.getChannel().force(false);
+        }
+        return ++journalSize >= compactThreshold;
+    }
+
+    /**
+     * Writes the snapshot (atomically replacing the old one) and truncates the journal.
+     */
+    void compact(ZoneSnapshot snapshot) throws IOException {
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(file))) {
+            out.writeObject(snapshot);
+            out.flush();
+            //the journal is deleted below, so the snapshot has to be on disk first
+            if (sync) {
+                file.getChannel().force(false);
+            }
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        close();
+        Files.deleteIfExists(journalFile);
+        journalSize = 0;
+    }
+
+    void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+            journalFileOut = null;
+        }
+    }
+}
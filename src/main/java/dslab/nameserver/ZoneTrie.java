@@ -0,0 +1,143 @@
+package dslab.nameserver;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The zone data of a nameserver as a trie of domain labels, starting at the rightmost label. A node can hold the
+ * nameserver a sub-zone is delegated to and the address of a mailbox server. Zones are given relative to the owning
+ * nameserver, e.g. 'earth' or, for a nameserver authoritative for a whole subtree, 'vienna.earth'.
+ *
+ * Reads are lock-free; modifications have to be serialized by the caller.
+ */
+class ZoneTrie {
+    private volatile Node root = new Node();
+
+    private static class Node {
+        private final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+        private volatile INameserverRemote nameserver;
+        private volatile String mailbox;
+    }
+
+    INameserverRemote getNameserver(String zone) {
+        Node node = find(zone);
+        return node == null ? null : node.nameserver;
+    }
+
+    String getMailbox(String zone) {
+        Node node = find(zone);
+        return node == null ? null : node.mailbox;
+    }
+
+    void putNameserver(String zone, INameserverRemote nameserver) {
+        findOrCreate(zone).nameserver = nameserver;
+    }
+
+    void removeNameserver(String zone) {
+        Node node = find(zone);
+        if (node != null) {
+            node.nameserver = null;
+        }
+    }
+
+    void putMailbox(String zone, String address) {
+        findOrCreate(zone).mailbox = address;
+    }
+
+    /**
+     * Longest-suffix match of the domain: walks down the labels until the domain is found or a nameserver is
+     * responsible for the rest of it.
+     */
+    Resolution resolve(String domain) {
+        String[] labels = domain.split("\\.");
+        Node node = root;
+        for (int i = labels.length - 1; i >= 0; --i) {
+            node = node.children.get(labels[i]);
+            if (node == null) {
+                return Resolution.notFound();
+            }
+            INameserverRemote nameserver = node.nameserver;
+            if (i > 0 && nameserver != null) {
+                return Resolution.delegation(join(labels, i, labels.length), nameserver, join(labels, 0, i));
+            }
+        }
+        String mailbox = node.mailbox;
+        return mailbox == null ? Resolution.notFound() : Resolution.address(mailbox);
+    }
+
+    /**
+     * @return the delegation responsible for the domain (excluding a delegation of the domain itself), or null if this
+     * trie is responsible for it
+     */
+    Resolution findDelegation(String domain) {
+        Resolution resolution = resolve(domain);
+        return resolution.getNameserver() == null ? null : resolution;
+    }
+
+    /**
+     * @return all delegated zones, sorted by name
+     */
+    SortedMap<String, INameserverRemote> nameservers() {
+        SortedMap<String, INameserverRemote> res = new TreeMap<>();
+        collect(root, "", res, null);
+        return res;
+    }
+
+    /**
+     * @return all mailbox servers, sorted by zone
+     */
+    SortedMap<String, String> mailboxes() {
+        SortedMap<String, String> res = new TreeMap<>();
+        collect(root, "", null, res);
+        return res;
+    }
+
+    /**
+     * Replaces the whole content, readers see either the old or the new one.
+     */
+    void replace(Map<String, INameserverRemote> nameservers, Map<String, String> mailboxes) {
+        ZoneTrie trie = new ZoneTrie();
+        nameservers.forEach(trie::putNameserver);
+        mailboxes.forEach(trie::putMailbox);
+        root = trie.root;
+    }
+
+    private void collect(Node node, String zone, Map<String, INameserverRemote> nameservers, Map<String, String> mailboxes) {
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            Node child = entry.getValue();
+            String childZone = zone.isEmpty() ? entry.getKey() : entry.getKey() + "." + zone;
+            if (nameservers != null && child.nameserver != null) {
+                nameservers.put(childZone, child.nameserver);
+            }
+            if (mailboxes != null && child.mailbox != null) {
+                mailboxes.put(childZone, child.mailbox);
+            }
+            collect(child, childZone, nameservers, mailboxes);
+        }
+    }
+
+    private Node find(String zone) {
+        String[] labels = zone.split("\\.");
+        Node node = root;
+        for (int i = labels.length - 1; i >= 0 && node != null; --i) {
+            node = node.children.get(labels[i]);
+        }
+        return node;
+    }
+
+    private Node findOrCreate(String zone) {
+        String[] labels = zone.split("\\.");
+        Node node = root;
+        for (int i = labels.length - 1; i >= 0; --i) {
+            node = node.children.computeIfAbsent(labels[i], label -> new Node());
+        }
+        return node;
+    }
+
+    private static String join(String[] labels, int from, int to) {
+        return String.join(".", Arrays.asList(labels).subList(from, to));
+    }
+}
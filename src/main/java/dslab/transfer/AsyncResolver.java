@@ -0,0 +1,148 @@
+package dslab.transfer;
+
+import dslab.cluster.LocalTransport;
+import dslab.nameserver.DomainResolver;
+import dslab.nameserver.INameserverRemote;
+import dslab.nameserver.InvalidDomainException;
+import dslab.nameserver.UdpLookupClient;
+import dslab.util.Log;
+
+import java.net.InetSocketAddress;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves mail domains without blocking the caller. Each resolution is tried at the nameserver's UDP lookup protocol
+ * (if configured), then at the root nameserver and its replicas via RMI. With the {@link LocalTransport} enabled the
+ * nameservers are asked first, since co-located ones are called directly. The next attempt is started as soon as the
+ * previous one failed, or as a hedge when it did not answer within the hedge delay; the first answer wins.
+ */
+class AsyncResolver {
+    private final MonitorInfo monitorInfo;
+    private final List<String> nameserverIds;
+    private final long timeout;
+    private final long hedgeDelay;
+
+    private final ExecutorService pool;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ConcurrentHashMap<String, INameserverRemote> nameservers = new ConcurrentHashMap<>();
+
+    /**
+     * @param monitorInfo registry and lookup protocol settings
+     * @param nameserverIds binding names of the root nameserver and its replicas, in order of preference
+     * @param threads number of threads doing the (blocking) lookups
+     * @param timeout time (ms) after which a resolution fails
+     * @param hedgeDelay time (ms) after which the next nameserver is asked if the current one did not answer
+     */
+    AsyncResolver(MonitorInfo monitorInfo, List<String> nameserverIds, int threads, long timeout, long hedgeDelay) {
+        this.monitorInfo = monitorInfo;
+        this.nameserverIds = nameserverIds;
+        this.timeout = timeout;
+        this.hedgeDelay = hedgeDelay;
+        this.pool = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * @param domain the mail domain, e.g. <code>earth.planet</code>
+     * @return the address of the mailbox server; fails with {@link InvalidDomainException} if the domain does not
+     * exist and with {@link TimeoutException} if no nameserver answered in time
+     */
+    CompletableFuture<InetSocketAddress> resolve(String domain) {
+        List<Callable<String>> attempts = new ArrayList<>();
+        for (String id : nameserverIds) {
+            attempts.add(() -> resolveAt(id, domain));
+        }
+        UdpLookupClient lookupClient = monitorInfo.getLookupClient();
+        if (lookupClient != null) {
+            attempts.add(LocalTransport.isEnabled() ? attempts.size() : 0, () -> {
+                String address = lookupClient.lookup(domain);
+                if (address == null) {
+                    throw new InvalidDomainException("Domain '" + domain + "' not found. ");
+                }
+                return address;
+            });
+        }
+
+        PendingLookup lookup = new PendingLookup(domain, attempts);
+        lookup.next();
+        return lookup.result.orTimeout(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private String resolveAt(String id, String domain) throws RemoteException, NotBoundException, InvalidDomainException {
+        INameserverRemote nameserver = nameservers.get(id);
+        if (nameserver == null) {
+            // obtain registry that was created by the server
+            Registry registry = LocateRegistry.getRegistry(monitorInfo.getRegistryHost(), monitorInfo.getRegistryPort());
+            // look for the bound server remote-object implementing the IServerRemote interface
+            nameserver = (INameserverRemote) registry.lookup(id);
+            nameservers.put(id, nameserver);
+        }
+        try {
+            return DomainResolver.resolve(nameserver, domain);
+        } catch (RemoteException e) {
+            //nameserver may have been restarted, look it up again next time
+            nameservers.remove(id, nameserver);
+            throw e;
+        }
+    }
+
+    void shutdown() {
+        timer.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    private class PendingLookup {
+        private final String domain;
+        private final List<Callable<String>> attempts;
+        private final CompletableFuture<InetSocketAddress> result = new CompletableFuture<>();
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        private PendingLookup(String domain, List<Callable<String>> attempts) {
+            this.domain = domain;
+            this.attempts = attempts;
+        }
+
+        //starts the next attempt (if any) and schedules the hedge after it
+        private void next() {
+            int index = started.getAndIncrement();
+            if (index >= attempts.size() || result.isDone()) {
+                return;
+            }
+            try {
+                pool.execute(() -> run(attempts.get(index)));
+                if (index + 1 < attempts.size()) {
+                    timer.schedule(this::next, hedgeDelay, TimeUnit.MILLISECONDS);
+                }
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        private void run(Callable<String> attempt) {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                String[] ipPort = attempt.call().split(":");
+                result.complete(new InetSocketAddress(ipPort[0], Integer.parseInt(ipPort[1])));
+            } catch (InvalidDomainException e) {
+                //authoritative answer, no need to ask anyone else
+                result.completeExceptionally(e);
+            } catch (Exception e) {
+                Log.warn("AsyncResolver: lookup of domain '" + domain + "' failed: " + e);
+                if (failed.incrementAndGet() == attempts.size()) {
+                    result.completeExceptionally(e);
+                } else {
+                    next();
+                }
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package dslab.transfer;
 
+import dslab.nameserver.UdpLookupClient;
+
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
@@ -10,15 +12,18 @@ class MonitorInfo {
     private final String registryHost;
     private final Integer registryPort;
     private final String rootId;
+    private final UdpLookupClient lookupClient;
 
     MonitorInfo(String ip, int port, 
-                String registryHost, Integer registryPort, String rootId) throws UnknownHostException {
+                String registryHost, Integer registryPort, String rootId,
+                UdpLookupClient lookupClient) throws UnknownHostException {
         address = InetAddress.getByName(ip);
         this.port = port;
         
         this.registryHost = registryHost;
         this.registryPort = registryPort;
         this.rootId = rootId;
+        this.lookupClient = lookupClient;
     }
 
     InetAddress getAddress() {
@@ -40,4 +45,11 @@ class MonitorInfo {
     public String getRootId() {
         return rootId;
     }
+
+    /**
+     * @return the client of the nameserver's UDP lookup protocol, or null if it is not configured
+     */
+    public UdpLookupClient getLookupClient() {
+        return lookupClient;
+    }
 }
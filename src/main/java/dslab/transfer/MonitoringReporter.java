@@ -0,0 +1,99 @@
+package dslab.transfer;
+
+import dslab.util.Log;
+import dslab.util.LogHistogram;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the monitoring records of this transfer server over one UDP socket: a record "ip:port sender" per sent mail,
+ * and periodically "H ip:port metric histogram" with the values recorded per metric since the previous report
+ * (see {@link LogHistogram#encode()}). Every record ends with a sequence number counting from 1, so the monitoring
+ * server can tell how many records got lost.
+ */
+class MonitoringReporter {
+    //metrics recorded per delivery
+    static final String RESOLVE = "resolve_us";
+    static final String CONNECT = "connect_us";
+    static final String PROTOCOL = "protocol_us";
+    static final String SIZE = "size_bytes";
+
+    private final MonitorInfo monitorInfo;
+    private final String source;
+    private final DatagramSocket socket;
+    private final Map<String, LogHistogram> histograms = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private long sequence;
+
+    /**
+     * @param monitorInfo the address of the monitoring server
+     * @param source ip:port of this transfer server
+     * @param interval milliseconds between histogram reports
+     * @throws SocketException if the socket could not be opened
+     */
+    MonitoringReporter(MonitorInfo monitorInfo, String source, long interval) throws SocketException {
+        this.monitorInfo = monitorInfo;
+        this.source = source;
+        this.socket = new DatagramSocket();
+
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "MonitoringReporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void mailSent(String from) {
+        send(source + " " + from);
+    }
+
+    void record(String metric, long value) {
+        LogHistogram histogram = histograms.computeIfAbsent(metric, m -> new LogHistogram());
+        synchronized (histogram) {
+            histogram.record(value);
+        }
+    }
+
+    private void flush() {
+        for (Map.Entry<String, LogHistogram> entry : histograms.entrySet()) {
+            LogHistogram histogram = entry.getValue();
+            String encoded;
+            synchronized (histogram) {
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                encoded = histogram.encode();
+                histogram.reset();
+            }
+            send("H " + source + " " + entry.getKey() + " " + encoded);
+        }
+    }
+
+    //synchronized so the records are sent in the order of their sequence numbers
+    private synchronized void send(String record) {
+        byte[] buf = (record + " " + (++sequence)).getBytes();
+        try {
+            socket.send(new DatagramPacket(buf, buf.length, monitorInfo.getAddress(), monitorInfo.getPort()));
+        } catch (IOException e) {
+            Log.warn("MonitoringReporter error: " + e);
+        }
+    }
+
+    /**
+     * Sends the histograms recorded since the last report and closes the socket.
+     */
+    void close() {
+        timer.shutdown();
+        flush();
+        socket.close();
+    }
+}
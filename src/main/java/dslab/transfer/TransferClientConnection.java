@@ -1,100 +1,95 @@
 package dslab.transfer;
 
-import dslab.Shutdownable;
+import dslab.util.ClientSession;
+import dslab.util.Log;
 import dslab.util.Mail;
+import dslab.util.MetricsRegistry;
+import dslab.util.ProtocolCommandEvent;
+import dslab.util.ProtocolHandler;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.net.Socket;
-import java.net.SocketException;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
-public class TransferClientConnection implements Runnable, Shutdownable {
-    private final Socket client;
-    private final ExecutorService pool;
+public class TransferClientConnection implements ProtocolHandler {
+    private static final Set<String> COMMANDS = Set.of("begin", "to", "from", "subject", "data", "hash", "send", "quit");
+
+    private final ExecutorService deliveryPool;
+    private final AsyncResolver resolver;
+    private final MonitoringReporter reporter;
     private final int port;
     private final MonitorInfo monitorInfo;
     private final String ip;
-    private final ConcurrentHashMap<Integer, Shutdownable> connectionMap;
+    private final MetricsRegistry metrics;
+    private final int connectTimeout;
+    private final int readTimeout;
 
-    TransferClientConnection(Socket client, int port, MonitorInfo monitorInfo, String ip,
-                             ConcurrentHashMap<Integer, Shutdownable> connectionMap) {
-        this.client = client;
+    TransferClientConnection(int port, MonitorInfo monitorInfo, String ip, ExecutorService deliveryPool,
+                             AsyncResolver resolver, MonitoringReporter reporter, MetricsRegistry metrics,
+                             int connectTimeout, int readTimeout) {
         this.port = port;
         this.monitorInfo = monitorInfo;
         this.ip = ip;
-        this.connectionMap = connectionMap;
-
-        pool = Executors.newFixedThreadPool(2);
+        this.deliveryPool = deliveryPool;
+        this.resolver = resolver;
+        this.reporter = reporter;
+        this.metrics = metrics;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
     }
 
     @Override
-    public void shutdown() {
-        try {
-            client.close();
-            pool.shutdown();
-            pool.shutdownNow();
-            Thread.currentThread().interrupt();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public void handle(ClientSession session) throws IOException {
+        if (Log.DEBUG) {
+            Log.debug("TransferClientConnection start "+ session);
         }
-    }
-    
-    @Override
-    public void run() {
-        //invalid client
-        if (client == null || !client.isConnected() || client.isClosed()) {
-            System.out.println("invalid client");
-            return;
-        }
-        System.out.println("TransferClientConnection start "+ client);
 
-        try {
-            PrintWriter out = new PrintWriter(client.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+        PrintWriter out = session.writer();
+        BufferedReader in = session.reader();
 
-            //connected message
-            out.println("ok DMTP2.0");
+        //connected message
+        out.println("ok DMTP2.0");
 
-            //must start with "begin"
-            String begin = in.readLine();
-            if (begin == null || !begin.equals("begin")) {
-                out.println("error protocol error");
-                client.close();
-                return;
+        //must start with "begin"
+        String begin = in.readLine();
+        if (begin == null || !begin.equals("begin")) {
+            out.println("error protocol error");
+            session.close();
+            return;
+        }
+        metrics.counter("dmtp.commands.begin").increment();
+        out.println("ok");
+
+        //set fields
+        Mail mail = new Mail();
+        while (!Thread.interrupted() && !session.isClosed()) {
+            //to, from, subject, data, send, quit
+            session.expect(ClientSession.Phase.COMMAND);
+            String message = in.readLine();
+            String command, content;
+
+            if(message==null){
+                break;
             }
-            out.println("ok");
-
-            //set fields
-            Mail mail = new Mail();
-            while (!Thread.interrupted() && client.isConnected()) {
-                //to, from, subject, data, send, quit
-                String message = in.readLine();
-                String command, content;
-
-                if(message==null){
-                    break;
-                }
 
-                //message with parameters
-                int firstSpaceIndex = message.indexOf(' ');
-                if (firstSpaceIndex != -1) {
-                    command = message.substring(0, firstSpaceIndex);
-                    content = message.substring(firstSpaceIndex + 1);
-                } else {
-                    command = message;
-                    content = "";
-                }
+            //message with parameters
+            int firstSpaceIndex = message.indexOf(' ');
+            if (firstSpaceIndex != -1) {
+                command = message.substring(0, firstSpaceIndex);
+                content = message.substring(firstSpaceIndex + 1);
+            } else {
+                command = message;
+                content = "";
+            }
+            metrics.counter(COMMANDS.contains(command) ? "dmtp.commands." + command : "dmtp.commands.unknown")
+                    .increment();
 
-                //System.out.println("TransferClientConnection: " + command + ":" + content);
+            //System.out.println("TransferClientConnection: " + command + ":" + content);
+            ProtocolCommandEvent event = new ProtocolCommandEvent();
+            event.begin();
+            try {
                 switch (command) {
                     case "begin": {
                         mail = new Mail();
@@ -156,8 +151,10 @@ public class TransferClientConnection implements Runnable, Shutdownable {
                             continue;
                         }
 
-                        //send mail
-                        pool.execute(new TransferSender(mail, port, monitorInfo, ip));
+                        //send mail: resolve domains in the background, then deliver on the delivery pool
+                        new TransferSender(mail, port, monitorInfo, ip, resolver, reporter, metrics, connectTimeout,
+                                readTimeout).start(deliveryPool);
+                        metrics.counter("dmtp.mails.accepted").increment();
 
                         //reset mail
                         mail = new Mail();
@@ -166,55 +163,18 @@ public class TransferClientConnection implements Runnable, Shutdownable {
                     }
                     case "quit": {
                         out.println("ok bye");
-                        client.close();
+                        session.close();
                         break;
                     }
                     default: {
                         out.println("error protocol error");
-                        client.close();
+                        session.close();
                         return;
                     }
                 }
+            } finally {
+                event.commit("DMTP", command, session);
             }
-        } catch (SocketException e) {
-            //socket closed
-        } catch (IOException e) {
-            //e.printStackTrace();
-            System.out.println("TransferClientConnection: thread IO exception: " + e.toString());
-        }
-
-        //close client socket
-        try {
-            client.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        //pool close
-        try {
-            boolean finished = pool.awaitTermination(60L, TimeUnit.SECONDS);
-            if(!finished) {
-                pool.shutdownNow();
-            } else {
-                System.out.println("TransferClientConnection finished after waiting "+client);
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
         }
-        connectionMap.remove(hashCode());
-        System.out.println("TransferClientConnection finished "+ client);
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        TransferClientConnection that = (TransferClientConnection) o;
-        return Objects.equals(client, that.client);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(client);
     }
 }
@@ -1,43 +1,94 @@
 package dslab.transfer;
 
-import dslab.nameserver.AlreadyRegisteredException;
-import dslab.nameserver.INameserverRemote;
+import dslab.cluster.LocalTransport;
 import dslab.nameserver.InvalidDomainException;
+import dslab.util.DeliveryPhaseEvent;
+import dslab.util.ListenerThread;
+import dslab.util.Log;
 import dslab.util.Mail;
+import dslab.util.MetricsRegistry;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.*;
-import java.rmi.NotBoundException;
-import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class TransferSender implements Runnable {
+    //a busy mailbox server is tried again after 1, 2, 4 and 8 seconds before the mail is bounced
+    private static final int BUSY_RETRIES = 4;
+    private static final long BUSY_BACKOFF = 1000;
+
     private final Mail mail;
     private final int port;
     private final MonitorInfo monitorInfo;
     private final String ip;
+    private final AsyncResolver resolver;
+    private final MonitoringReporter reporter;
+    private final MetricsRegistry metrics;
+    //milliseconds to connect to a mailbox server and to wait for each of its answers
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final Map<String, CompletableFuture<InetSocketAddress>> addresses = new HashMap<>();
+    private long started;
+    private Executor deliveryPool;
+
+    //outcome of the attempts so far, the mail is bounced once no attempt is left
+    private final Set<String> failDomains = new HashSet<>();
+    private boolean failure = false;
+    private final StringBuilder failData = new StringBuilder();
+    private final ArrayList<String> failMails = new ArrayList<>();
+    //domains to try again, null on the first attempt (all domains)
+    private Set<String> pending;
+    private int attempt = 0;
 
-    TransferSender(Mail mail, int port, MonitorInfo monitorInfo, String ip) {
+    TransferSender(Mail mail, int port, MonitorInfo monitorInfo, String ip, AsyncResolver resolver,
+                   MonitoringReporter reporter, MetricsRegistry metrics, int connectTimeout, int readTimeout) {
         this.mail = mail;
         this.port = port;
         this.monitorInfo = monitorInfo;
         this.ip = ip;
+        this.resolver = resolver;
+        this.reporter = reporter;
+        this.metrics = metrics;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Resolves the recipient domains in the background and runs the delivery on the given executor once all of them
+     * are resolved (or failed), so no delivery thread waits for the nameservers.
+     *
+     * @param deliveryPool the executor to run the delivery on
+     */
+    void start(Executor deliveryPool) {
+        this.deliveryPool = deliveryPool;
+        started = System.nanoTime();
+        for (String recipient : mail.getTo().split(",")) {
+            addresses.computeIfAbsent(recipient.split("@")[1], this::resolve);
+        }
+        CompletableFuture.allOf(addresses.values().toArray(new CompletableFuture<?>[0]))
+                .handle((result, e) -> null)
+                .thenRunAsync(this, deliveryPool)
+                .exceptionally(e -> {
+                    Log.error("TransferSender could not start delivery: " + e);
+                    return null;
+                });
     }
 
     @Override
     public void run() {
-        System.out.println("TransferSender start ("+mail.getSubject()+": "+mail.getTo()+")");
+        if (Log.DEBUG) {
+            Log.debug("TransferSender start ("+mail.getSubject()+": "+mail.getTo()+")");
+        }
         Set<String> sentDomains = new HashSet<>();
-        Set<String> failDomains = new HashSet<>();
-        boolean failure = false;
-        StringBuilder failData = new StringBuilder();
-        ArrayList<String> failMails = new ArrayList<>();
+        Set<String> busyDomains = new HashSet<>();
         
         //get domain counts
         String[] recipients = mail.getTo().split(",");
@@ -47,6 +98,10 @@ public class TransferSender implements Runnable {
             String[] split = recipient.split("@");
             String domain = split[1];
 
+            //delivered or failed in an earlier attempt
+            if (pending != null && !pending.contains(domain)) {
+                continue;
+            }
             //already forwarded email to this domain
             if (failDomains.contains(domain)) {
                 failMails.add(recipient);
@@ -59,14 +114,38 @@ public class TransferSender implements Runnable {
 
             //send message
             String sendMessage = sendMessage(domain, mail);
-            if (sendMessage != null) {
+            if (busy(domain).equals(sendMessage)) {
+                busyDomains.add(domain);
+            } else if (sendMessage != null) {
                 failure = true;
                 failDomains.add(domain);
                 
                 failData.append(sendMessage);
                 failMails.add(recipient);
                 
-                System.out.println("Send failed to mail '"+recipient+"': " + sendMessage);
+                Log.warn("Send failed to mail '"+recipient+"': " + sendMessage);
+                metrics.counter("delivery.domains.failed").increment();
+            } else {
+                metrics.counter("delivery.domains.delivered").increment();
+            }
+        }
+
+        if (!busyDomains.isEmpty()) {
+            if (attempt < BUSY_RETRIES) {
+                retry(busyDomains);
+                return;
+            }
+            //gave up
+            for (String recipient : recipients) {
+                if (busyDomains.contains(recipient.split("@")[1])) {
+                    failMails.add(recipient);
+                }
+            }
+            for (String domain : busyDomains) {
+                failure = true;
+                failData.append(busy(domain));
+                Log.warn("Send failed to domain '" + domain + "': still busy after " + attempt + " retries");
+                metrics.counter("delivery.domains.failed").increment();
             }
         }
 
@@ -82,19 +161,72 @@ public class TransferSender implements Runnable {
             String[] split = fail.getTo().split("@");
             String domain = split[1];
             sendMessage(domain, fail);
+            metrics.counter("delivery.bounces").increment();
         }
 
         //monitoring server
+        reporter.mailSent(mail.getFrom());
+        metrics.histogram("delivery.duration_us").record(micros(started));
+        if (Log.DEBUG) {
+            Log.debug("TransferSender finished. ("+mail.getSubject()+": "+mail.getTo()+")");
+        }
+    }
+
+    //tries the busy domains again on the delivery pool after a backoff, the bounce waits for the outcome
+    private void retry(Set<String> busyDomains) {
+        long delay = BUSY_BACKOFF << attempt;
+        pending = busyDomains;
+        attempt++;
+        metrics.counter("delivery.retries").increment();
+        if (Log.DEBUG) {
+            Log.debug("TransferSender retries " + busyDomains + " in " + delay + " ms (" + mail.getSubject() + ")");
+        }
+        CompletableFuture.runAsync(this, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, deliveryPool))
+                .exceptionally(e -> {
+                    Log.error("TransferSender could not retry delivery to " + busyDomains + ": " + e);
+                    return null;
+                });
+    }
+
+    private static String busy(String domain) {
+        return "Domain '" + domain + "' busy, retry later. ";
+    }
+
+    private CompletableFuture<InetSocketAddress> resolve(String domain) {
+        long begin = System.nanoTime();
+        DeliveryPhaseEvent event = new DeliveryPhaseEvent();
+        event.begin();
+        return resolver.resolve(domain)
+                .whenComplete((address, e) -> {
+                    reporter.record(MonitoringReporter.RESOLVE, micros(begin));
+                    event.commit(DeliveryPhaseEvent.RESOLVE, domain, e == null);
+                });
+    }
+
+    private static long micros(long begin) {
+        return (System.nanoTime() - begin) / 1000;
+    }
+
+    /**
+     * Returns the address of the mailbox server for domain, resolved by {@link #start(Executor)}. Domains that were not
+     * resolved in advance (the sender's domain for a failure mail) are resolved now.
+     *
+     * @param domain the mail domain
+     * @return the address of the mailbox server
+     * @throws InvalidDomainException with a description if the domain could not be resolved
+     */
+    private InetSocketAddress lookup(String domain) throws InvalidDomainException {
         try {
-            DatagramSocket socket = new DatagramSocket();
-            String msg = ip+":"+port+" "+mail.getFrom();
-            byte[] buf = msg.getBytes();
-            DatagramPacket packet = new DatagramPacket(buf, buf.length, monitorInfo.getAddress(), monitorInfo.getPort());
-            socket.send(packet);
-        } catch (IOException e) {
-            System.out.println("TransferSender error: " + e);
+            return addresses.computeIfAbsent(domain, this::resolve).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof InvalidDomainException) {
+                throw (InvalidDomainException) e.getCause();
+            }
+            if (e.getCause() instanceof TimeoutException) {
+                throw new InvalidDomainException("Domain '" + domain + "' could not be resolved in time. ");
+            }
+            throw new InvalidDomainException("Domain '" + domain + "' not found. ", e.getCause());
         }
-        System.out.println("TransferSender finished. ("+mail.getSubject()+": "+mail.getTo()+")");
     }
 
     /**
@@ -106,39 +238,56 @@ public class TransferSender implements Runnable {
      */
     private String sendMessage(String domain, Mail mail) {
         //make new socket to domain (lookup domain)
-        String lookup;
+        InetSocketAddress address;
         try {
-            // obtain registry that was created by the server
-            Registry registry = LocateRegistry.getRegistry(
-                    monitorInfo.getRegistryHost(),
-                    monitorInfo.getRegistryPort()
-            );
-            // look for the bound server remote-object implementing the IServerRemote interface
-            INameserverRemote server = (INameserverRemote) registry.lookup(monitorInfo.getRootId());
-
-            //iteratively
-            String[] split = domain.split("\\.");
-            System.out.println("Send Mail to domain '"+domain+"'");
-            for(int i=split.length-1; i>0; --i) {
-                server = server.getNameserver(split[i]);
-                if(server==null) {
-                    return "Nameserver '" + split[i] + "' for domain '" + domain + "' not found. ";
-                }
-            }
-            lookup = server.lookup(split[0]);
-        } catch (RemoteException | NotBoundException e) {
-            //RemoteException: throw new RuntimeException("Error while obtaining registry/server-remote-object.", e);
-            //NotBoundException: throw new RuntimeException("Error while looking for server-remote-object.", e);
-            return "Domain '" + domain + "' not found. ";
+            address = lookup(domain);
+        } catch (InvalidDomainException e) {
+            return e.getMessage();
         }
 
-        if(lookup==null) {
-            return "Domain '" + domain + "' not found. ";
+        String lookup = address.getHostString() + ":" + address.getPort();
+
+        //co-located mailbox server: hand the mail over without a DMTP session
+        LocalTransport.Mailbox mailbox = LocalTransport.mailbox(lookup);
+        if (mailbox != null) {
+            long begin = System.nanoTime();
+            DeliveryPhaseEvent event = new DeliveryPhaseEvent();
+            event.begin();
+            String error = mailbox.deliver(mail);
+            event.commit(DeliveryPhaseEvent.LOCAL, domain, error == null);
+            if (error != null) {
+                return "Wrong Domain Response at '" + domain + "': '" + error + "'. ";
+            }
+            reporter.record(MonitoringReporter.PROTOCOL, micros(begin));
+            long size = 0;
+            for (String message : mail.messages()) {
+                size += message.length() + 1;
+            }
+            reporter.record(MonitoringReporter.SIZE, size);
+            return null;
         }
-        String[] ipPort = lookup.split(":");
+
         Socket socket = null;
+        DeliveryPhaseEvent transmit = new DeliveryPhaseEvent();
         try {
-            socket = new Socket(ipPort[0], Integer.parseInt(ipPort[1]));
+            long begin = System.nanoTime();
+            DeliveryPhaseEvent connect = new DeliveryPhaseEvent();
+            connect.begin();
+            //a stalled mailbox server must not hold the delivery thread
+            Socket connecting = new Socket();
+            try {
+                connecting.connect(address, connectTimeout);
+                connecting.setSoTimeout(readTimeout);
+                socket = connecting;
+            } finally {
+                if (socket == null) {
+                    connecting.close();
+                }
+                connect.commit(DeliveryPhaseEvent.CONNECT, domain, socket != null);
+            }
+            reporter.record(MonitoringReporter.CONNECT, micros(begin));
+            begin = System.nanoTime();
+            transmit.begin();
 
             //check connected
             if (!socket.isConnected()) {
@@ -152,41 +301,57 @@ public class TransferSender implements Runnable {
 
             //other must start with ok DMTP
             String protocol = in.readLine();
-            if (!protocol.equals("ok DMTP2.0")) {
+            if (ListenerThread.BUSY.equals(protocol)) {
+                //server over capacity, it already closed the connection
+                socket.close();
+                transmit.commit(DeliveryPhaseEvent.TRANSMIT, domain, false);
+                metrics.counter("delivery.domains.busy").increment();
+                return busy(domain);
+            }
+            if (!"ok DMTP2.0".equals(protocol)) {
                 out.println("quit");
                 socket.close();
+                transmit.commit(DeliveryPhaseEvent.TRANSMIT, domain, false);
                 return "Wrong Domain Protocol '" + domain + "'. ";
             }
 
             //send all mail infos
             String[] messages = mail.messages();
+            long size = 0;
             for (String message : messages) {
                 out.println(message);
+                size += message.length() + 1;
 
                 String response = in.readLine();
+                if (response == null) {
+                    //connection closed by the other side
+                    socket.close();
+                    transmit.commit(DeliveryPhaseEvent.TRANSMIT, domain, false);
+                    return "Connection to Domain '" + domain + "' closed after message '" + message + "'. ";
+                }
 
                 //response not ok - quit and report failure
                 if (!response.startsWith("ok")) {
                     //other error
                     out.println("quit");
                     socket.close();
+                    transmit.commit(DeliveryPhaseEvent.TRANSMIT, domain, false);
                     return "Wrong Domain Response at '" + domain + "' after message '" + message + "'. ";
                 }
             }
 
+            transmit.commit(DeliveryPhaseEvent.TRANSMIT, domain, true);
+            reporter.record(MonitoringReporter.PROTOCOL, micros(begin));
+            reporter.record(MonitoringReporter.SIZE, size);
+
             //close socket
             socket.close();
-        } catch (SocketException e) {
-            //close socket
-            try {
-                if (socket != null) {
-                    socket.close();
-                }
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
         } catch (IOException e) {
-            System.out.println("Mail error: " + e);
+            //also a refused connection or one reset by the other side, the mail did not arrive
+            Log.warn("Mail error: " + e);
+            if (socket != null) {
+                transmit.commit(DeliveryPhaseEvent.TRANSMIT, domain, false);
+            }
 
             //close socket
             try {
@@ -197,6 +362,9 @@ public class TransferSender implements Runnable {
                 ex.printStackTrace();
             }
 
+            if (socket == null) {
+                return "Could not reach Domain '" + domain + "' at " + lookup + ": " + e.getMessage() + ". ";
+            }
             return e.toString();
         }
 
@@ -1,19 +1,50 @@
 package dslab.transfer;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import at.ac.tuwien.dsg.orvell.Shell;
 import at.ac.tuwien.dsg.orvell.StopShellException;
 import at.ac.tuwien.dsg.orvell.annotation.Command;
 import dslab.ComponentFactory;
+import dslab.nameserver.UdpLookupClient;
 import dslab.util.Config;
+import dslab.util.ListenerThread;
+import dslab.util.MetricsRegistry;
+import dslab.util.PoolSettings;
+import dslab.util.ServerSettings;
+import dslab.util.WorkerPool;
 
 public class TransferServer implements ITransferServer, Runnable {
-    private static final int POOLSIZE = 8;
+    private static final int DEFAULT_POOLSIZE = 8;
+    private static final int DEFAULT_DELIVERY_POOLSIZE = 8;
+    private static final int DEFAULT_RESOLVER_THREADS = 4;
+    private static final int DEFAULT_RESOLVER_TIMEOUT = 5000;
+    private static final int DEFAULT_RESOLVER_HEDGE_DELAY = 200;
+    private static final int DEFAULT_LOOKUP_TIMEOUT = 200;
+    private static final int DEFAULT_LOOKUP_RETRIES = 2;
+    private static final int DEFAULT_HISTOGRAM_INTERVAL = 10000;
+    private static final int DEFAULT_DELIVERY_CONNECT_TIMEOUT = 5000;
+    private static final int DEFAULT_DELIVERY_READ_TIMEOUT = 30000;
+    private static final long DELIVERY_SHUTDOWN_WAIT = 5;
     
     private final Config config;
-    private TransferListenerThread socketListener;
+    private final MetricsRegistry metrics;
+    private ListenerThread socketListener;
+    //shared by all connections, runs the deliveries once their domains are resolved
+    private WorkerPool deliveryPool;
+    //resizable by name
+    private final Map<String, WorkerPool> pools = new LinkedHashMap<>();
+    private AsyncResolver resolver;
+    private MonitoringReporter reporter;
     
     private final Shell shell;
 
@@ -27,6 +58,7 @@ public class TransferServer implements ITransferServer, Runnable {
      */
     public TransferServer(String componentId, Config config, InputStream in, PrintStream out) {
         this.config = config;
+        this.metrics = new MetricsRegistry(componentId);
         
         //init shell
         shell = new Shell(in, out);
@@ -54,9 +86,31 @@ public class TransferServer implements ITransferServer, Runnable {
                     config.getInt("monitoring.port"),
                     config.getString("registry.host"), 
                     config.getInt("registry.port"), 
-                    config.getString("root_id"));
-            socketListener = new TransferListenerThread(serverSocket, POOLSIZE, port, monitorInfo);
+                    config.getString("root_id"),
+                    createLookupClient());
+            int histogramInterval = config.containsKey("monitoring.histogram.interval")
+                    ? config.getInt("monitoring.histogram.interval") : DEFAULT_HISTOGRAM_INTERVAL;
+            String ip = localAddress();
+            deliveryPool = new WorkerPool("delivery.pool",
+                    PoolSettings.from(config, "delivery", DEFAULT_DELIVERY_POOLSIZE), metrics);
+            int connectTimeout = config.containsKey("delivery.timeout.connect")
+                    ? config.getInt("delivery.timeout.connect") : DEFAULT_DELIVERY_CONNECT_TIMEOUT;
+            int readTimeout = config.containsKey("delivery.timeout.read")
+                    ? config.getInt("delivery.timeout.read") : DEFAULT_DELIVERY_READ_TIMEOUT;
+            resolver = createResolver(monitorInfo);
+            reporter = new MonitoringReporter(monitorInfo, ip + ":" + port, histogramInterval);
+
+            socketListener = new ListenerThread("TransferListenerThread", "dmtp", serverSocket,
+                    ServerSettings.from(config, "dmtp", DEFAULT_POOLSIZE),
+                    new TransferClientConnection(port, monitorInfo, ip, deliveryPool, resolver, reporter, metrics,
+                            connectTimeout, readTimeout),
+                    metrics);
+            if (socketListener.getPool() != null) {
+                pools.put("dmtp", socketListener.getPool());
+            }
+            pools.put("delivery", deliveryPool);
             socketListener.start();
+            metrics.registerMBean();
             
             //wait for commands
             shell.run();
@@ -67,13 +121,104 @@ public class TransferServer implements ITransferServer, Runnable {
         shell.out().println("TransferServer finished");
     }
     
+    private static String localAddress() {
+        try {
+            return InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException e) {
+            return "Unknown";
+        }
+    }
+
+    //asks the root nameserver first, then its replicas (resolver.replica_ids) as hedges
+    private AsyncResolver createResolver(MonitorInfo monitorInfo) {
+        List<String> nameserverIds = new ArrayList<>();
+        nameserverIds.add(config.getString("root_id"));
+        if (config.containsKey("resolver.replica_ids")) {
+            nameserverIds.addAll(Arrays.asList(config.getString("resolver.replica_ids").split(",")));
+        }
+        int threads = config.containsKey("resolver.threads")
+                ? config.getInt("resolver.threads") : DEFAULT_RESOLVER_THREADS;
+        int timeout = config.containsKey("resolver.timeout")
+                ? config.getInt("resolver.timeout") : DEFAULT_RESOLVER_TIMEOUT;
+        int hedgeDelay = config.containsKey("resolver.hedge.delay")
+                ? config.getInt("resolver.hedge.delay") : DEFAULT_RESOLVER_HEDGE_DELAY;
+        return new AsyncResolver(monitorInfo, nameserverIds, threads, timeout, hedgeDelay);
+    }
+
+    //fast path for domain lookups, only if the nameserver's UDP lookup protocol is configured
+    private UdpLookupClient createLookupClient() throws IOException {
+        if (!config.containsKey("lookup.udp.host") || !config.containsKey("lookup.udp.port")) {
+            return null;
+        }
+        int timeout = config.containsKey("lookup.udp.timeout")
+                ? config.getInt("lookup.udp.timeout") : DEFAULT_LOOKUP_TIMEOUT;
+        int retries = config.containsKey("lookup.udp.retries")
+                ? config.getInt("lookup.udp.retries") : DEFAULT_LOOKUP_RETRIES;
+        return new UdpLookupClient(InetAddress.getByName(config.getString("lookup.udp.host")),
+                config.getInt("lookup.udp.port"), timeout, retries);
+    }
+
+    /**
+     * CLI command to report the metrics of this server (sessions, commands, bytes, deliveries).
+     */
+    @Command
+    public void stats() {
+        for(String s : metrics.report()){
+            shell.out().println(s);
+        }
+    }
+
+    /**
+     * CLI command to list the worker pools with their number of threads and queued tasks.
+     */
+    @Command
+    public void pools() {
+        for(WorkerPool pool : pools.values()){
+            shell.out().println(pool);
+        }
+    }
+
+    /**
+     * CLI command to change the number of threads of a worker pool while the server runs.
+     *
+     * @param pool the pool, as listed by {@link #pools()}
+     * @param threads the number of threads
+     */
+    @Command
+    public void resize(String pool, int threads) {
+        WorkerPool workerPool = pools.get(pool);
+        if(workerPool==null){
+            shell.out().println("error unknown pool '"+pool+"', pools: "+String.join(", ", pools.keySet()));
+            return;
+        }
+        try {
+            workerPool.resize(threads);
+            shell.out().println("ok "+workerPool);
+        } catch (IllegalArgumentException e) {
+            shell.out().println("error "+e.getMessage());
+        }
+    }
+
     @Override
     @Command
     public void shutdown() {
         shell.out().println("TransferServer starting shutdown");
+        metrics.unregisterMBean();
         
         //close server socket
         socketListener.shutdown();
+
+        //let running deliveries finish
+        deliveryPool.shutdown();
+        try {
+            if (!deliveryPool.awaitTermination(DELIVERY_SHUTDOWN_WAIT, TimeUnit.SECONDS)) {
+                deliveryPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            deliveryPool.shutdownNow();
+        }
+        resolver.shutdown();
+        reporter.close();
         
         //stop shell
         throw new StopShellException();
@@ -0,0 +1,149 @@
+package dslab.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connection of one client to a {@link ListenerThread}: the socket and line based reader and writer on it, which count
+ * the bytes in the metrics of the server (<code>protocol.bytes.in</code> and <code>protocol.bytes.out</code>).
+ *
+ * A session starts in the {@link Phase#GREETING greeting} phase; the handler announces the following phases with
+ * {@link #expect(Phase)}, which sets the read timeout of the phase, shortened to the rest of the session deadline.
+ */
+public class ClientSession {
+    /**
+     * What the session waits for, each phase has its own read timeout.
+     */
+    public enum Phase {
+        //the first line after connecting
+        GREETING,
+        //the next command of the client, which may think in between
+        COMMAND,
+        //a line the client has to send right away, e.g. an answer within the startsecure handshake
+        DATA
+    }
+
+    private final Socket socket;
+    private final ServerSettings settings;
+    private final BufferedReader reader;
+    private final PrintWriter writer;
+
+    private volatile Phase phase = Phase.GREETING;
+    //System.nanoTime() the session has to end at, 0 for none
+    private volatile long deadline;
+    //System.nanoTime() the client was accepted at
+    private final long accepted = System.nanoTime();
+    //set by the first of the worker serving the session and the reaper shedding it
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    /**
+     * @param socket the connected client socket
+     * @param settings the timeouts
+     * @param metrics the metrics of the server
+     * @param protocol the prefix of the metric names, e.g. dmtp
+     * @throws IOException if the streams of the socket could not be opened
+     */
+    public ClientSession(Socket socket, ServerSettings settings, MetricsRegistry metrics, String protocol)
+            throws IOException {
+        this.socket = socket;
+        this.settings = settings;
+        reader = new BufferedReader(new InputStreamReader(
+                MetricsRegistry.counting(socket.getInputStream(), metrics.counter(protocol + ".bytes.in"))));
+        writer = new PrintWriter(
+                MetricsRegistry.counting(socket.getOutputStream(), metrics.counter(protocol + ".bytes.out")), true);
+    }
+
+    /**
+     * Takes the session over, either to serve it or to shed it while it is still queued.
+     *
+     * @return false if it was taken over already
+     */
+    boolean claim() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    boolean isClaimed() {
+        return claimed.get();
+    }
+
+    //nanoseconds since the client was accepted
+    long waited() {
+        return System.nanoTime() - accepted;
+    }
+
+    /**
+     * Starts the session deadline and the greeting phase, called by the listener before the handler.
+     */
+    void start() throws IOException {
+        if (settings.getSessionDeadline() > 0) {
+            deadline = System.nanoTime() + settings.getSessionDeadline() * 1_000_000L;
+        }
+        expect(Phase.GREETING);
+    }
+
+    /**
+     * Sets the read timeout for the following reads.
+     *
+     * @param phase what the session waits for
+     * @throws SocketTimeoutException if the session deadline has passed
+     * @throws IOException if the timeout could not be set (socket closed)
+     */
+    public void expect(Phase phase) throws IOException {
+        this.phase = phase;
+        int timeout = settings.getTimeout(phase);
+        if (deadline != 0) {
+            long remaining = (deadline - System.nanoTime()) / 1_000_000;
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Session deadline passed");
+            }
+            timeout = (int) (timeout == 0 ? Math.min(remaining, Integer.MAX_VALUE) : Math.min(timeout, remaining));
+        }
+        socket.setSoTimeout(timeout);
+    }
+
+    public Phase phase() {
+        return phase;
+    }
+
+    boolean pastDeadline() {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    public Socket socket() {
+        return socket;
+    }
+
+    public BufferedReader reader() {
+        return reader;
+    }
+
+    //flushes on every println
+    public PrintWriter writer() {
+        return writer;
+    }
+
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    /**
+     * Closes the socket, a read blocked on it fails.
+     */
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //closed anyway
+        }
+    }
+
+    @Override
+    public String toString() {
+        return socket.toString();
+    }
+}
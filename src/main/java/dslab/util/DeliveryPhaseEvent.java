@@ -0,0 +1,51 @@
+package dslab.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one phase of the delivery of a mail to a domain by the transfer server: resolving the
+ * domain at the nameservers, connecting to the mailbox server, or transmitting the mail (over DMTP, or handed over
+ * directly to a co-located mailbox server).
+ */
+@Name("dslab.DeliveryPhase")
+@Label("Delivery Phase")
+@Category({"DSLab", "Delivery"})
+@Description("Resolve, connect or transmit phase of a mail delivery")
+@StackTrace(false)
+public class DeliveryPhaseEvent extends Event {
+    public static final String RESOLVE = "resolve";
+    public static final String CONNECT = "connect";
+    public static final String TRANSMIT = "transmit";
+    public static final String LOCAL = "local";
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Domain")
+    String domain;
+
+    @Label("Success")
+    boolean success;
+
+    /**
+     * Ends the event and records it if it lasted longer than the configured threshold.
+     *
+     * @param phase one of {@link #RESOLVE}, {@link #CONNECT}, {@link #TRANSMIT} or {@link #LOCAL}
+     * @param domain the mail domain
+     * @param success whether the phase succeeded
+     */
+    public void commit(String phase, String domain, boolean success) {
+        end();
+        if (shouldCommit()) {
+            this.phase = phase;
+            this.domain = domain;
+            this.success = success;
+            commit();
+        }
+    }
+}
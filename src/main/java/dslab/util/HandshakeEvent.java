@@ -0,0 +1,45 @@
+package dslab.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a DMAP startsecure handshake (RSA key exchange and AES challenge), on the server or on the
+ * client side.
+ */
+@Name("dslab.Handshake")
+@Label("Startsecure Handshake")
+@Category({"DSLab", "Protocol"})
+@Description("DMAP startsecure handshake")
+@StackTrace(false)
+public class HandshakeEvent extends Event {
+    @Label("Side")
+    String side;
+
+    @Label("Server")
+    String server;
+
+    @Label("Success")
+    boolean success;
+
+    /**
+     * Ends the event and records it if it lasted longer than the configured threshold.
+     *
+     * @param side server or client
+     * @param server the component id of the mailbox server
+     * @param success whether the connection is secured
+     */
+    public void commit(String side, String server, boolean success) {
+        end();
+        if (shouldCommit()) {
+            this.side = side;
+            this.server = server;
+            this.success = success;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package dslab.util;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Estimates the number of distinct strings added (HyperLogLog, Flajolet et al.) in 2^12 one-byte registers, with a
+ * standard error of about 1.6%. Sketches with the same precision are merged by taking the maximum of each register,
+ * which gives the estimate of the union, so sketches from several hosts or time windows can be combined.
+ *
+ * Not thread-safe, callers synchronize.
+ */
+public class HyperLogLog {
+    private static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        registers = new byte[REGISTERS];
+    }
+
+    private HyperLogLog(byte[] registers) {
+        this.registers = registers;
+    }
+
+    public void add(String value) {
+        long hash = hash(value);
+        int index = (int) (hash >>> (64 - PRECISION));
+        //position of the first 1 bit in the remaining bits
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Adds the registers of other, this sketch then estimates the union of both.
+     *
+     * @param other the sketch to merge
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public void reset() {
+        Arrays.fill(registers, (byte) 0);
+    }
+
+    /**
+     * @return the estimated number of distinct values added
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        //small cardinalities: linear counting of the empty registers is more accurate
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Copies the registers, e.g. into a buffer reused for snapshots of several sketches.
+     *
+     * @param target the buffer
+     * @param offset where the {@link #size()} registers go
+     */
+    public void copyTo(byte[] target, int offset) {
+        System.arraycopy(registers, 0, target, offset, REGISTERS);
+    }
+
+    /**
+     * Creates a sketch from registers copied by {@link #copyTo(byte[], int)}.
+     *
+     * @param source the buffer
+     * @param offset where the registers start
+     * @return the sketch, with its own copy of the registers
+     */
+    public static HyperLogLog copyOf(byte[] source, int offset) {
+        return new HyperLogLog(Arrays.copyOfRange(source, offset, offset + REGISTERS));
+    }
+
+    /**
+     * @return the number of registers (bytes) of a sketch
+     */
+    public static int size() {
+        return REGISTERS;
+    }
+
+    /**
+     * @return the registers as URL-safe Base64
+     */
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(registers);
+    }
+
+    /**
+     * Decodes a sketch encoded by {@link #encode()}.
+     *
+     * @param encoded the encoded registers
+     * @return the sketch
+     * @throws IllegalArgumentException if encoded is not a valid sketch
+     */
+    public static HyperLogLog decode(String encoded) {
+        byte[] registers = Base64.getUrlDecoder().decode(encoded);
+        if (registers.length != REGISTERS) {
+            throw new IllegalArgumentException("Invalid number of registers " + registers.length);
+        }
+        return new HyperLogLog(registers);
+    }
+
+    //64 bit FNV-1a over the chars, then the MurmurHash3 finalizer to spread the bits
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
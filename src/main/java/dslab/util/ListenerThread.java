@@ -1,48 +1,308 @@
 package dslab.util;
 
-import dslab.transfer.TransferClientConnection;
-
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Accept loop of a TCP server: accepts the clients of a server socket and runs the session of each on an executor with
+ * the {@link ProtocolHandler} of the server. Keeps the open sessions so they are closed on shutdown, enforces the limits
+ * and timeouts of the {@link ServerSettings}, and counts in the metrics of the server (with the protocol as prefix):
+ * <ul>
+ *     <li><code>connections.accepted</code>, <code>connections.rejected</code> (over the connection limit),
+ *     <code>connections.rejected.ip</code> (over the limit per client address), <code>connections.rejected.queue</code>
+ *     (queue of the pool full) and <code>connections.shed</code> (waited longer than the shed wait)</li>
+ *     <li><code>sessions.active</code></li>
+ *     <li><code>sessions.reaped.greeting</code>, <code>.command</code>, <code>.data</code> (read timeout in the
+ *     phase) and <code>sessions.reaped.deadline</code> (closed at the session deadline)</li>
+ *     <li><code>bytes.in</code>, <code>bytes.out</code></li>
+ * </ul>
+ * A client turned away gets {@link #BUSY} instead of the greeting of the protocol, so it can try again later or
+ * elsewhere instead of waiting for a thread. With a shed wait, new clients are turned away right at accept while the
+ * oldest queued session has waited longer than it, and the reaper turns away queued sessions that waited longer.
+ */
 public class ListenerThread extends Thread {
-    /*private final ServerSocket serverSocket;
-    private final ExecutorService pool;
+    private static final long MIN_REAP_INTERVAL = 100;
+    private static final long MAX_REAP_INTERVAL = 1000;
+
+    /**
+     * The line sent to clients turned away because the server is over capacity.
+     */
+    public static final String BUSY = "error busy, retry later";
+    private static final byte[] BUSY_LINE = (BUSY + "\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final ServerSocket serverSocket;
+    private final String protocol;
+    private final ServerSettings settings;
+    private final ProtocolHandler handler;
+    private final MetricsRegistry metrics;
+    private final ExecutorService executor;
+    //closes the sessions past their deadline, also those stuck in a write or a slowly sent line, and sheds queued ones
+    private final ScheduledExecutorService reaper;
+    private final Set<ClientSession> sessions = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<InetAddress, Integer> connectionsPerIp = new ConcurrentHashMap<>();
 
-    public ListenerThread(ServerSocket serverSocket, int poolSize) {
+    private final MetricsRegistry.Counter accepted;
+    private final MetricsRegistry.Counter rejected;
+    private final MetricsRegistry.Counter rejectedIp;
+    private final MetricsRegistry.Counter rejectedQueue;
+    private final MetricsRegistry.Counter shed;
+    private final MetricsRegistry.Counter active;
+
+    /**
+     * @param name the name of the thread, also used in log messages
+     * @param protocol the protocol, prefix of the config keys and metric names (e.g. dmtp)
+     * @param serverSocket the bound server socket
+     * @param settings how to run the sessions
+     * @param handler the protocol
+     * @param metrics the metrics of the server
+     */
+    public ListenerThread(String name, String protocol, ServerSocket serverSocket, ServerSettings settings,
+                          ProtocolHandler handler, MetricsRegistry metrics) {
+        super(name);
         this.serverSocket = serverSocket;
-        pool = Executors.newFixedThreadPool(poolSize);
+        this.protocol = protocol;
+        this.settings = settings;
+        this.handler = handler;
+        this.metrics = metrics;
+        executor = settings.getExecution() == ServerSettings.Execution.VIRTUAL
+                ? virtualThreads(name, settings, metrics) : new WorkerPool(protocol + ".pool", settings.getPool(), metrics);
+
+        accepted = metrics.counter(protocol + ".connections.accepted");
+        rejected = metrics.counter(protocol + ".connections.rejected");
+        rejectedIp = metrics.counter(protocol + ".connections.rejected.ip");
+        rejectedQueue = metrics.counter(protocol + ".connections.rejected.queue");
+        shed = metrics.counter(protocol + ".connections.shed");
+        active = metrics.counter(protocol + ".sessions.active");
+
+        if (settings.getSessionDeadline() > 0 || settings.getShedWait() > 0) {
+            long period = settings.getSessionDeadline() <= 0 ? settings.getShedWait()
+                    : settings.getShedWait() <= 0 ? settings.getSessionDeadline()
+                    : Math.min(settings.getSessionDeadline(), settings.getShedWait());
+            long interval = Math.max(MIN_REAP_INTERVAL, Math.min(MAX_REAP_INTERVAL, period / 10));
+            reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, name + "-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reaper.scheduleAtFixedRate(this::reap, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            reaper = null;
+        }
+    }
+
+    //virtual threads are looked up reflectively, the project is built for Java 11
+    private ExecutorService virtualThreads(String name, ServerSettings settings, MetricsRegistry metrics) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Log.warn(name + ": virtual threads not available (Java " + Runtime.version().feature()
+                    + "), using a pool of " + settings.getPool().getThreads() + " threads");
+            return new WorkerPool(protocol + ".pool", settings.getPool(), metrics);
+        }
+    }
+
+    /**
+     * @return the pool running the sessions, or null if they run on virtual threads
+     */
+    public WorkerPool getPool() {
+        return executor instanceof WorkerPool ? (WorkerPool) executor : null;
     }
 
     @Override
     public void run() {
-        //accept client, make new "thread" for each client
-        while (true) {
+        //accept client, run its session on the executor
+        while (!serverSocket.isClosed()) {
+            Socket client;
             try {
-                Socket client = serverSocket.accept();
-                //System.out.println("accepted client");
-
-                Client c = new Client();
-                c.setServerSocket(client);
-                
-                pool.execute(c);
+                client = serverSocket.accept();
+            } catch (SocketException e) {
+                //socket closed
+                continue;
             } catch (IOException e) {
-                System.out.println("ListenerThread IO exception: " + e.toString());
-                //e.printStackTrace();
+                Log.warn(getName() + " IO exception: " + e.toString());
                 break;
             }
+            accepted.increment();
+            if (Log.DEBUG) {
+                Log.debug(getName() + ": client connected " + client);
+            }
+
+            if (settings.getMaxConnections() > 0 && sessions.size() >= settings.getMaxConnections()) {
+                rejected.increment();
+                busy(client);
+                continue;
+            }
+            if (backlogged()) {
+                //fail fast instead of queueing the client behind sessions that wait too long already
+                shed.increment();
+                busy(client);
+                continue;
+            }
+            if (!acquire(client.getInetAddress())) {
+                rejectedIp.increment();
+                busy(client);
+                continue;
+            }
+            ClientSession session;
+            try {
+                session = new ClientSession(client, settings, metrics, protocol);
+            } catch (IOException e) {
+                //client gone
+                release(client.getInetAddress());
+                close(client);
+                continue;
+            }
+            sessions.add(session);
+            try {
+                executor.execute(() -> serve(session));
+            } catch (RejectedExecutionException e) {
+                sessions.remove(session);
+                release(client.getInetAddress());
+                if (executor.isShutdown()) {
+                    close(client);
+                } else {
+                    //queue full
+                    rejectedQueue.increment();
+                    busy(client);
+                }
+            }
         }
 
         shutdown();
-        System.out.println("ListenerThread finished");
+        Log.info(getName() + " finished");
     }
 
-    public void shutdown() {
-        System.out.println("ListenerThread shutdown");
+    //the oldest queued session waited longer than the shed wait
+    private boolean backlogged() {
+        WorkerPool pool = getPool();
+        return settings.getShedWait() > 0 && pool != null && pool.oldestWait() > settings.getShedWait();
+    }
+
+    private void serve(ClientSession session) {
+        if (!session.claim()) {
+            //shed by the reaper while queued
+            return;
+        }
+        if (overdue(session)) {
+            //waited too long for a thread, the client is better off elsewhere than behind the backlog
+            shed(session);
+            return;
+        }
+        active.increment();
+        try {
+            session.start();
+            handler.handle(session);
+        } catch (SocketTimeoutException e) {
+            reaped(session);
+        } catch (SocketException e) {
+            //socket closed, by the client, on shutdown or by the reaper
+            if (session.pastDeadline()) {
+                reaped(session);
+            }
+        } catch (IOException e) {
+            Log.warn(getName() + ": session IO exception: " + e.toString());
+        } catch (RuntimeException e) {
+            Log.error(getName() + ": session failed: " + e.toString());
+        } finally {
+            session.close();
+            sessions.remove(session);
+            release(session.socket().getInetAddress());
+            active.decrement();
+            if (Log.DEBUG) {
+                Log.debug(getName() + ": session finished " + session);
+            }
+        }
+    }
+
+    private void reaped(ClientSession session) {
+        String reason = session.pastDeadline() ? "deadline" : session.phase().name().toLowerCase(Locale.ROOT);
+        metrics.counter(protocol + ".sessions.reaped." + reason).increment();
+        if (Log.DEBUG) {
+            Log.debug(getName() + ": session reaped (" + reason + ") " + session);
+        }
+    }
+
+    private void reap() {
+        for (ClientSession session : sessions) {
+            if (session.pastDeadline()) {
+                session.close();
+            } else if (!session.isClaimed() && overdue(session) && session.claim()) {
+                //still queued, its task returns right away once a thread takes it
+                shed(session);
+            }
+        }
+    }
+
+    private boolean overdue(ClientSession session) {
+        return settings.getShedWait() > 0 && session.waited() > settings.getShedWait() * 1_000_000L;
+    }
+
+    private void shed(ClientSession session) {
+        shed.increment();
+        sessions.remove(session);
+        release(session.socket().getInetAddress());
+        busy(session.socket());
+    }
+
+    //counts the connection of the address, false if it has too many already
+    private boolean acquire(InetAddress address) {
+        int max = settings.getMaxConnectionsPerIp();
+        if (max <= 0) {
+            return true;
+        }
+        boolean[] acquired = {false};
+        connectionsPerIp.compute(address, (a, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= max) {
+                return count;
+            }
+            acquired[0] = true;
+            return current + 1;
+        });
+        return acquired[0];
+    }
+
+    private void release(InetAddress address) {
+        if (settings.getMaxConnectionsPerIp() > 0) {
+            connectionsPerIp.computeIfPresent(address, (a, count) -> count > 1 ? count - 1 : null);
+        }
+    }
 
+    //a single short line fits the send buffer, so the write does not block
+    private static void busy(Socket client) {
+        try {
+            client.getOutputStream().write(BUSY_LINE);
+        } catch (IOException e) {
+            //client gone
+        }
+        close(client);
+    }
+
+    private static void close(Socket client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            //closed anyway
+        }
+    }
+
+    /**
+     * Stops accepting clients and closes the open sessions.
+     */
+    public void shutdown() {
         //stop accepting connections
         try {
             serverSocket.close();
@@ -50,7 +310,14 @@ public class ListenerThread extends Thread {
             e.printStackTrace();
         }
 
-        pool.shutdown();
-        //pool.shutdownNow();
-    }*/
+        executor.shutdown();
+        if (reaper != null) {
+            reaper.shutdown();
+        }
+
+        //close open connections, their sessions end with a SocketException
+        for (ClientSession session : sessions) {
+            session.close();
+        }
+    }
 }
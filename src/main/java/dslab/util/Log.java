@@ -0,0 +1,177 @@
+package dslab.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logging to standard output. Messages are put into a bounded lock-free ring buffer and written by a
+ * background thread, so threads logging never wait for each other or for the console; when the buffer is full the
+ * message is dropped and counted. The level is set with the system property <code>dslab.log.level</code> (debug,
+ * info, warn or error, default info).
+ *
+ * Debug messages on hot paths are guarded with {@link #DEBUG}, a constant, so the check and the building of the
+ * message cost nothing when debug logging is off:
+ * <pre>
+ * if (Log.DEBUG) {
+ *     Log.debug("DmtpClientConnection start " + client);
+ * }
+ * </pre>
+ */
+public final class Log {
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    public static final Level LEVEL = level(System.getProperty("dslab.log.level"));
+    public static final boolean DEBUG = LEVEL == Level.DEBUG;
+
+    private static final int CAPACITY = 1 << 14;
+    private static final long IDLE_WAIT = 100_000_000;
+
+    private static final AtomicReferenceArray<String> buffer = new AtomicReferenceArray<>(CAPACITY);
+    //next position to write to (claimed by the logging threads) and to read from (only the writer thread)
+    private static final AtomicLong tail = new AtomicLong();
+    private static volatile long head;
+    //position up to which the messages are written and flushed
+    private static volatile long flushed;
+    private static final LongAdder dropped = new LongAdder();
+
+    private static final Thread writer;
+    private static volatile boolean writerWaiting;
+
+    static {
+        PrintStream out = System.out;
+        writer = new Thread(() -> write(out), "Log writer");
+        writer.setDaemon(true);
+        writer.start();
+        //write what is left when the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> drain(out)));
+    }
+
+    private Log() {
+        // static utility class
+    }
+
+    public static void debug(String message) {
+        if (DEBUG) {
+            append(message);
+        }
+    }
+
+    public static void info(String message) {
+        if (LEVEL.compareTo(Level.INFO) <= 0) {
+            append(message);
+        }
+    }
+
+    public static void warn(String message) {
+        if (LEVEL.compareTo(Level.WARN) <= 0) {
+            append(message);
+        }
+    }
+
+    public static void error(String message) {
+        append(message);
+    }
+
+    /**
+     * @return the number of messages dropped because the buffer was full
+     */
+    public static long dropped() {
+        return dropped.sum();
+    }
+
+    private static void append(String message) {
+        while (true) {
+            long position = tail.get();
+            if (position - head >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+            if (tail.compareAndSet(position, position + 1)) {
+                //null marks a free slot
+                buffer.set((int) position & (CAPACITY - 1), String.valueOf(message));
+                break;
+            }
+        }
+        if (writerWaiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    //the writer thread
+    private static void write(PrintStream out) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out));
+        long reportedDrops = 0;
+        while (true) {
+            try {
+                if (!writeAvailable(writer)) {
+                    writer.flush();
+                    flushed = head;
+                    long drops = dropped.sum();
+                    if (drops != reportedDrops) {
+                        writer.write("Log: " + (drops - reportedDrops) + " messages dropped" + System.lineSeparator());
+                        writer.flush();
+                        reportedDrops = drops;
+                    }
+                    writerWaiting = true;
+                    //check again, a message may have come in before the flag was set
+                    if (head == tail.get()) {
+                        LockSupport.parkNanos(IDLE_WAIT);
+                    }
+                    writerWaiting = false;
+                }
+            } catch (IOException e) {
+                //nowhere to report it, keep emptying the buffer
+                LockSupport.parkNanos(IDLE_WAIT);
+            }
+        }
+    }
+
+    //writes the messages in the buffer, returns false if there were none
+    private static boolean writeAvailable(Writer writer) throws IOException {
+        boolean written = false;
+        while (true) {
+            long position = head;
+            int index = (int) position & (CAPACITY - 1);
+            String message = buffer.get(index);
+            if (message == null) {
+                //empty, or claimed but not set yet
+                return written;
+            }
+            buffer.set(index, null);
+            head = position + 1;
+            writer.write(message);
+            writer.write(System.lineSeparator());
+            written = true;
+        }
+    }
+
+    //gives the writer thread a moment to empty the buffer
+    private static void drain(PrintStream out) {
+        long end = System.nanoTime() + IDLE_WAIT;
+        while (flushed != tail.get() && System.nanoTime() < end) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(1_000_000);
+        }
+        out.flush();
+    }
+
+    private static Level level(String name) {
+        if (name == null) {
+            return Level.INFO;
+        }
+        try {
+            return Level.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+}
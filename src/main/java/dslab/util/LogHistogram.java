@@ -0,0 +1,225 @@
+package dslab.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Histogram of non-negative long values in logarithmic buckets: values below 16 are counted exactly, larger values in
+ * 16 buckets per power of two, so a reported value is at most 1/16 (6.25%) above the recorded one. The bucket layout is
+ * fixed, so histograms recorded on different hosts can be merged by adding their counts, and they are sent as a
+ * compact string (see {@link #encode()}).
+ *
+ * Not thread-safe, callers synchronize.
+ */
+public class LogHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    //exact buckets, then SUB_BUCKETS per exponent from SUB_BITS to 62
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long max;
+
+    /**
+     * Counts a value, negative values are counted as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts[index(value)]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the counts of other to this histogram.
+     *
+     * @param other the histogram to merge
+     */
+    public void merge(LogHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Estimates the sum of the recorded values from the buckets: values below 16 are exact, larger ones are taken as
+     * the middle of their bucket (but at most the largest recorded value), which is off by at most 1/32 (3.1%).
+     *
+     * @return the estimated sum of the recorded values
+     */
+    public double getSum() {
+        double sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] != 0) {
+                double lower = i < SUB_BUCKETS ? i : upperBound(i - 1) + 1;
+                sum += counts[i] * Math.min((lower + upperBound(i)) / 2, max);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the value below or at which the given fraction of the recorded values lies, as the upper bound of its
+     * bucket (but at most the largest recorded value).
+     *
+     * @param quantile the fraction, e.g. 0.99
+     * @return the value at quantile, 0 if the histogram is empty
+     */
+    public long valueAt(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Encodes the histogram as URL-safe Base64 of varints: the largest value, then index delta and count of every
+     * bucket in use.
+     *
+     * @return the encoded histogram, without spaces
+     */
+    public String encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, max);
+        int previous = -1;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] != 0) {
+                writeVarint(out, i - previous);
+                writeVarint(out, counts[i]);
+                previous = i;
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * Decodes a histogram encoded by {@link #encode()}.
+     *
+     * @param encoded the encoded histogram
+     * @return the histogram
+     * @throws IllegalArgumentException if encoded is not a valid histogram
+     */
+    public static LogHistogram decode(String encoded) {
+        return decode(Base64.getUrlDecoder().decode(encoded));
+    }
+
+    /**
+     * Decodes a histogram encoded by {@link #encode()} from the (ASCII) bytes of the encoded string, e.g. straight
+     * from a received packet.
+     *
+     * @param encoded the bytes holding the encoded histogram
+     * @param offset the index of its first byte
+     * @param length its number of bytes
+     * @return the histogram
+     * @throws IllegalArgumentException if the bytes are not a valid histogram
+     */
+    public static LogHistogram decode(byte[] encoded, int offset, int length) {
+        return decode(ByteBuffer.wrap(encoded), offset, length);
+    }
+
+    /**
+     * Decodes a histogram encoded by {@link #encode()} from the (ASCII) bytes of the encoded string in a buffer, which
+     * may be direct; the position and limit of the buffer are not changed.
+     *
+     * @param encoded the buffer holding the encoded histogram
+     * @param offset the index of its first byte
+     * @param length its number of bytes
+     * @return the histogram
+     * @throws IllegalArgumentException if the bytes are not a valid histogram
+     */
+    public static LogHistogram decode(ByteBuffer encoded, int offset, int length) {
+        ByteBuffer part = encoded.duplicate();
+        part.limit(offset + length).position(offset);
+        ByteBuffer decoded = Base64.getUrlDecoder().decode(part);
+        return decode(Arrays.copyOf(decoded.array(), decoded.remaining()));
+    }
+
+    private static LogHistogram decode(byte[] data) {
+        LogHistogram histogram = new LogHistogram();
+        int[] position = {0};
+        histogram.max = readVarint(data, position);
+        int index = -1;
+        while (position[0] < data.length) {
+            index += (int) readVarint(data, position);
+            long bucketCount = readVarint(data, position);
+            if (index < 0 || index >= BUCKETS || bucketCount < 0) {
+                throw new IllegalArgumentException("Invalid histogram bucket " + index);
+            }
+            histogram.counts[index] += bucketCount;
+            histogram.count += bucketCount;
+        }
+        return histogram;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + mantissa;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        long mantissa = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long upper = ((mantissa + 1) << (exponent - SUB_BITS)) - 1;
+        //the last bucket would overflow
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] position) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= data.length) {
+                throw new IllegalArgumentException("Truncated histogram");
+            }
+            byte b = data[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid varint in histogram");
+    }
+}
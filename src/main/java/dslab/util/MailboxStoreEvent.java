@@ -0,0 +1,47 @@
+package dslab.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for an operation on the stored mails of a mailbox server user (save, list, load or delete),
+ * including the wait for locks. Only operations taking longer than 1 ms are recorded by default.
+ */
+@Name("dslab.MailboxStore")
+@Label("Mailbox Store")
+@Category({"DSLab", "Mailbox"})
+@Description("Operation on the stored mails of a user")
+@StackTrace(false)
+@Threshold("1 ms")
+public class MailboxStoreEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("User")
+    String user;
+
+    @Label("Found")
+    boolean found;
+
+    /**
+     * Ends the event and records it if it lasted longer than the configured threshold.
+     *
+     * @param operation save, list, load or delete
+     * @param user the user
+     * @param found whether the user (and the mail, for load and delete) exists
+     */
+    public void commit(String operation, String user, boolean found) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.user = user;
+            this.found = found;
+            commit();
+        }
+    }
+}
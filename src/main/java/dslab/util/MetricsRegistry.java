@@ -0,0 +1,259 @@
+package dslab.util;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.*;
+
+/**
+ * Counters, gauges and histograms of one component, by name (e.g. <code>dmtp.commands.send</code>). Metrics are
+ * created on first use and live as long as the registry. The registry can be published as a JMX MBean
+ * (<code>dslab:type=Metrics,component=...</code>), with one attribute per counter and gauge and count, percentiles
+ * and maximum of every histogram.
+ */
+public class MetricsRegistry {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final String component;
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private ObjectName mbeanName;
+
+    /**
+     * @param component the id of the component, names the MBean
+     */
+    public MetricsRegistry(String component) {
+        this.component = component;
+    }
+
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void decrement() {
+            value.decrement();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    public static class Histogram {
+        private final LogHistogram histogram = new LogHistogram();
+
+        public synchronized void record(long value) {
+            histogram.record(value);
+        }
+
+        public synchronized long getCount() {
+            return histogram.getCount();
+        }
+
+        public synchronized long getMax() {
+            return histogram.getMax();
+        }
+
+        public synchronized long valueAt(double quantile) {
+            return histogram.valueAt(quantile);
+        }
+    }
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Registers a gauge, replacing the one registered before under this name.
+     *
+     * @param name the name of the gauge
+     * @param value supplies the current value
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * @return the current values, sorted by name: "name value" for counters and gauges, and
+     * "name count=n p50=v p90=v p99=v max=v" for histograms
+     */
+    public String[] report() {
+        SortedMap<String, String> lines = new TreeMap<>();
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            lines.put(counter.getKey(), counter.getKey() + " " + counter.getValue().get());
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            lines.put(gauge.getKey(), gauge.getKey() + " " + gauge.getValue().getAsLong());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            StringBuilder line = new StringBuilder(entry.getKey());
+            synchronized (histogram) {
+                line.append(" count=").append(histogram.getCount());
+                for (double q : QUANTILES) {
+                    line.append(" p").append(Math.round(q * 100)).append('=').append(histogram.valueAt(q));
+                }
+                line.append(" max=").append(histogram.getMax());
+            }
+            lines.put(entry.getKey(), line.toString());
+        }
+        return lines.values().toArray(new String[0]);
+    }
+
+    /**
+     * Wraps a stream to count the bytes read from it.
+     */
+    public static InputStream counting(InputStream in, Counter bytes) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytes.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len) throws IOException {
+                int n = super.read(buffer, off, len);
+                if (n > 0) {
+                    bytes.add(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream to count the bytes written to it.
+     */
+    public static OutputStream counting(OutputStream out, Counter bytes) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytes.increment();
+            }
+
+            @Override
+            public void write(byte[] buffer, int off, int len) throws IOException {
+                out.write(buffer, off, len);
+                bytes.add(len);
+            }
+        };
+    }
+
+    /**
+     * Publishes the registry on the platform MBean server, replacing an MBean of a former component with this id.
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("dslab", new Hashtable<>(Map.of("type", "Metrics",
+                    "component", ObjectName.quote(component))));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MetricsMBean(), name);
+            mbeanName = name;
+        } catch (JMException e) {
+            Log.warn("Could not register metrics MBean of " + component + ": " + e);
+        }
+    }
+
+    public void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (JMException e) {
+            //already gone
+        }
+        mbeanName = null;
+    }
+
+    //attributes are read when asked for, so metrics created later show up too
+    private class MetricsMBean implements DynamicMBean {
+        private Map<String, LongSupplier> attributes() {
+            Map<String, LongSupplier> attributes = new TreeMap<>();
+            counters.forEach((name, counter) -> attributes.put(name, counter::get));
+            attributes.putAll(gauges);
+            histograms.forEach((name, histogram) -> {
+                attributes.put(name + ".count", histogram::getCount);
+                for (double q : QUANTILES) {
+                    attributes.put(name + ".p" + Math.round(q * 100), () -> histogram.valueAt(q));
+                }
+                attributes.put(name + ".max", histogram::getMax);
+            });
+            return attributes;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongSupplier value = attributes().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value.getAsLong();
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            Map<String, LongSupplier> attributes = attributes();
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                LongSupplier value = attributes.get(name);
+                if (value != null) {
+                    list.add(new Attribute(name, value.getAsLong()));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            for (String name : attributes().keySet()) {
+                infos.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            return new MBeanInfo(MetricsRegistry.class.getName(), "Metrics of " + component,
+                    infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
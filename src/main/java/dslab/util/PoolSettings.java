@@ -0,0 +1,89 @@
+package dslab.util;
+
+/**
+ * Size of a {@link WorkerPool}, read from the component config with a key prefix (e.g. dmtp or delivery):
+ * <ul>
+ *     <li><code>prefix.threads</code>: the number of threads</li>
+ *     <li><code>prefix.queue</code>: tasks that may wait for a thread (default 0, unbounded)</li>
+ *     <li><code>prefix.autotune</code>: <code>true</code> to adapt the number of threads to the time tasks wait in
+ *     the queue, between <code>prefix.threads.min</code> and <code>prefix.threads.max</code> (default 1 and 4 times
+ *     the threads), aiming at <code>prefix.autotune.wait</code> milliseconds (default 50)</li>
+ * </ul>
+ */
+public class PoolSettings {
+    private static final int DEFAULT_TARGET_WAIT = 50;
+    private static final int DEFAULT_MAX_FACTOR = 4;
+
+    private final int threads;
+    private final int queueCapacity;
+    private final boolean autoTune;
+    private final int minThreads;
+    private final int maxThreads;
+    private final int targetWait;
+
+    /**
+     * A pool of a fixed number of threads with an unbounded queue.
+     *
+     * @param threads the number of threads
+     */
+    public PoolSettings(int threads) {
+        this(threads, 0, false, threads, threads, DEFAULT_TARGET_WAIT);
+    }
+
+    public PoolSettings(int threads, int queueCapacity, boolean autoTune, int minThreads, int maxThreads,
+                        int targetWait) {
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.autoTune = autoTune;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.targetWait = targetWait;
+    }
+
+    /**
+     * Reads the settings of a pool from the config.
+     *
+     * @param config the component config
+     * @param prefix the key prefix
+     * @param threads the number of threads if the config does not set it
+     * @return the settings
+     */
+    public static PoolSettings from(Config config, String prefix, int threads) {
+        if (config.containsKey(prefix + ".threads")) {
+            threads = config.getInt(prefix + ".threads");
+        }
+        int queueCapacity = config.containsKey(prefix + ".queue") ? config.getInt(prefix + ".queue") : 0;
+        boolean autoTune = config.containsKey(prefix + ".autotune")
+                && Boolean.parseBoolean(config.getString(prefix + ".autotune"));
+        int minThreads = config.containsKey(prefix + ".threads.min") ? config.getInt(prefix + ".threads.min") : 1;
+        int maxThreads = config.containsKey(prefix + ".threads.max")
+                ? config.getInt(prefix + ".threads.max") : threads * DEFAULT_MAX_FACTOR;
+        int targetWait = config.containsKey(prefix + ".autotune.wait")
+                ? config.getInt(prefix + ".autotune.wait") : DEFAULT_TARGET_WAIT;
+        return new PoolSettings(threads, queueCapacity, autoTune, minThreads, maxThreads, targetWait);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public boolean isAutoTune() {
+        return autoTune;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getTargetWait() {
+        return targetWait;
+    }
+}
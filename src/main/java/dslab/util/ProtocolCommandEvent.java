@@ -0,0 +1,54 @@
+package dslab.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for the handling of one DMTP or DMAP command by a server, from the parsed line to the
+ * response (the wait for the line is not included). Commands are frequent, so by default only those taking longer than
+ * 1 ms are recorded. Started with {@link #begin()}, the attributes are only filled in when the event is recorded:
+ * <pre>
+ * ProtocolCommandEvent event = new ProtocolCommandEvent();
+ * event.begin();
+ * ...
+ * event.commit("DMTP", command, client);
+ * </pre>
+ */
+@Name("dslab.ProtocolCommand")
+@Label("Protocol Command")
+@Category({"DSLab", "Protocol"})
+@Description("Handling of a DMTP or DMAP command")
+@StackTrace(false)
+@Threshold("1 ms")
+public class ProtocolCommandEvent extends Event {
+    @Label("Protocol")
+    String protocol;
+
+    @Label("Command")
+    String command;
+
+    @Label("Client")
+    String client;
+
+    /**
+     * Ends the event and records it if it lasted longer than the configured threshold.
+     *
+     * @param protocol DMTP or DMAP
+     * @param command the command, as sent by the client
+     * @param client the client socket
+     */
+    public void commit(String protocol, String command, Object client) {
+        end();
+        if (shouldCommit()) {
+            this.protocol = protocol;
+            this.command = command;
+            this.client = String.valueOf(client);
+            commit();
+        }
+    }
+}
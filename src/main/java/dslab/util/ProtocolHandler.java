@@ -0,0 +1,18 @@
+package dslab.util;
+
+import java.io.IOException;
+
+/**
+ * The protocol of a server run by a {@link ListenerThread}: handles the session of one client. One handler serves all
+ * sessions, concurrently, so it keeps the state of a session in local variables.
+ */
+public interface ProtocolHandler {
+    /**
+     * Handles the session on the calling thread until the client quits. The socket is closed by the listener
+     * afterwards; a closed socket (server shutdown) or a read timeout end the session with an exception.
+     *
+     * @param session the client session
+     * @throws IOException if reading from or writing to the client failed
+     */
+    void handle(ClientSession session) throws IOException;
+}
@@ -0,0 +1,128 @@
+package dslab.util;
+
+/**
+ * How a {@link ListenerThread} runs its sessions, read from the component config with the protocol as key prefix:
+ * <ul>
+ *     <li>the size of the pool, see {@link PoolSettings}; with <code>protocol.queue</code> set, clients that find
+ *     the queue full are turned away busy</li>
+ *     <li><code>protocol.executor</code>: <code>pool</code> (a fixed number of threads, default) or
+ *     <code>virtual</code> (one virtual thread per session, if the JVM has them)</li>
+ *     <li><code>protocol.max.connections</code>: connections accepted at the same time, further ones are turned away
+ *     busy (default 0, unlimited)</li>
+ *     <li><code>protocol.max.connections.per.ip</code>: the same per client address (default 0, unlimited)</li>
+ *     <li><code>protocol.timeout.greeting</code>, <code>protocol.timeout.command</code> and
+ *     <code>protocol.timeout.data</code>: milliseconds a session may wait for a line of the client in the
+ *     {@link ClientSession.Phase phase}, before it is closed (0 waits forever)</li>
+ *     <li><code>protocol.session.deadline</code>: milliseconds a session may last in total (default 0, unlimited)</li>
+ *     <li><code>protocol.shed.wait</code>: milliseconds a session may wait in the queue for a thread, if it waited
+ *     longer it is turned away busy (default 0, unlimited)</li>
+ * </ul>
+ */
+public class ServerSettings {
+    public enum Execution {
+        POOL, VIRTUAL
+    }
+
+    private static final int DEFAULT_GREETING_TIMEOUT = 30000;
+    //the message client keeps its DMAP session open while the user is idle, so this is generous; it still ends idle
+    //sessions, which otherwise hold a pool thread for good
+    private static final int DEFAULT_COMMAND_TIMEOUT = 30 * 60 * 1000;
+    private static final int DEFAULT_DATA_TIMEOUT = 30000;
+
+    private final PoolSettings pool;
+    private final Execution execution;
+    private final int maxConnections;
+    private final int maxConnectionsPerIp;
+    private final int greetingTimeout;
+    private final int commandTimeout;
+    private final int dataTimeout;
+    private final int sessionDeadline;
+    private final int shedWait;
+
+    /**
+     * Settings of a fixed pool without limits and timeouts.
+     *
+     * @param threads the number of pool threads
+     */
+    public ServerSettings(int threads) {
+        this(new PoolSettings(threads), Execution.POOL, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    public ServerSettings(PoolSettings pool, Execution execution, int maxConnections, int maxConnectionsPerIp,
+                          int greetingTimeout, int commandTimeout, int dataTimeout, int sessionDeadline,
+                          int shedWait) {
+        this.pool = pool;
+        this.execution = execution;
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerIp = maxConnectionsPerIp;
+        this.greetingTimeout = greetingTimeout;
+        this.commandTimeout = commandTimeout;
+        this.dataTimeout = dataTimeout;
+        this.sessionDeadline = sessionDeadline;
+        this.shedWait = shedWait;
+    }
+
+    /**
+     * Reads the settings of a protocol from the config.
+     *
+     * @param config the component config
+     * @param protocol the key prefix, e.g. dmtp
+     * @param threads the number of pool threads if the config does not set it
+     * @return the settings
+     */
+    public static ServerSettings from(Config config, String protocol, int threads) {
+        Execution execution = config.containsKey(protocol + ".executor")
+                ? Execution.valueOf(config.getString(protocol + ".executor").trim().toUpperCase()) : Execution.POOL;
+        return new ServerSettings(PoolSettings.from(config, protocol, threads), execution,
+                getInt(config, protocol + ".max.connections", 0),
+                getInt(config, protocol + ".max.connections.per.ip", 0),
+                getInt(config, protocol + ".timeout.greeting", DEFAULT_GREETING_TIMEOUT),
+                getInt(config, protocol + ".timeout.command", DEFAULT_COMMAND_TIMEOUT),
+                getInt(config, protocol + ".timeout.data", DEFAULT_DATA_TIMEOUT),
+                getInt(config, protocol + ".session.deadline", 0),
+                getInt(config, protocol + ".shed.wait", 0));
+    }
+
+    private static int getInt(Config config, String key, int defaultValue) {
+        return config.containsKey(key) ? config.getInt(key) : defaultValue;
+    }
+
+    public PoolSettings getPool() {
+        return pool;
+    }
+
+    public Execution getExecution() {
+        return execution;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsPerIp() {
+        return maxConnectionsPerIp;
+    }
+
+    /**
+     * @param phase the phase of a session
+     * @return the read timeout in milliseconds, 0 for none
+     */
+    public int getTimeout(ClientSession.Phase phase) {
+        switch (phase) {
+            case GREETING:
+                return greetingTimeout;
+            case DATA:
+                return dataTimeout;
+            default:
+                return commandTimeout;
+        }
+    }
+
+    public int getSessionDeadline() {
+        return sessionDeadline;
+    }
+
+    public int getShedWait() {
+        return shedWait;
+    }
+}
@@ -0,0 +1,170 @@
+package dslab.util;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread pool whose number of threads can be changed while it runs ({@link #resize(int)}), by hand or by an auto-tuner
+ * that adds threads while tasks wait longer than the target wait and removes them while threads are idle. Tasks
+ * are submitted with {@link #execute(Runnable)}; when the bounded queue is full it throws a
+ * {@link java.util.concurrent.RejectedExecutionException}.
+ *
+ * Metrics (with the name as prefix): <code>threads</code>, <code>active</code> and <code>queued</code> (gauges), and
+ * the histogram <code>queue.wait_us</code> of the time tasks waited for a thread.
+ */
+public class WorkerPool extends ThreadPoolExecutor {
+    private static final long KEEP_ALIVE = 60;
+    private static final long TUNE_INTERVAL = 1000;
+
+    private final String name;
+    private final PoolSettings settings;
+    private final MetricsRegistry.Histogram queueWait;
+    //waits since the last tuning step
+    private final LongAdder waitSum = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+    private final ScheduledExecutorService tuner;
+    private volatile double lastWait;
+
+    /**
+     * @param name the name of the pool threads and prefix of the metric names
+     * @param settings the size of the pool
+     * @param metrics the metrics of the server
+     */
+    public WorkerPool(String name, PoolSettings settings, MetricsRegistry metrics) {
+        super(settings.getThreads(), settings.getThreads(), KEEP_ALIVE, TimeUnit.SECONDS, queue(settings),
+                threadFactory(name));
+        this.name = name;
+        this.settings = settings;
+        queueWait = metrics.histogram(name + ".queue.wait_us");
+        metrics.gauge(name + ".threads", this::getCorePoolSize);
+        metrics.gauge(name + ".active", this::getActiveCount);
+        metrics.gauge(name + ".queued", () -> getQueue().size());
+
+        if (settings.isAutoTune()) {
+            tuner = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, name + "-tuner");
+                thread.setDaemon(true);
+                return thread;
+            });
+            tuner.scheduleAtFixedRate(this::tune, TUNE_INTERVAL, TUNE_INTERVAL, TimeUnit.MILLISECONDS);
+        } else {
+            tuner = null;
+        }
+    }
+
+    private static BlockingQueue<Runnable> queue(PoolSettings settings) {
+        return settings.getQueueCapacity() > 0
+                ? new ArrayBlockingQueue<>(settings.getQueueCapacity()) : new LinkedBlockingQueue<>();
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> new Thread(r, name + "-" + count.incrementAndGet());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        super.execute(new Queued(task, System.nanoTime()));
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable task) {
+        if (task instanceof Queued) {
+            long wait = (System.nanoTime() - ((Queued) task).queued) / 1000;
+            queueWait.record(wait);
+            waitSum.add(wait);
+            waitCount.increment();
+        }
+    }
+
+    /**
+     * @return how long the oldest queued task has been waiting for a thread in milliseconds, 0 if none is queued
+     */
+    public long oldestWait() {
+        Runnable head = getQueue().peek();
+        return head instanceof Queued ? (System.nanoTime() - ((Queued) head).queued) / 1_000_000 : 0;
+    }
+
+    /**
+     * Sets the number of threads. Added threads start with the next task; removed threads finish their task first.
+     *
+     * @param threads the number of threads, at least 1
+     */
+    public synchronized void resize(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("A pool needs at least one thread");
+        }
+        //the core size must never exceed the maximum size
+        if (threads > getMaximumPoolSize()) {
+            setMaximumPoolSize(threads);
+            setCorePoolSize(threads);
+        } else {
+            setCorePoolSize(threads);
+            setMaximumPoolSize(threads);
+        }
+    }
+
+    //one step of the auto-tuner: grow by a quarter while tasks wait too long, shrink by one while threads idle
+    private void tune() {
+        long count = waitCount.sumThenReset();
+        double wait = count == 0 ? 0 : waitSum.sumThenReset() / 1000.0 / count;
+        lastWait = wait;
+        int threads = getCorePoolSize();
+        int target = threads;
+        if (wait > settings.getTargetWait() || (count == 0 && !getQueue().isEmpty())) {
+            target = Math.min(settings.getMaxThreads(), threads + Math.max(1, threads / 4));
+        } else if (wait < settings.getTargetWait() / 10.0 && getActiveCount() < threads / 2) {
+            target = Math.max(settings.getMinThreads(), threads - 1);
+        }
+        if (target != threads) {
+            resize(target);
+            Log.info(name + ": " + threads + " -> " + target + " threads (queue wait "
+                    + String.format(Locale.ROOT, "%.1f", wait) + " ms)");
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (tuner != null) {
+            tuner.shutdown();
+        }
+        super.shutdown();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s threads=%d active=%d queued=%d%s", name, getCorePoolSize(),
+                getActiveCount(), getQueue().size(), settings.isAutoTune()
+                        ? String.format(Locale.ROOT, " autotune=%d..%d wait=%.1fms", settings.getMinThreads(),
+                        settings.getMaxThreads(), lastWait) : "");
+    }
+
+    //a task with the time it was queued at
+    private static class Queued implements Runnable {
+        private final Runnable task;
+        private final long queued;
+
+        Queued(Runnable task, long queued) {
+            this.task = task;
+            this.queued = queued;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package dslab.mailbox;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.net.ServerSocket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import dslab.JunitSocketClient;
+import dslab.TestBase;
+import dslab.util.Config;
+import dslab.util.ListenerThread;
+import dslab.util.MetricsRegistry;
+import dslab.util.PoolSettings;
+import dslab.util.ServerSettings;
+
+/**
+ * Tests the limits a listener puts on the DMTP sessions of a mailbox server: the read timeout of each phase, the
+ * connections per client address, and turning clients away busy when the server is over capacity.
+ */
+public class DmtpSessionProtocolTest extends TestBase {
+
+    private static final int TIMEOUT = 500;
+
+    private final MetricsRegistry metrics = new MetricsRegistry("mailbox-test");
+    private ListenerThread listener;
+    private int port;
+
+    private void start(int maxConnectionsPerIp) throws Exception {
+        start(new ServerSettings(new PoolSettings(4), ServerSettings.Execution.POOL, 0,
+                maxConnectionsPerIp, TIMEOUT, TIMEOUT, TIMEOUT, 0, 0));
+    }
+
+    private void start(ServerSettings settings) throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        UserData userData = new UserData(new Config("users-earth-planet"), "mailbox-test");
+        listener = new ListenerThread("DmtpSessionProtocolTest", "dmtp", serverSocket, settings,
+                new DmtpClientConnection("earth.planet", userData, metrics), metrics);
+        listener.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (listener != null) {
+            listener.shutdown();
+            listener.join(1000);
+        }
+    }
+
+    //waits up to a few timeouts for the counter to reach the value
+    private long awaitCount(String counter, long value) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10 * TIMEOUT;
+        while (metrics.counter(counter).get() < value && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        return metrics.counter(counter).get();
+    }
+
+    @Test
+    public void silentClient_isReapedAfterGreetingTimeout() throws Exception {
+        start(0);
+        try (JunitSocketClient client = new JunitSocketClient(port, err)) {
+            client.verify("ok DMTP");
+            err.checkThat(awaitCount("dmtp.sessions.reaped.greeting", 1), is(1L));
+        }
+    }
+
+    @Test
+    public void idleClient_isReapedAfterCommandTimeout() throws Exception {
+        start(0);
+        try (JunitSocketClient client = new JunitSocketClient(port, err)) {
+            client.verify("ok DMTP");
+            client.sendAndVerify("begin", "ok");
+            client.sendAndVerify("from arthur@earth.planet", "ok");
+            err.checkThat(awaitCount("dmtp.sessions.reaped.command", 1), is(1L));
+            err.checkThat("reaped in the command phase only",
+                    metrics.counter("dmtp.sessions.reaped.greeting").get(), is(0L));
+        }
+    }
+
+    @Test
+    public void activeClient_isNotReaped() throws Exception {
+        start(0);
+        try (JunitSocketClient client = new JunitSocketClient(port, err)) {
+            client.verify("ok DMTP");
+            client.sendAndVerify("begin", "ok");
+            //each command within the timeout, the whole session longer than it
+            for (int i = 0; i < 4; i++) {
+                Thread.sleep(TIMEOUT / 2);
+                client.sendAndVerify("subject hello " + i, "ok");
+            }
+            client.sendAndVerify("quit", "ok bye");
+        }
+    }
+
+    @Test
+    public void connectionsPerIp_overLimitAreTurnedAwayBusy() throws Exception {
+        start(2);
+        JunitSocketClient first = new JunitSocketClient(port, err);
+        try (JunitSocketClient second = new JunitSocketClient(port, err)) {
+            first.verify("ok DMTP");
+            second.verify("ok DMTP");
+            try (JunitSocketClient third = new JunitSocketClient(port, err)) {
+                third.verify(ListenerThread.BUSY);
+            }
+            err.checkThat(metrics.counter("dmtp.connections.rejected.ip").get(), is(1L));
+
+            //a finished session frees its slot
+            first.close();
+            Thread.sleep(200);
+            try (JunitSocketClient fourth = new JunitSocketClient(port, err)) {
+                fourth.verify("ok DMTP");
+                fourth.sendAndVerify("begin", "ok");
+                fourth.sendAndVerify("quit", "ok bye");
+            }
+        }
+    }
+
+    @Test
+    public void maxConnections_overLimitAreTurnedAwayBusy() throws Exception {
+        start(new ServerSettings(new PoolSettings(4), ServerSettings.Execution.POOL, 1, 0, TIMEOUT, TIMEOUT,
+                TIMEOUT, 0, 0));
+        try (JunitSocketClient first = new JunitSocketClient(port, err)) {
+            first.verify("ok DMTP");
+            try (JunitSocketClient second = new JunitSocketClient(port, err)) {
+                second.verify(ListenerThread.BUSY);
+            }
+            first.sendAndVerify("begin", "ok");
+            first.sendAndVerify("quit", "ok bye");
+        }
+        err.checkThat(metrics.counter("dmtp.connections.rejected").get(), is(1L));
+    }
+
+    @Test
+    public void fullQueue_turnsClientsAwayBusy() throws Exception {
+        //one thread and one waiting session
+        start(new ServerSettings(new PoolSettings(1, 1, false, 1, 1, 50), ServerSettings.Execution.POOL, 0, 0,
+                10 * TIMEOUT, 10 * TIMEOUT, 10 * TIMEOUT, 0, 0));
+        try (JunitSocketClient first = new JunitSocketClient(port, err);
+             JunitSocketClient second = new JunitSocketClient(port, err)) {
+            first.verify("ok DMTP");
+            Thread.sleep(100);
+            try (JunitSocketClient third = new JunitSocketClient(port, err)) {
+                third.verify(ListenerThread.BUSY);
+            }
+            err.checkThat(metrics.counter("dmtp.connections.rejected.queue").get(), is(1L));
+
+            //the queued session gets its turn once the first one quits
+            first.sendAndVerify("begin", "ok");
+            first.sendAndVerify("quit", "ok bye");
+            second.verify("ok DMTP");
+        }
+    }
+
+    @Test
+    public void queuedClient_isShedAfterShedWait() throws Exception {
+        start(new ServerSettings(new PoolSettings(1, 4, false, 1, 1, 50), ServerSettings.Execution.POOL, 0, 0,
+                10 * TIMEOUT, 10 * TIMEOUT, 10 * TIMEOUT, 0, TIMEOUT / 2));
+        try (JunitSocketClient first = new JunitSocketClient(port, err)) {
+            first.verify("ok DMTP");
+            long start = System.currentTimeMillis();
+            try (JunitSocketClient second = new JunitSocketClient(port, err)) {
+                second.verify(ListenerThread.BUSY);
+            }
+            long waited = System.currentTimeMillis() - start;
+            err.checkThat("shed while the first session still runs, after " + waited + " ms",
+                    waited < 5 * TIMEOUT, is(true));
+            err.checkThat(metrics.counter("dmtp.connections.shed").get(), is(1L));
+
+            first.sendAndVerify("begin", "ok");
+            first.sendAndVerify("quit", "ok bye");
+        }
+    }
+}
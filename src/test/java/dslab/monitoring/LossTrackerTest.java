@@ -0,0 +1,100 @@
+package dslab.monitoring;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+/**
+ * Tests detecting lost, duplicated and reordered monitoring records from the sequence numbers of their sources, and
+ * evicting idle sources.
+ */
+public class LossTrackerTest {
+
+    private static final String SERVER = "127.0.0.1:16201";
+
+    @Rule
+    public ErrorCollector err = new ErrorCollector();
+
+    private final LossTracker tracker = new LossTracker();
+
+    private void record(SocketAddress source, long... sequences) {
+        for (long sequence : sequences) {
+            tracker.record(source, SERVER, sequence);
+        }
+    }
+
+    //received, lost, duplicates, reordered, sources
+    private long[] totals() {
+        SortedMap<String, long[]> totals = tracker.totals();
+        return totals.isEmpty() ? new long[5] : totals.get(SERVER);
+    }
+
+    @Test
+    public void record_countsGapsAsLost() {
+        SocketAddress source = new InetSocketAddress("127.0.0.1", 50001);
+        record(source, 1, 2, 3, 6, 7);
+
+        err.checkThat(Arrays.toString(totals()), is("[5, 2, 0, 0, 1]"));
+        err.checkThat(tracker.getLoss(),
+                is(new String[]{SERVER + " received=5 lost=2 (28.57%) duplicates=0 reordered=0 sources=1"}));
+    }
+
+    @Test
+    public void record_tellsLateRecordsFromDuplicates() {
+        SocketAddress source = new InetSocketAddress("127.0.0.1", 50001);
+        record(source, 1, 3, 2, 3, 4, 1);
+
+        err.checkThat("the late record 2 is no longer lost", Arrays.toString(totals()), is("[4, 0, 2, 1, 1]"));
+    }
+
+    @Test
+    public void record_countsRecordsOlderThanWindowAsReordered() {
+        SocketAddress source = new InetSocketAddress("127.0.0.1", 50001);
+        record(source, 1, 2 + LossTracker.WINDOW);
+        err.checkThat(Arrays.toString(totals()), is("[2, " + LossTracker.WINDOW + ", 0, 0, 1]"));
+
+        record(source, 2);
+        err.checkThat(Arrays.toString(totals()), is("[3, " + (LossTracker.WINDOW - 1) + ", 0, 1, 1]"));
+    }
+
+    @Test
+    public void totals_addUpSourcesOfServer() {
+        //a restarted transfer server numbers from 1 again on a new socket
+        record(new InetSocketAddress("127.0.0.1", 50001), 1, 2, 4);
+        record(new InetSocketAddress("127.0.0.1", 50002), 1, 2);
+
+        err.checkThat(Arrays.toString(totals()), is("[5, 1, 0, 0, 2]"));
+        err.checkThat(new LossTracker().getLoss().length, is(0));
+    }
+
+    @Test
+    public void evictIdle_dropsIdleSourcesButKeepsTheirCounts() {
+        AtomicLong now = new AtomicLong(1000);
+        LossTracker tracker = new LossTracker(now::get);
+        SocketAddress restarted = new InetSocketAddress("127.0.0.1", 50001);
+        SocketAddress current = new InetSocketAddress("127.0.0.1", 50002);
+        for (long sequence : new long[]{1, 2, 4}) {
+            tracker.record(restarted, SERVER, sequence);
+        }
+        now.addAndGet(LossTracker.EVICT_IDLE);
+        tracker.record(current, SERVER, 1);
+        tracker.record(current, SERVER, 1);
+
+        now.addAndGet(1);
+        tracker.evictIdle();
+        err.checkThat("only the idle source is dropped", Arrays.toString(tracker.totals().get(SERVER)),
+                is("[4, 1, 1, 0, 1]"));
+
+        now.addAndGet(LossTracker.EVICT_IDLE);
+        tracker.evictIdle();
+        err.checkThat(Arrays.toString(tracker.totals().get(SERVER)), is("[4, 1, 1, 0, 0]"));
+    }
+}
@@ -0,0 +1,78 @@
+package dslab.monitoring;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+/**
+ * Tests that the lock-free counters of the monitor data count every record of concurrent receivers, and that queries
+ * list the counts highest first.
+ */
+public class MonitorDataTest {
+
+    @Rule
+    public ErrorCollector err = new ErrorCollector();
+
+    @Test
+    public void add_countsPerAddressAndServer() {
+        MonitorData data = new MonitorData();
+        data.add("127.0.0.1:16201", "trillian@earth.planet");
+        data.add("127.0.0.1:16201", "zaphod@univer.ze");
+        data.add("127.0.0.1:16202", "trillian@earth.planet");
+        data.add("127.0.0.1:16201", "trillian@earth.planet");
+
+        err.checkThat(Arrays.asList(data.getAddresses()),
+                is(Arrays.asList("trillian@earth.planet 3", "zaphod@univer.ze 1")));
+        err.checkThat(Arrays.asList(data.getServers()),
+                is(Arrays.asList("127.0.0.1:16201 3", "127.0.0.1:16202 1")));
+        err.checkThat(new MonitorData().getAddresses().length, is(0));
+    }
+
+    @Test(timeout = 30000)
+    public void add_losesNoCountsUnderConcurrency() throws Exception {
+        MonitorData data = new MonitorData();
+        int threads = 8;
+        int records = 20000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> receivers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String server = "127.0.0.1:" + (16200 + t % 2);
+            Thread receiver = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < records; i++) {
+                    data.add(server, "user" + (i % 10) + "@earth.planet");
+                }
+            });
+            receiver.start();
+            receivers.add(receiver);
+        }
+        start.countDown();
+        //queries run while the receivers count
+        while (receivers.get(0).isAlive()) {
+            data.getAddresses();
+            data.getServers();
+        }
+        for (Thread receiver : receivers) {
+            receiver.join();
+        }
+
+        long perAddress = (long) threads * records / 10;
+        err.checkThat(data.addressCounts().size(), is(10));
+        for (long count : data.addressCounts().values()) {
+            err.checkThat(count, is(perAddress));
+        }
+        err.checkThat(data.serverCounts().get("127.0.0.1:16200"), is((long) threads / 2 * records));
+        err.checkThat(data.serverCounts().get("127.0.0.1:16201"), is((long) threads / 2 * records));
+    }
+}
@@ -0,0 +1,136 @@
+package dslab.monitoring;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import dslab.util.LogHistogram;
+
+/**
+ * Tests parsing monitoring records from the received bytes, which has to accept the same records as the pattern
+ * <code>(\d+\.){3}\d+:\d+ .*@.*</code>.
+ */
+public class RecordParserTest {
+
+    @Rule
+    public ErrorCollector err = new ErrorCollector();
+
+    private final RecordParser parser = new RecordParser();
+
+    private boolean parse(String record) {
+        //a receive buffer is larger than the record
+        byte[] data = new byte[256];
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, data, 0, bytes.length);
+        return parser.parse(data, bytes.length);
+    }
+
+    @Test
+    public void parse_splitsServerAndAddress() {
+        err.checkThat(parse("127.0.0.1:16201 trillian@earth.planet"), is(true));
+        err.checkThat(parser.server(), is("127.0.0.1:16201"));
+        err.checkThat(parser.address(), is("trillian@earth.planet"));
+        err.checkThat(parser.sequence(), is(-1L));
+
+        err.checkThat(parse("127.0.0.1:16201 zaphod@univer.ze"), is(true));
+        err.checkThat("server string is reused", parser.server(), is("127.0.0.1:16201"));
+        err.checkThat(parser.address(), is("zaphod@univer.ze"));
+    }
+
+    @Test
+    public void parse_readsSequenceNumber() {
+        err.checkThat(parse("127.0.0.1:16201 trillian@earth.planet 42"), is(true));
+        err.checkThat(parser.address(), is("trillian@earth.planet"));
+        err.checkThat(parser.sequence(), is(42L));
+
+        err.checkThat(parse("127.0.0.1:16201 trillian@earth.planet x42"), is(true));
+        err.checkThat("a third part with other characters is no sequence number", parser.sequence(), is(-1L));
+        err.checkThat(parse("127.0.0.1:16201 trillian@earth.planet "), is(true));
+        err.checkThat(parser.sequence(), is(-1L));
+    }
+
+    @Test
+    public void parse_rejectsRecordsNotMatchingPattern() {
+        err.checkThat(parse(""), is(false));
+        err.checkThat(parse("127.0.0.1:16201"), is(false));
+        err.checkThat(parse("127.0.0.1:16201 trillian"), is(false));
+        err.checkThat(parse("127.0.0:16201 trillian@earth.planet"), is(false));
+        err.checkThat(parse("127.0.0.1 trillian@earth.planet"), is(false));
+        err.checkThat(parse("localhost:16201 trillian@earth.planet"), is(false));
+        err.checkThat(parse("127.0.0.1:16201 trillian@earth\n.planet"), is(false));
+        err.checkThat(parse("127.0.0.1:16201  trillian@earth.planet"), is(true));
+        err.checkThat("an empty address matches .*@.* like before", parser.address(), is(""));
+    }
+
+    @Test
+    public void parse_decodesNonAsciiRecords() {
+        err.checkThat(parse("127.0.0.1:16201 träillian@earth.planet 7"), is(true));
+        err.checkThat(parser.server(), is("127.0.0.1:16201"));
+        err.checkThat(parser.address(), is(new String("träillian@earth.planet".getBytes(StandardCharsets.UTF_8))));
+        err.checkThat(parser.sequence(), is(7L));
+        err.checkThat(parse("127.0.0.1:16201 träillian"), is(false));
+    }
+
+    @Test
+    public void parse_readsDirectReceiveBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+        buffer.put("127.0.0.1:16201 trillian@earth.planet 9".getBytes(StandardCharsets.US_ASCII));
+        int length = buffer.position();
+        err.checkThat(parser.parse(buffer, length), is(true));
+        err.checkThat(parser.server(), is("127.0.0.1:16201"));
+        err.checkThat(parser.address(), is("trillian@earth.planet"));
+        err.checkThat(parser.sequence(), is(9L));
+
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(42);
+        buffer.clear();
+        buffer.put(("H 127.0.0.1:16201 delivery.size " + histogram.encode()).getBytes(StandardCharsets.US_ASCII));
+        length = buffer.position();
+        err.checkThat(parser.parseHistogram(buffer, length), is(true));
+        err.checkThat(parser.histogram().encode(), is(histogram.encode()));
+        err.checkThat("the buffer is not moved", buffer.position(), is(length));
+    }
+
+    @Test
+    public void parseHistogram_readsParts() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(1500);
+        histogram.record(20);
+        String encoded = histogram.encode();
+
+        byte[] data = ("H 127.0.0.1:16201 delivery.duration_us " + encoded + " 3").getBytes(StandardCharsets.US_ASCII);
+        err.checkThat(parser.parseHistogram(data, data.length), is(true));
+        err.checkThat(parser.server(), is("127.0.0.1:16201"));
+        err.checkThat(parser.metric(), is("delivery.duration_us"));
+        err.checkThat(parser.histogram().encode(), is(encoded));
+        err.checkThat(parser.sequence(), is(3L));
+
+        data = ("H 127.0.0.1:16201 delivery.size " + encoded).getBytes(StandardCharsets.US_ASCII);
+        err.checkThat(parser.parseHistogram(data, data.length), is(true));
+        err.checkThat(parser.metric(), is("delivery.size"));
+        err.checkThat(parser.sequence(), is(-1L));
+        err.checkThat(parser.parseHistogram(data, 1), is(false));
+        data = "127.0.0.1:16201 trillian@earth.planet".getBytes(StandardCharsets.US_ASCII);
+        err.checkThat("a plain record is no histogram record", parser.parseHistogram(data, data.length), is(false));
+    }
+
+    @Test
+    public void parseHistogram_rejectsMalformedRecords() {
+        for (String record : new String[]{"H", "H ", "H 127.0.0.1:16201 metric", "H 127.0.0.1:16201  AQ",
+                "H 127.0.0.1:16201 metric AQ 1 2", "X 127.0.0.1:16201 metric AQ"}) {
+            byte[] data = record.getBytes(StandardCharsets.US_ASCII);
+            err.checkThat(record, parser.parseHistogram(data, data.length), is(false));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseHistogram_failsOnUndecodableHistogram() {
+        byte[] data = "H 127.0.0.1:16201 metric !!".getBytes(StandardCharsets.US_ASCII);
+        parser.parseHistogram(data, data.length);
+    }
+}
@@ -0,0 +1,97 @@
+package dslab.monitoring;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+/**
+ * Tests the approximate top-k counting: exact counts below the capacity, replacement of the smallest counter, and the
+ * guarantees on counts and errors of merged sketches.
+ */
+public class SpaceSavingTest {
+
+    @Rule
+    public ErrorCollector err = new ErrorCollector();
+
+    private static void add(SpaceSaving sketch, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            sketch.add(key);
+        }
+    }
+
+    @Test
+    public void top_countsExactlyBelowCapacity() {
+        SpaceSaving sketch = new SpaceSaving(3);
+        add(sketch, "a", 5);
+        add(sketch, "b", 2);
+        add(sketch, "c", 7);
+
+        err.checkThat(Arrays.asList(sketch.top()),
+                is(Arrays.asList("c 7 (error 0)", "a 5 (error 0)", "b 2 (error 0)")));
+    }
+
+    @Test
+    public void add_replacesSmallestCounter() {
+        SpaceSaving sketch = new SpaceSaving(2);
+        add(sketch, "a", 5);
+        add(sketch, "b", 2);
+
+        err.checkThat("a new key below capacity replaces nothing", sketch.add("a"), nullValue());
+        err.checkThat(sketch.add("c"), is("b"));
+        err.checkThat(sketch.contains("b"), is(false));
+        err.checkThat(sketch.contains("c"), is(true));
+        err.checkThat("the new key takes over the count as error",
+                Arrays.asList(sketch.top()), is(Arrays.asList("a 6 (error 0)", "c 3 (error 2)")));
+    }
+
+    @Test
+    public void top_keepsFrequentKeysInSkewedStream() {
+        SpaceSaving sketch = new SpaceSaving(4);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("heavy");
+            if (i % 2 == 0) {
+                sketch.add("medium");
+            }
+            sketch.add("rare" + i);
+        }
+
+        Map<String, Long> counts = SpaceSaving.counts(List.of(sketch));
+        err.checkThat(counts.containsKey("heavy"), is(true));
+        err.checkThat(counts.containsKey("medium"), is(true));
+        //overestimated by at most total/capacity
+        err.checkThat(counts.get("heavy") >= 1000 && counts.get("heavy") <= 1000 + 2500 / 4, is(true));
+        err.checkThat(sketch.top()[0].startsWith("heavy "), is(true));
+    }
+
+    @Test
+    public void counts_addSmallestCountOfFullSketchesMissingKey() {
+        SpaceSaving first = new SpaceSaving(2);
+        add(first, "a", 4);
+        add(first, "b", 3);
+        add(first, "c", 1);
+        SpaceSaving second = new SpaceSaving(2);
+        add(second, "a", 2);
+
+        //first: a 4, c 4 (error 3); second is not full, a key missing there did not occur
+        Map<String, Long> counts = SpaceSaving.counts(List.of(first, second));
+        err.checkThat(counts, is(Map.of("a", 6L, "c", 4L)));
+
+        //b missing in the full first sketch may have occurred up to its smallest count there
+        add(second, "b", 5);
+        counts = SpaceSaving.counts(List.of(first, second));
+        err.checkThat(counts.get("b"), is(4L + 5L));
+        err.checkThat(SpaceSaving.top(List.of(first, second))[0], is("b 9 (error 4)"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsEmptyCapacity() {
+        new SpaceSaving(0);
+    }
+}
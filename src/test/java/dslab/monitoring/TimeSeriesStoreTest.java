@@ -0,0 +1,68 @@
+package dslab.monitoring;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests querying the stored counts after reopening the store, and dropping expired counts and their keys.
+ */
+public class TimeSeriesStoreTest {
+
+    private static final long DAY = 24 * 60;
+
+    @Rule
+    public ErrorCollector err = new ErrorCollector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void query_readsCountsAfterReopen() throws Exception {
+        File dir = folder.newFolder();
+        TimeSeriesStore store = new TimeSeriesStore(dir, 14, 365);
+        store.appendMinute(100, Map.of("trillian@earth.planet", 2L, "127.0.0.1:16201", 2L));
+        store.appendMinute(101, Map.of("trillian@earth.planet", 1L));
+        store.appendHour(1, Map.of("trillian@earth.planet", 3L));
+        store.close();
+
+        TimeSeriesStore reopened = new TimeSeriesStore(dir, 14, 365);
+        err.checkThat(reopened.queryMinutes("trillian@earth.planet", 0, DAY),
+                is(new TreeMap<>(Map.of(100L, 2L, 101L, 1L))));
+        err.checkThat(reopened.queryMinutes("127.0.0.1:16201", 101, DAY), is(new TreeMap<>()));
+        err.checkThat(reopened.queryHours("trillian@earth.planet", 0, 24), is(new TreeMap<>(Map.of(1L, 3L))));
+        reopened.close();
+    }
+
+    @Test
+    public void appendMinute_dropsExpiredCountsAndTheirKeys() throws Exception {
+        File dir = folder.newFolder();
+        TimeSeriesStore store = new TimeSeriesStore(dir, 1, 1);
+        store.appendMinute(100, Map.of("arthur@earth.planet", 1L));
+        store.appendHour(1, Map.of("arthur@earth.planet", 1L));
+        store.appendMinute(DAY + 100, Map.of("zaphod@univer.ze", 1L));
+        store.appendHour(25, Map.of("zaphod@univer.ze", 1L));
+
+        err.checkThat(store.queryMinutes("arthur@earth.planet", 0, 2 * DAY).size(), is(0));
+        err.checkThat(store.queryHours("arthur@earth.planet", 0, 48).size(), is(0));
+        err.checkThat(store.queryHours("zaphod@univer.ze", 0, 48), is(new TreeMap<>(Map.of(25L, 1L))));
+        store.close();
+
+        //numbers of dropped keys are not reused
+        TimeSeriesStore reopened = new TimeSeriesStore(dir, 1, 1);
+        reopened.appendMinute(DAY + 101, Map.of("trillian@earth.planet", 1L));
+        reopened.close();
+        err.checkThat(Files.readAllLines(dir.toPath().resolve("keys.txt"), StandardCharsets.UTF_8),
+                is(Arrays.asList("1 zaphod@univer.ze", "2 trillian@earth.planet")));
+    }
+}
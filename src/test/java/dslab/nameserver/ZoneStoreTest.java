@@ -0,0 +1,114 @@
+package dslab.nameserver;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests replaying the zone journal on top of the snapshot, and recovering from a torn or corrupt journal.
+ */
+public class ZoneStoreTest {
+
+    @Rule
+    public ErrorCollector err = new ErrorCollector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ZoneStore store(File dir) throws Exception {
+        return new ZoneStore(dir, "ns-test", 1000, true);
+    }
+
+    @Test
+    public void loadJournal_replaysChangesAfterVersion() throws Exception {
+        File dir = folder.newFolder();
+        ZoneStore store = store(dir);
+        store.append(ZoneChange.mailbox(1, "earth", "127.0.0.1:16503"));
+        store.append(ZoneChange.mailbox(2, "moon", "127.0.0.1:16504"));
+        store.append(ZoneChange.nameserverRemoved(3, "planet"));
+        store.close();
+
+        List<ZoneChange> changes = store(dir).loadJournal(1);
+        err.checkThat(changes.size(), is(2));
+        err.checkThat(changes.get(0).getZone(), is("moon"));
+        err.checkThat(changes.get(0).getAddress(), is("127.0.0.1:16504"));
+        err.checkThat(changes.get(1).getType(), is(ZoneChange.Type.NAMESERVER_REMOVED));
+        err.checkThat(store(dir).loadJournal(0).size(), is(3));
+    }
+
+    @Test
+    public void compact_replacesJournalWithSnapshot() throws Exception {
+        File dir = folder.newFolder();
+        ZoneStore store = store(dir);
+        err.checkThat("no snapshot yet", store.loadSnapshot(), nullValue());
+        store.append(ZoneChange.mailbox(1, "earth", "127.0.0.1:16503"));
+        store.compact(new ZoneSnapshot(1, Map.of(), Map.of("earth", "127.0.0.1:16503")));
+        store.append(ZoneChange.mailbox(2, "moon", "127.0.0.1:16504"));
+        store.close();
+
+        ZoneStore restored = store(dir);
+        ZoneSnapshot snapshot = restored.loadSnapshot();
+        err.checkThat(snapshot.getVersion(), is(1L));
+        err.checkThat(snapshot.getMailboxes(), is(Map.of("earth", "127.0.0.1:16503")));
+        List<ZoneChange> changes = restored.loadJournal(snapshot.getVersion());
+        err.checkThat("only the change after the snapshot is journaled", changes.size(), is(1));
+        err.checkThat(changes.get(0).getZone(), is("moon"));
+    }
+
+    @Test
+    public void loadJournal_cutsOffTornTail() throws Exception {
+        File dir = folder.newFolder();
+        ZoneStore store = store(dir);
+        store.append(ZoneChange.mailbox(1, "earth", "127.0.0.1:16503"));
+        store.append(ZoneChange.mailbox(2, "moon", "127.0.0.1:16504"));
+        store.close();
+
+        //crash while appending the second record
+        Path journal = dir.toPath().resolve("ns-test.journal");
+        long size = Files.size(journal);
+        try (RandomAccessFile file = new RandomAccessFile(journal.toFile(), "rw")) {
+            file.setLength(size - 10);
+        }
+
+        ZoneStore restored = store(dir);
+        List<ZoneChange> changes = restored.loadJournal(0);
+        err.checkThat(changes.size(), is(1));
+        err.checkThat(changes.get(0).getZone(), is("earth"));
+
+        //the next change follows the last good record
+        restored.append(ZoneChange.mailbox(2, "mars", "127.0.0.1:16505"));
+        restored.close();
+        changes = store(dir).loadJournal(0);
+        err.checkThat(changes.size(), is(2));
+        err.checkThat(changes.get(1).getZone(), is("mars"));
+    }
+
+    @Test
+    public void loadJournal_keepsCopyOfCorruptJournal() throws Exception {
+        File dir = folder.newFolder();
+        ZoneStore store = store(dir);
+        store.append(ZoneChange.mailbox(1, "earth", "127.0.0.1:16503"));
+        store.close();
+        Path journal = dir.toPath().resolve("ns-test.journal");
+        long good = Files.size(journal);
+        //a complete record that does not deserialize
+        Files.write(journal, new byte[]{0, 0, 0, 4, 1, 2, 3, 4}, StandardOpenOption.APPEND);
+
+        List<ZoneChange> changes = store(dir).loadJournal(0);
+        err.checkThat(changes.size(), is(1));
+        err.checkThat("journal is cut off before the corrupt record", Files.size(journal), is(good));
+        err.checkThat(Files.size(dir.toPath().resolve("ns-test.journal.corrupt")), is(good + 8));
+    }
+}
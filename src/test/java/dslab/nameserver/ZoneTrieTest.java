@@ -0,0 +1,106 @@
+package dslab.nameserver;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+/**
+ * Tests the lookups of the zone trie: exact matches, delegations to (subtree) nameservers and replacing the content.
+ */
+public class ZoneTrieTest {
+
+    @Rule
+    public ErrorCollector err = new ErrorCollector();
+
+    //a nameserver stub, only compared by identity
+    private static INameserverRemote nameserver(String name) {
+        return (INameserverRemote) Proxy.newProxyInstance(INameserverRemote.class.getClassLoader(),
+                new Class<?>[]{INameserverRemote.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return name;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Test
+    public void resolve_returnsMailboxOfExactZone() {
+        ZoneTrie trie = new ZoneTrie();
+        trie.putMailbox("earth", "127.0.0.1:16503");
+        trie.putMailbox("moon.earth", "127.0.0.1:16504");
+
+        err.checkThat(trie.resolve("earth").getAddress(), is("127.0.0.1:16503"));
+        err.checkThat(trie.resolve("moon.earth").getAddress(), is("127.0.0.1:16504"));
+        err.checkThat("an inner label without mailbox is not found", trie.resolve("mars").getAddress(), nullValue());
+        err.checkThat(trie.resolve("sun.moon.earth").getAddress(), nullValue());
+        err.checkThat(trie.getMailbox("moon.earth"), is("127.0.0.1:16504"));
+    }
+
+    @Test
+    public void resolve_delegatesRemainingLabelsToLongestSuffix() {
+        INameserverRemote planet = nameserver("planet");
+        INameserverRemote vienna = nameserver("vienna.earth");
+        ZoneTrie trie = new ZoneTrie();
+        trie.putNameserver("planet", planet);
+        trie.putNameserver("vienna.earth", vienna);
+
+        Resolution resolution = trie.resolve("earth.planet");
+        err.checkThat(resolution.getNameserver(), sameInstance(planet));
+        err.checkThat(resolution.getZone(), is("planet"));
+        err.checkThat(resolution.getRemaining(), is("earth"));
+
+        resolution = trie.resolve("ring.moon.vienna.earth");
+        err.checkThat("a subtree nameserver gets all labels below its zone",
+                resolution.getNameserver(), sameInstance(vienna));
+        err.checkThat(resolution.getZone(), is("vienna.earth"));
+        err.checkThat(resolution.getRemaining(), is("ring.moon"));
+
+        err.checkThat("the delegated zone itself is no delegation",
+                trie.findDelegation("planet"), nullValue());
+        err.checkThat(trie.findDelegation("earth.planet").getNameserver(), sameInstance(planet));
+        err.checkThat(trie.getNameserver("vienna.earth"), sameInstance(vienna));
+    }
+
+    @Test
+    public void removeNameserver_keepsMailboxOfZone() {
+        ZoneTrie trie = new ZoneTrie();
+        trie.putNameserver("planet", nameserver("planet"));
+        trie.putMailbox("planet", "127.0.0.1:16503");
+        trie.removeNameserver("planet");
+        trie.removeNameserver("unknown");
+
+        err.checkThat(trie.getNameserver("planet"), nullValue());
+        err.checkThat(trie.resolve("planet").getAddress(), is("127.0.0.1:16503"));
+        err.checkThat(trie.nameservers().isEmpty(), is(true));
+    }
+
+    @Test
+    public void listsAndReplace_useFullZoneNames() {
+        INameserverRemote planet = nameserver("planet");
+        ZoneTrie trie = new ZoneTrie();
+        trie.putNameserver("planet", planet);
+        trie.putMailbox("moon.earth", "127.0.0.1:16504");
+        trie.putMailbox("earth", "127.0.0.1:16503");
+
+        err.checkThat(trie.nameservers(), is(Map.of("planet", planet)));
+        err.checkThat(trie.mailboxes(), is(Map.of("earth", "127.0.0.1:16503", "moon.earth", "127.0.0.1:16504")));
+
+        trie.replace(Map.of(), Map.of("mars", "127.0.0.1:16505"));
+        err.checkThat(trie.nameservers().isEmpty(), is(true));
+        err.checkThat(trie.mailboxes(), is(Map.of("mars", "127.0.0.1:16505")));
+        err.checkThat("replaced content is gone", trie.resolve("earth").getAddress(), nullValue());
+    }
+}
@@ -0,0 +1,89 @@
+package dslab.naming;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import dslab.ComponentFactory;
+import dslab.Constants;
+import dslab.TestInputStream;
+import dslab.TestOutputStream;
+import dslab.nameserver.INameserverRemote;
+import dslab.util.Config;
+
+/**
+ * Tests that a secondary nameserver replicates the zone of the root nameserver.
+ */
+public class NameserverReplicaTest {
+
+    private static final Log LOG = LogFactory.getLog(NameserverReplicaTest.class);
+
+    @Rule
+    public ErrorCollector err = new ErrorCollector();
+
+    private TestInputStream nsRootIn;
+    private TestInputStream nsPlanetIn;
+    private TestInputStream nsReplicaIn;
+
+    private Config nsReplicaConfig;
+
+    private static void sendShutdown(TestInputStream in) {
+        try {
+            in.addLine("shutdown");
+            Thread.sleep(Constants.COMPONENT_TEARDOWN_WAIT);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.nsRootIn = new TestInputStream();
+        this.nsPlanetIn = new TestInputStream();
+        this.nsReplicaIn = new TestInputStream();
+
+        this.nsReplicaConfig = new Config("ns-root-replica");
+    }
+
+    @Test(timeout = 30000)
+    public void replica_servesZoneOfPrimaryAndForwardsRegistrations() throws Exception {
+        new Thread(ComponentFactory.createNameserver("ns-root", nsRootIn, new TestOutputStream())).start();
+        Thread.sleep(Constants.COMPONENT_STARTUP_WAIT);
+        new Thread(ComponentFactory.createNameserver("ns-planet", nsPlanetIn, new TestOutputStream())).start();
+        Thread.sleep(Constants.COMPONENT_STARTUP_WAIT);
+
+        LOG.info("Starting ns-root-replica thread");
+        new Thread(ComponentFactory.createNameserver("ns-root-replica", nsReplicaIn, new TestOutputStream())).start();
+        Thread.sleep(Constants.COMPONENT_STARTUP_WAIT);
+
+        try {
+            Registry registry = LocateRegistry.getRegistry(nsReplicaConfig.getString("registry.host"), nsReplicaConfig.getInt("registry.port"));
+            INameserverRemote replica = (INameserverRemote) registry.lookup(nsReplicaConfig.getString("replica_id"));
+
+            err.checkThat("replica should know the zone registered at the primary before it started",
+                    replica.getNameserver("planet"), not(nullValue()));
+
+            LOG.info("Registering mailbox server for @ze mail domain at the replica");
+            replica.registerMailboxServer("ze", "192.168.0.1:14242");
+            Thread.sleep(2 * nsReplicaConfig.getInt("replication.interval"));
+
+            INameserverRemote root = (INameserverRemote) registry.lookup(nsReplicaConfig.getString("primary_id"));
+            err.checkThat("registration should be forwarded to the primary", root.lookup("ze"), is("192.168.0.1:14242"));
+            err.checkThat("change should be replicated back", replica.lookup("ze"), is("192.168.0.1:14242"));
+        } finally {
+            sendShutdown(nsReplicaIn);
+            sendShutdown(nsPlanetIn);
+            sendShutdown(nsRootIn);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package dslab.util;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+/**
+ * Tests the distinct count estimate of the HyperLogLog sketch, merging sketches and the round trip through its
+ * encoding.
+ */
+public class HyperLogLogTest {
+
+    @Rule
+    public ErrorCollector err = new ErrorCollector();
+
+    private static HyperLogLog sketch(String prefix, int from, int to) {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = from; i < to; i++) {
+            sketch.add(prefix + i + "@earth.planet");
+        }
+        return sketch;
+    }
+
+    //well within 4 standard errors (1.6% each)
+    private void checkEstimate(long estimate, long expected) {
+        double error = Math.abs(estimate - expected) / (double) expected;
+        err.checkThat("estimate " + estimate + " of " + expected, error < 0.065, is(true));
+    }
+
+    @Test
+    public void estimate_countsDistinctValues() {
+        err.checkThat(new HyperLogLog().estimate(), is(0L));
+
+        HyperLogLog sketch = sketch("user", 0, 10);
+        err.checkThat("small counts are exact", sketch.estimate(), is(10L));
+        checkEstimate(sketch("user", 0, 100).estimate(), 100);
+
+        sketch = sketch("user", 0, 50000);
+        //duplicates do not count
+        for (int i = 0; i < 50000; i += 3) {
+            sketch.add("user" + i + "@earth.planet");
+        }
+        checkEstimate(sketch.estimate(), 50000);
+
+        sketch.reset();
+        err.checkThat(sketch.estimate(), is(0L));
+    }
+
+    @Test
+    public void merge_estimatesUnion() {
+        HyperLogLog first = sketch("user", 0, 30000);
+        HyperLogLog second = sketch("user", 20000, 60000);
+        first.merge(second);
+
+        checkEstimate(first.estimate(), 60000);
+        checkEstimate(second.estimate(), 40000);
+    }
+
+    @Test
+    public void encode_roundTripsRegisters() {
+        HyperLogLog sketch = sketch("user", 0, 5000);
+        String encoded = sketch.encode();
+        HyperLogLog decoded = HyperLogLog.decode(encoded);
+
+        err.checkThat(decoded.estimate(), is(sketch.estimate()));
+        err.checkThat(decoded.encode(), is(encoded));
+        err.checkThat("no spaces, it is a part of a record", encoded.contains(" "), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsWrongNumberOfRegisters() {
+        HyperLogLog.decode("AAAA");
+    }
+}
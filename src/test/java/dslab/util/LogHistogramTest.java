@@ -0,0 +1,103 @@
+package dslab.util;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+/**
+ * Tests the quantiles of the log histogram, its estimated sum and the round trip through its encoding.
+ */
+public class LogHistogramTest {
+
+    @Rule
+    public ErrorCollector err = new ErrorCollector();
+
+    @Test
+    public void valueAt_isWithinBucketPrecision() {
+        LogHistogram histogram = new LogHistogram();
+        for (int value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+
+        err.checkThat(histogram.getCount(), is(10000L));
+        err.checkThat(histogram.getMax(), is(10000L));
+        err.checkThat("small values are exact", histogram.valueAt(0.001), is(10L));
+        long median = histogram.valueAt(0.5);
+        err.checkThat("median " + median, median >= 5000 && median <= 5000 * 17 / 16, is(true));
+        err.checkThat("at most the largest value", histogram.valueAt(1), is(10000L));
+        err.checkThat(new LogHistogram().valueAt(0.5), is(0L));
+    }
+
+    @Test
+    public void getSum_estimatesWithinBucketPrecision() {
+        LogHistogram histogram = new LogHistogram();
+        long sum = 0;
+        for (long value = 0; value < 100000; value += 7) {
+            histogram.record(value);
+            sum += value;
+        }
+        double error = Math.abs(histogram.getSum() - sum) / sum;
+        err.checkThat("relative error " + error, error <= 1.0 / 32, is(true));
+
+        LogHistogram small = new LogHistogram();
+        small.record(3);
+        small.record(15);
+        small.record(-4);
+        err.checkThat("values below 16 are exact, negative ones count as 0", small.getSum(), is(18.0));
+    }
+
+    @Test
+    public void encode_roundTripsCountsAndMax() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(0);
+        histogram.record(17);
+        histogram.record(17);
+        histogram.record(123456);
+        histogram.record(Long.MAX_VALUE);
+
+        String encoded = histogram.encode();
+        err.checkThat("no spaces, it is a part of a record", encoded.contains(" "), is(false));
+        LogHistogram decoded = LogHistogram.decode(encoded);
+        err.checkThat(decoded.getCount(), is(5L));
+        err.checkThat(decoded.getMax(), is(Long.MAX_VALUE));
+        err.checkThat(decoded.encode(), is(encoded));
+        for (double quantile : new double[]{0.1, 0.5, 0.7, 0.9, 1}) {
+            err.checkThat("quantile " + quantile, decoded.valueAt(quantile), is(histogram.valueAt(quantile)));
+        }
+
+        byte[] packet = ("H " + encoded + " 1").getBytes(StandardCharsets.US_ASCII);
+        LogHistogram fromBytes = LogHistogram.decode(packet, 2, encoded.length());
+        err.checkThat(fromBytes.encode(), is(encoded));
+    }
+
+    @Test
+    public void merge_addsCounts() {
+        LogHistogram first = new LogHistogram();
+        first.record(5);
+        LogHistogram second = new LogHistogram();
+        second.record(1000);
+        second.record(1000);
+        first.merge(second);
+
+        err.checkThat(first.getCount(), is(3L));
+        err.checkThat(first.getMax(), is(1000L));
+        err.checkThat(first.valueAt(0.3), is(5L));
+
+        first.reset();
+        err.checkThat(first.getCount(), is(0L));
+        err.checkThat(first.encode(), is(new LogHistogram().encode()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsTruncatedHistogram() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(1L << 40);
+        String encoded = histogram.encode();
+        //the count of the bucket is missing
+        LogHistogram.decode(encoded.substring(0, encoded.length() - 2));
+    }
+}